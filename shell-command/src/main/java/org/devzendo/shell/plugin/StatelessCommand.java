@@ -0,0 +1,38 @@
+package org.devzendo.shell.plugin;
+
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.annotation.*;
+
+/**
+ * Set this on a plugin method that reads its input pipe until it is empty,
+ * treating each object independently of all others: no state is carried from
+ * one object to the next, and nothing is output other than in response to an
+ * input object. The output for a whole stream is then the same as the output
+ * for each object in turn, which lets the interpreter run such a command
+ * directly on the thread of the command feeding it, rather than on a thread
+ * of its own connected by a pipe.
+ * <p>
+ * Run that way, it is executed once for each batch of objects pushed to it,
+ * so any setup it does from its arguments - and any warnings about them -
+ * should be done through a CommandSetup parameter, to happen only once.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface StatelessCommand {
+}
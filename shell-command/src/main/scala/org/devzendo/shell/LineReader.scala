@@ -21,6 +21,7 @@ import jline.console.history.FileHistory
 import java.io.File
 import jline.console.completer.{Completer, CompletionHandler}
 import java.util
+import org.devzendo.shell.interpreter.StartupTimes
 
 /*
  * Much gratitude to sbt's authors, as this JLine integration was taken from
@@ -34,9 +35,11 @@ trait LineReader {
     def readLine(prompt: String, mask: Option[Char] = None): Option[String]
 }
 
-final class JLineLineReader(historyPath: File, completionHandler: CompletionHandler) extends LineReader {
+final class JLineLineReader(historyPath: File, completionHandler: CompletionHandler, startupTimes: StartupTimes) extends LineReader {
+    def this(historyPath: File, completionHandler: CompletionHandler) = this(historyPath, completionHandler, new StartupTimes())
+
     private[this] val reader: ConsoleReader = {
-        val cr = JLine.createReader(historyPath)
+        val cr = JLine.createReader(historyPath, startupTimes)
         // add a dummy completer, to force use of the CompletionHandler
         cr.addCompleter(new Completer() {
             def complete(buffer: String, cursor: Int, candidates: util.List[CharSequence]) = {
@@ -121,11 +124,13 @@ object JLine {
             f(t)
         }
 
-    def createReader(historyPath: File): ConsoleReader =
+    def createReader(historyPath: File): ConsoleReader = createReader(historyPath, new StartupTimes())
+
+    def createReader(historyPath: File, startupTimes: StartupTimes): ConsoleReader =
         usingTerminal { t =>
-            val cr = new ConsoleReader
+            val cr = startupTimes.time("console reader") { new ConsoleReader }
             cr.setBellEnabled(false)
-            val h = new FileHistory(historyPath)
+            val h = startupTimes.time("history loading") { new FileHistory(historyPath) }
             h.setMaxSize(MaxHistorySize)
             cr.setHistory(h)
             cr
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell
+
+import java.io._
+import java.net.{SocketAddress, StandardProtocolFamily}
+import java.nio.channels.{Channels, ClosedChannelException, ServerSocketChannel, SocketChannel}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, LinkOption, Path}
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.log4j.Logger
+
+object ShellDaemon {
+    private val LOGGER = Logger.getLogger(classOf[ShellDaemon])
+
+    // the file type bits of a unix:mode, and their value for a socket
+    private val S_IFMT = 0xf000
+    private val S_IFSOCK = 0xc000
+
+    /**
+     * Precedes the exit status of a request's script, on the last line sent
+     * back: 0 if it ran without failing, else 1.
+     */
+    val EXIT_STATUS_PREFIX = "dzsh-exit-status "
+
+    /**
+     * The address of a Unix domain socket, if this JVM has them (Java 16
+     * onwards); they're looked up reflectively so the shell still runs on
+     * older JVMs.
+     */
+    def unixDomainSocketAddress(socketFile: File): Option[SocketAddress] = {
+        try {
+            val addressClass = Class.forName("java.net.UnixDomainSocketAddress")
+            val of = addressClass.getMethod("of", classOf[java.nio.file.Path])
+            Some(of.invoke(null, socketFile.toPath).asInstanceOf[SocketAddress])
+        } catch {
+            case e: ClassNotFoundException =>
+                LOGGER.debug("Unix domain sockets are not available in this JVM")
+                None
+        }
+    }
+
+    def unixProtocolFamily: StandardProtocolFamily = StandardProtocolFamily.valueOf("UNIX")
+
+    /**
+     * Read a request: a line per argument, 'arg ...', then an empty line,
+     * then the script, up to the end of the input. The arguments, and the
+     * empty line, may be omitted.
+     *
+     * @return the arguments, and the script
+     */
+    @throws[IOException]
+    def readRequest(reader: BufferedReader): (List[String], String) = {
+        val args = scala.collection.mutable.ListBuffer[String]()
+        val script = new StringBuilder()
+        var line = reader.readLine()
+        while (line != null && line.startsWith("arg ")) {
+            args += line.substring(4)
+            line = reader.readLine()
+        }
+        if (line != null && line.isEmpty) {
+            line = reader.readLine()
+        }
+        while (line != null) {
+            script.append(line).append('\n')
+            line = reader.readLine()
+        }
+        (args.toList, script.toString())
+    }
+}
+
+/**
+ * Runs scripts sent to it over a Unix domain socket, so that short scripts
+ * run often, as from cron, don't each pay for starting the JVM and
+ * registering the shell's plugins. Each request is run on its own thread,
+ * and its output sent back, then a line giving its exit status, before its
+ * connection is closed. See dzshc, in shell-command-linux, for a client.
+ *
+ * An existing socket file is only replaced if it is a socket that nothing is
+ * listening on, left by a daemon that has stopped; anything else there is an
+ * error. The socket is created in a directory only its owner can enter, and
+ * made accessible to its owner only, before it is linked into place, so that
+ * no-one else can ever connect to it.
+ *
+ * @param socketFile the socket to listen on
+ * @param runRequest runs the script of a request, given its arguments,
+ * writing its output, and returning its exit status
+ */
+class ShellDaemon(socketFile: File, runRequest: (List[String], String, PrintWriter) => Int) {
+    import ShellDaemon.LOGGER
+
+    private val requestNumber = new AtomicInteger(0)
+    @volatile private var server: Option[ServerSocketChannel] = None
+
+    /**
+     * Serve requests until closed.
+     */
+    @throws[IOException]
+    def serve() {
+        val address = ShellDaemon.unixDomainSocketAddress(socketFile).getOrElse(
+            throw new IOException("Unix domain sockets need Java 16 or later"))
+        removeStaleSocket(address)
+        val serverChannel = ServerSocketChannel.open(ShellDaemon.unixProtocolFamily)
+        server = Some(serverChannel)
+        var published = false
+        try {
+            bindPrivately(serverChannel)
+            published = true
+            socketFile.deleteOnExit()
+            LOGGER.info("Serving scripts on " + socketFile)
+            while (serverChannel.isOpen) {
+                val channel = serverChannel.accept()
+                val thread = new Thread(new Runnable {
+                    def run() {
+                        serveRequest(channel)
+                    }
+                }, "daemon-request-" + requestNumber.incrementAndGet())
+                thread.setDaemon(true)
+                thread.start()
+            }
+        } catch {
+            case e: ClosedChannelException =>
+                LOGGER.debug("Daemon closed")
+        } finally {
+            serverChannel.close()
+            if (published) {
+                Files.deleteIfExists(socketFile.toPath)
+            }
+        }
+    }
+
+    /**
+     * Stop serving requests; those being run carry on.
+     */
+    def close() {
+        server.foreach(_.close())
+    }
+
+    @throws[IOException]
+    private def removeStaleSocket(address: SocketAddress) {
+        val path = socketFile.toPath
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (!isSocket(path)) {
+                throw new IOException(socketFile + " exists, and is not a socket")
+            }
+            if (isListening(address)) {
+                throw new IOException("A daemon is already serving scripts on " + socketFile)
+            }
+            LOGGER.debug("Replacing the stale socket " + socketFile)
+            Files.delete(path)
+        }
+    }
+
+    private def isSocket(path: Path): Boolean = {
+        try {
+            val mode = Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS).asInstanceOf[Integer]
+            (mode & ShellDaemon.S_IFMT) == ShellDaemon.S_IFSOCK
+        } catch {
+            case e: UnsupportedOperationException => false
+            case e: IllegalArgumentException => false
+        }
+    }
+
+    private def isListening(address: SocketAddress): Boolean = {
+        val channel = SocketChannel.open(ShellDaemon.unixProtocolFamily)
+        try {
+            channel.connect(address)
+            true
+        } catch {
+            case e: IOException => false
+        } finally {
+            channel.close()
+        }
+    }
+
+    // Bind in a new directory that only the owner can enter, restrict the
+    // socket to its owner, then hard-link it into place; linking fails,
+    // rather than replacing it, if something has appeared there meanwhile.
+    @throws[IOException]
+    private def bindPrivately(serverChannel: ServerSocketChannel) {
+        val parent = socketFile.getAbsoluteFile.getParentFile.toPath
+        val privateDirectory = try {
+            Files.createTempDirectory(parent, ".dzsh-", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")))
+        } catch {
+            case e: UnsupportedOperationException =>
+                throw new IOException("Can't restrict access to " + socketFile + ": " + e.getMessage)
+        }
+        val privateSocket = privateDirectory.resolve("socket")
+        try {
+            serverChannel.bind(ShellDaemon.unixDomainSocketAddress(privateSocket.toFile).get)
+            restrictToOwner(privateSocket)
+            Files.createLink(socketFile.toPath, privateSocket)
+        } finally {
+            Files.deleteIfExists(privateSocket)
+            Files.delete(privateDirectory)
+        }
+    }
+
+    @throws[IOException]
+    private def restrictToOwner(path: Path) {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"))
+        } catch {
+            case e: UnsupportedOperationException =>
+                throw new IOException("Can't restrict access to " + socketFile + ": " + e.getMessage)
+        }
+    }
+
+    private def serveRequest(channel: SocketChannel) {
+        try {
+            val reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))
+            val writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))
+            val (args, script) = ShellDaemon.readRequest(reader)
+            LOGGER.debug("Running request with arguments " + args + ": [" + script + "]")
+            val exitStatus = runRequest(args, script, writer)
+            writer.synchronized {
+                writer.println(ShellDaemon.EXIT_STATUS_PREFIX + exitStatus)
+                writer.flush()
+            }
+        } catch {
+            case e: IOException =>
+                LOGGER.warn("Request failed: " + e.getMessage)
+                LOGGER.debug("Request failed: " + e.getMessage, e)
+        } finally {
+            channel.close()
+        }
+    }
+}
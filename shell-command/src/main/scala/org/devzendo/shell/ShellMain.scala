@@ -19,47 +19,60 @@ package org.devzendo.shell
 import org.apache.log4j.Logger
 import org.devzendo.commoncode.logging.Logging
 import org.devzendo.commonapp.prefs.{DefaultPrefsLocation, PrefsLocation}
-import java.io.File
+import java.io.{BufferedReader, File, FileReader, IOException, PrintWriter}
 
 import org.fusesource.jansi.{AnsiConsole, AnsiRenderer}
 import jline.console.completer.CompletionHandler
 import jline.console.ConsoleReader
 import java.util
+import java.util.concurrent.ConcurrentHashMap
 
 import org.devzendo.shell.plugin._
-import org.devzendo.shell.pipe.{VariableInputPipe, VariableOutputPipe}
+import org.devzendo.shell.pipe.{BufferedPipeFactory, LogInfoOutputPipe, OutputPipe, PipeFactory, RendezvousPipeFactory, RingBufferPipeFactory, VariableInputPipe, VariableOutputPipe, WriterOutputPipe}
 
 import collection.JavaConverters._
-import org.devzendo.shell.parser.{CommandParser, CommandParserException, ExistenceChecker}
+import org.devzendo.shell.parser.{CommandParser, CommandParserException, ExistenceChecker, StatementReader}
 import org.devzendo.shell.interpreter._
 import org.devzendo.shell.interpreter.CommandHandlerWirer
 import org.devzendo.commoncode.resource.ResourceLoader
-import org.devzendo.shell.analyser.SemanticAnalyser
+import org.devzendo.shell.analyser.{ConstantFolder, SemanticAnalyser, TypeInferencer}
 import org.devzendo.shell.ast.VariableReference
 
-import scala.io.Source
 
 
 object ExecutionMode extends Enumeration {
     type ExecutionMode = Value
-    val Interactive, Script, OneLiner = Value
+    val Interactive, Script, OneLiner, Daemon = Value
 }
 
 trait ScriptSource {
     def initialise
     def nextScript: Option[String]
+
+    /**
+     * Called when the last script returned by nextScript failed; by default
+     * the next script is run regardless.
+     */
+    def failed() {}
 }
 
-class ShellMain(val argList: List[String]) {
+class ShellMain(val argList: List[String], val startupTimes: StartupTimes) {
     import ShellMain._
     import ExecutionMode._
 
+    def this(argList: List[String]) = this(argList, new StartupTimes())
+
     val commandRegistry = new CommandRegistry()
     val variableRegistry = new DefaultVariableRegistry(None)
     val pluginRegistry = new DefaultPluginRegistry(ShellMain.SHELLPLUGIN_PROPERTIES, commandRegistry, variableRegistry, argList)
-    val shellProperties = loadShellProperties()
+    val shellProperties = startupTimes.time("shell properties") { loadShellProperties() }
     
+    private lazy val parser = createParser()
+    private val planCache = new ExecutionPlanCache()
     private var quitShell = false
+    // the requests the ShellDaemon is running, by their variable registries
+    private val daemonRequests = new ConcurrentHashMap[VariableRegistry, DaemonRequest]()
+    private var stageExecutor: StageExecutor = StageExecutors.ThreadPerStage
 
     class InternalShellPlugin extends ShellPlugin {
         @Override
@@ -67,10 +80,41 @@ class ShellMain(val argList: List[String]) {
             "Internal"
         }
 
+        // Quitting a script run by the ShellDaemon ends just that script.
         @CommandAlias(alias = "exit")
-        def quit() {
-            LOGGER.debug("Requesting interpreter termination")
-            quitShell = true
+        def quit(variableRegistry: VariableRegistry) {
+            daemonRequest(variableRegistry) match {
+                case Some(request) =>
+                    LOGGER.debug("Requesting daemon request termination")
+                    request.quit = true
+                case None =>
+                    LOGGER.debug("Requesting interpreter termination")
+                    quitShell = true
+            }
+        }
+
+        // Describe what runs pipeline commands, and how busy it is.
+        def executorStats(outputPipe: OutputPipe) {
+            outputPipe.push("executor=" + stageExecutor)
+            stageExecutor match {
+                case pool: StagePool => pool.statistics.foreach(outputPipe.push)
+                case _ =>
+            }
+        }
+
+        // Describe how often lines were parsed anew.
+        def parseCacheStats(outputPipe: OutputPipe) {
+            parser.cacheStatistics.foreach(outputPipe.push)
+        }
+
+        // Describe how often statements were compiled anew.
+        def planCacheStats(outputPipe: OutputPipe) {
+            planCache.statistics.foreach(outputPipe.push)
+        }
+
+        // Describe where the time went in starting the shell.
+        def startupTimes(outputPipe: OutputPipe) {
+            ShellMain.this.startupTimes.report.foreach(outputPipe.push)
         }
 
         @Override
@@ -98,6 +142,34 @@ class ShellMain(val argList: List[String]) {
         LOGGER.info("-help, -?      - just display this help text")
         LOGGER.info("-version       - just display the version of dzsh")
         LOGGER.info("-script '....' - execute a 'one-liner' script")
+        LOGGER.info("-pipe TYPE     - connect pipeline commands with pipes of this type:")
+        LOGGER.info("                 rendezvous (the default), buffered or ring")
+        LOGGER.info("                 (ring is lock-free, for one producer/consumer)")
+        LOGGER.info("-pipebuffer N  - buffer up to N objects between pipeline commands")
+        LOGGER.info("                 (buffered is used if no -pipe TYPE is given)")
+        LOGGER.info("-executor TYPE - run pipeline commands on a pool of reused threads")
+        LOGGER.info("                 (pool, the default), a new thread per command")
+        LOGGER.info("                 (platform) or virtual threads (virtual, Java 21+)")
+        LOGGER.info("-poolsize N    - keep up to N threads in the pool (default " + StagePool.defaultWorkers + ")")
+        LOGGER.info("-nofusion      - run every pipeline command on its own thread, even")
+        LOGGER.info("                 stateless ones that could run on the thread of")
+        LOGGER.info("                 the command feeding them")
+        LOGGER.info("-cooperative N - run pipelines of up to N commands one command after")
+        LOGGER.info("                 another on the shell's thread, starting threads")
+        LOGGER.info("                 only if a command has too much output to hold")
+        LOGGER.info("                 (default " + DEFAULT_COOPERATIVE_STAGE_LIMIT + ", 0 disables this)")
+        LOGGER.info("-fanoutbuffer N - buffer up to N objects for each [branch] a pipeline")
+        LOGGER.info("                 fans out to, before the slowest holds up the rest")
+        LOGGER.info("                 (default " + ExecutionOptions.DEFAULT_FAN_OUT_BUFFER_SIZE + ")")
+        LOGGER.info("-eagerplugins  - load and initialise every plugin on startup, rather")
+        LOGGER.info("                 than on first use of one of its commands")
+        LOGGER.info("-startupthreads N - start up to N plugins at once (default " + DefaultPluginRegistry.defaultStartupThreads + ",")
+        LOGGER.info("                 1 starts them one after another)")
+        LOGGER.info("-startuptimes  - show how long each phase of startup took, before")
+        LOGGER.info("                 the first prompt (see also the startupTimes command)")
+        LOGGER.info("-daemon SOCKET - serve scripts sent to the Unix domain socket SOCKET")
+        LOGGER.info("                 by dzshc (which expects ~/.dzsh/daemon.sock),")
+        LOGGER.info("                 rather than running any given here (Java 16+)")
         LOGGER.info("Log4j output control options:")
         LOGGER.info("-debug         - set the log level to debug (default is info)")
         LOGGER.info("-warn          - set the log level to warning")
@@ -134,11 +206,21 @@ class ShellMain(val argList: List[String]) {
 
     def start() {
         ShellMain.LOGGER.debug("Starting " + SHELL_NAME)
-        val shellProperties = loadShellProperties()
         var scripts = new scala.collection.mutable.ListBuffer[File]
         var oneLiner = new scala.collection.mutable.ListBuffer[String]
         var executionMode = Interactive
         var showBanner = true
+        var pipeType: Option[String] = None
+        var pipeBufferSize: Option[Int] = None
+        var executorType: Option[String] = None
+        var poolSize = StagePool.defaultWorkers
+        var fuseStatelessCommands = true
+        var deferPluginLoading = true
+        var showStartupTimes = false
+        var daemonSocket: Option[File] = None
+        var startupThreads = DefaultPluginRegistry.defaultStartupThreads
+        var cooperativeStageLimit = DEFAULT_COOPERATIVE_STAGE_LIMIT
+        var fanOutBufferSize = ExecutionOptions.DEFAULT_FAN_OUT_BUFFER_SIZE
 
         var argIndex = 0
         while (argIndex < argList.length)
@@ -148,6 +230,9 @@ class ShellMain(val argList: List[String]) {
             ShellMain.LOGGER.debug("ARG: [" + f + "]")
             f match {
                 case "-nobanner" => showBanner = false
+                case "-nofusion" => fuseStatelessCommands = false
+                case "-eagerplugins" => deferPluginLoading = false
+                case "-startuptimes" => showStartupTimes = true
                 case "-help" => { usage(); exit() }
                 case "-?" => { usage(); exit() }
                 case "-version"  => { version(); exit() }
@@ -162,6 +247,78 @@ class ShellMain(val argList: List[String]) {
                     argIndex += 1
                 }
 
+                case "-pipebuffer" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-pipebuffer requires a buffer size as its argument")
+                        exit()
+                    }
+                    pipeBufferSize = Some(parsePipeBufferSize("-pipebuffer", argList(argIndex + 1)))
+                    argIndex += 1
+                }
+
+                case "-pipe" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-pipe requires a pipe type as its argument")
+                        exit()
+                    }
+                    pipeType = Some(argList(argIndex + 1))
+                    argIndex += 1
+                }
+
+                case "-executor" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-executor requires an executor type as its argument")
+                        exit()
+                    }
+                    executorType = Some(argList(argIndex + 1))
+                    argIndex += 1
+                }
+
+                case "-poolsize" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-poolsize requires a number of threads as its argument")
+                        exit()
+                    }
+                    poolSize = parsePoolSize(argList(argIndex + 1))
+                    argIndex += 1
+                }
+
+                case "-startupthreads" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-startupthreads requires a number of threads as its argument")
+                        exit()
+                    }
+                    startupThreads = parseStartupThreads(argList(argIndex + 1))
+                    argIndex += 1
+                }
+
+                case "-daemon" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-daemon requires a socket file as its argument")
+                        exit()
+                    }
+                    daemonSocket = Some(new File(argList(argIndex + 1)))
+                    argIndex += 1
+                }
+
+                case "-cooperative" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-cooperative requires a number of commands as its argument")
+                        exit()
+                    }
+                    cooperativeStageLimit = parseCooperativeStageLimit(argList(argIndex + 1))
+                    argIndex += 1
+                }
+
+                case "-fanoutbuffer" => {
+                    if (argIndex == argList.length - 1) {
+                        LOGGER.error("-fanoutbuffer requires a buffer size as its argument")
+                        exit()
+                    }
+                    fanOutBufferSize = parsePipeBufferSize("-fanoutbuffer", argList(argIndex + 1))
+                    argIndex += 1
+                }
+
                 case _ => {
                     if (f.startsWith("-")) {
                         LOGGER.error("Unknown command line option: '" + f + "'")
@@ -182,6 +339,14 @@ class ShellMain(val argList: List[String]) {
         if (!scripts.isEmpty) {
             executionMode = Script
         }
+        if (daemonSocket.isDefined) {
+            executionMode = Daemon
+        }
+        val pipeFactory = createPipeFactory(pipeType, pipeBufferSize)
+        ShellMain.LOGGER.debug("Connecting pipeline commands with " + pipeFactory + " pipes")
+        stageExecutor = createStageExecutor(executorType, poolSize)
+        ShellMain.LOGGER.debug("Running pipeline commands on " + stageExecutor + " threads")
+        val executionOptions = ExecutionOptions(pipeFactory, stageExecutor, fuseStatelessCommands, cooperativeStageLimit, fanOutBufferSize)
 
         // TODO prefs only loaded if this is an interactive shell?
         val prefsLocation: PrefsLocation = new DefaultPrefsLocation(".dzsh", "dzsh.ini")
@@ -195,7 +360,9 @@ class ShellMain(val argList: List[String]) {
                     }
                 }
 
-                val lineReader: LineReader = new JLineLineReader(historyFile, completionHandler)
+                val lineReader: LineReader = startupTimes.time("console setup") {
+                    new JLineLineReader(historyFile, completionHandler, startupTimes)
+                }
 
                 def initialise: Unit = {
                     // TODO console handling only done if this is an interactive shell i.e. not launching a script
@@ -232,20 +399,56 @@ class ShellMain(val argList: List[String]) {
                 }
             }
 
+            case Daemon => new ScriptSource {
+                // scripts are read by the ShellDaemon
+                def initialise: Unit = {}
+
+                def nextScript: Option[String] = None
+            }
+
             case Script => new ScriptSource {
-                // TODO investigate incremental parsing with combinators
-                // TODO funky bodging in of a quit
-                val scriptsAsStrings = scripts.map { Source.fromFile(_).getLines().toList.mkString("\n") ++ "\nquit\n" }
-                val scriptIterator = scriptsAsStrings.iterator
+                // Statements are read and run one at a time; a failing one
+                // ends its script file. Once all are read, the shell quits.
+                val remainingScripts = scripts.iterator
+                var currentScript: Option[(File, StatementReader)] = None
 
                 def initialise: Unit = {}
 
                 def nextScript: Option[String] = {
-                    if (scriptIterator.hasNext) {
-                        Some(scriptIterator.next())
-                    } else {
-                        None
+                    while (currentScript.isDefined || remainingScripts.hasNext) {
+                        val file = currentScript.map(_._1).getOrElse(remainingScripts.next())
+                        try {
+                            if (currentScript.isEmpty) {
+                                currentScript = Some((file, new StatementReader(new BufferedReader(new FileReader(file)))))
+                            }
+                            val statement = currentScript.get._2.nextStatement
+                            if (statement.isDefined) {
+                                return statement
+                            }
+                        } catch {
+                            case e: IOException =>
+                                LOGGER.error("Can't read script '" + file + "': " + e.getMessage)
+                        }
+                        closeScript()
+                    }
+                    quitShell = true
+                    None
+                }
+
+                override def failed() {
+                    closeScript()
+                }
+
+                def closeScript() {
+                    for ((file, statementReader) <- currentScript) {
+                        try {
+                            statementReader.close()
+                        } catch {
+                            case e: IOException =>
+                                LOGGER.warn("Can't close script '" + file + "': " + e.getMessage)
+                        }
                     }
+                    currentScript = None
                 }
             }
         }
@@ -253,7 +456,10 @@ class ShellMain(val argList: List[String]) {
 
         try {
             variableRegistry.incrementUsage()
-            pluginRegistry.loadAndRegisterPluginMethods(List(
+            pluginRegistry.setDeferPluginLoading(deferPluginLoading)
+            pluginRegistry.setStartupThreads(startupThreads)
+            pluginRegistry.setStartupTimes(startupTimes)
+            startupTimes.time("plugins") { pluginRegistry.loadAndRegisterPluginMethods(List(
                 new InternalShellPlugin(),
                 new VariablesShellPlugin(),
                 new PluginsShellPlugin(),
@@ -263,64 +469,235 @@ class ShellMain(val argList: List[String]) {
                 new ControlShellPlugin(),
                 new VersionPlugin(),
                 new ExperimentalShellPlugin())
-            )
+            ) }
 
-            val commandExists = new ExistenceChecker {
-                def exists(name: String) = commandRegistry.exists(name)
+            val wirer = new CommandHandlerWirer(commandRegistry, executionOptions, () => new LogInfoOutputPipe(), planCache)
+
+            startupTimes.ready()
+            if (showStartupTimes) {
+                startupTimes.report.foreach(LOGGER.info)
             }
 
-            val semanticAnalyser = new SemanticAnalyser(commandExists)
-            val parser = new CommandParser(commandExists, false, semanticAnalyser)
-            val wirer = new CommandHandlerWirer(commandRegistry)
+            for (socketFile <- daemonSocket) {
+                try {
+                    new ShellDaemon(socketFile, runDaemonRequest(executionOptions)).serve()
+                } catch {
+                    case e: IOException =>
+                        ShellMain.LOGGER.fatal("Can't serve scripts on " + socketFile + ": " + e.getMessage)
+                }
+                quitShell = true
+            }
 
             while (!quitShell) {
                 val input = scriptSource.nextScript
                 ShellMain.LOGGER.debug("input: [" + input + "]")
                 for (line <- input) {
-                    try {
-                        val statements = parser.parse(line)
-                        if (ShellMain.LOGGER.isDebugEnabled) {
-                            ShellMain.LOGGER.debug(">>> parsed statements...")
-                            for (statement <- statements) {
-                                ShellMain.LOGGER.debug("  " + statement)
-                            }
-                            ShellMain.LOGGER.debug("<<< parsed statements")
-
-                        }
-                        for (statement <- statements) {
-                            val commandHandlers = wirer.wire(variableRegistry, statement)
-                            if (ShellMain.LOGGER.isDebugEnabled) {
-                                ShellMain.LOGGER.debug(">>> parsed & wired statement: ")
-                                ShellMain.LOGGER.debug("  " + statement)
-                                ShellMain.LOGGER.debug(">>> wired command handlers...")
-                                ShellMain.LOGGER.debug("  " + dumpHandlers(commandHandlers))
-                                ShellMain.LOGGER.debug("<<< wired command handlers")
-                            }
-
-                            ShellMain.LOGGER.debug(">>> executing...")
-                            val executionContainer = new ExecutionContainer(commandHandlers)
-                            executionContainer.execute()
-                            ShellMain.LOGGER.debug("<<< executed")
-
-                            ShellMain.LOGGER.debug("variable registry: [" + variableRegistry + "]")
-                        }
-                    } catch {
-                        case cpe: CommandParserException =>
-                            ShellMain.LOGGER.warn(cpe.getMessage)
-                            ShellMain.LOGGER.debug(cpe.getMessage, cpe)
-                        case cnfe: CommandNotFoundException =>
-                            ShellMain.LOGGER.warn(cnfe.getMessage)
-                            ShellMain.LOGGER.debug(cnfe.getMessage, cnfe)
-                        case cee: CommandExecutionException =>
-                            ShellMain.LOGGER.warn(cee.getMessage)
-                            ShellMain.LOGGER.debug(cee.getMessage, cee)
-                    }
+                    executeLine(parser, wirer, executionOptions, variableRegistry, line, (e: Exception) => {
+                        ShellMain.LOGGER.warn(e.getMessage)
+                        ShellMain.LOGGER.debug(e.getMessage, e)
+                        scriptSource.failed()
+                    }, () => quitShell)
                 }
             }
             variableRegistry.decrementUsage()
         } catch {
             case e: ShellPluginException =>
                 ShellMain.LOGGER.fatal("Can't continue: " + e.getMessage)
+        } finally {
+            stageExecutor match {
+                case pool: StagePool => pool.shutdown()
+                case _ =>
+            }
+        }
+    }
+
+    private[this] def createParser(): CommandParser = {
+        val commandExists = new ExistenceChecker {
+            def exists(name: String) = commandRegistry.exists(name)
+            override def version = Some(commandRegistry.getVersion)
+        }
+
+        val constantFolder = new ConstantFolder(commandRegistry.getPluginClassName)
+        val semanticAnalyser = new SemanticAnalyser(commandExists, Some(constantFolder), Some(new TypeInferencer()))
+        new CommandParser(commandExists, false, semanticAnalyser)
+    }
+
+    /**
+     * Parse, wire and execute the statements of a line, passing any failure
+     * to 'warn', until one of them quits.
+     */
+    private[this] def executeLine(parser: CommandParser, wirer: CommandHandlerWirer, executionOptions: ExecutionOptions,
+                                  variableRegistry: VariableRegistry, line: String, warn: Exception => Unit,
+                                  quitRequested: () => Boolean) {
+        try {
+            val statements = parser.parse(line)
+            if (ShellMain.LOGGER.isDebugEnabled) {
+                ShellMain.LOGGER.debug(">>> parsed statements...")
+                for (statement <- statements) {
+                    ShellMain.LOGGER.debug("  " + statement)
+                }
+                ShellMain.LOGGER.debug("<<< parsed statements")
+
+            }
+            // the filter is applied to each statement as it is reached
+            for (statement <- statements if !quitRequested()) {
+                val commandHandlers = wirer.wirePlanned(variableRegistry, statement)
+                if (ShellMain.LOGGER.isDebugEnabled) {
+                    ShellMain.LOGGER.debug(">>> parsed & wired statement: ")
+                    ShellMain.LOGGER.debug("  " + statement)
+                    ShellMain.LOGGER.debug(">>> wired command handlers...")
+                    ShellMain.LOGGER.debug("  " + dumpHandlers(commandHandlers))
+                    ShellMain.LOGGER.debug("<<< wired command handlers")
+                }
+
+                ShellMain.LOGGER.debug(">>> executing...")
+                val executionContainer = new ExecutionContainer(commandHandlers, executionOptions)
+                executionContainer.execute()
+                ShellMain.LOGGER.debug("<<< executed")
+
+                ShellMain.LOGGER.debug("variable registry: [" + variableRegistry + "]")
+            }
+        } catch {
+            case cpe: CommandParserException =>
+                warn(cpe)
+            case cnfe: CommandNotFoundException =>
+                warn(cnfe)
+            case cee: CommandExecutionException =>
+                warn(cee)
+        }
+    }
+
+    private class DaemonRequest {
+        @volatile var quit = false
+        @volatile var failed = false
+    }
+
+    // The request whose script is running in this variable registry, or in
+    // one of its enclosing scopes.
+    private[this] def daemonRequest(variableRegistry: VariableRegistry): Option[DaemonRequest] = {
+        Option(variableRegistry).flatMap(registry =>
+            Option(daemonRequests.get(registry)).orElse(daemonRequest(registry.getParentScope.orNull)))
+    }
+
+    /**
+     * Run a script sent to the ShellDaemon, in a variable registry of its
+     * own, holding copies of the shell's variables, and its arguments, in
+     * ARGS, until it ends or quits. Its output, and any failures, are
+     * written back to the client.
+     *
+     * @return the script's exit status: 1 if any statement failed, else 0
+     */
+    private[this] def runDaemonRequest(executionOptions: ExecutionOptions)(args: List[String], script: String, output: PrintWriter): Int = {
+        val requestVariableRegistry = new DefaultVariableRegistry(None)
+        for ((name, values) <- variableRegistry.getVariables) {
+            val variable = new Variable()
+            variable.addAll(values)
+            requestVariableRegistry.setVariable(VariableReference(name), variable)
+        }
+        val argsVariable = new Variable()
+        argsVariable.addAll(args)
+        requestVariableRegistry.setVariable(VariableReference("ARGS"), argsVariable)
+
+        val outputPipe = new WriterOutputPipe(output)
+        val wirer = new CommandHandlerWirer(commandRegistry, executionOptions, () => outputPipe, planCache)
+        val request = new DaemonRequest()
+        daemonRequests.put(requestVariableRegistry, request)
+        requestVariableRegistry.incrementUsage()
+        try {
+            executeLine(parser, wirer, executionOptions, requestVariableRegistry, script, (e: Exception) => {
+                ShellMain.LOGGER.debug(e.getMessage, e)
+                outputPipe.push("dzsh: " + e.getMessage)
+                request.failed = true
+            }, () => request.quit)
+        } finally {
+            requestVariableRegistry.decrementUsage()
+            daemonRequests.remove(requestVariableRegistry)
+        }
+        if (request.failed) 1 else 0
+    }
+
+    private[this] def parsePipeBufferSize(option: String, size: String): Int = {
+        val capacity = try {
+            Integer.parseInt(size)
+        } catch {
+            case nfe: NumberFormatException => 0
+        }
+        if (capacity < 1) {
+            LOGGER.error(option + " requires a buffer size of at least 1, not '" + size + "'")
+            exit()
+        }
+        capacity
+    }
+
+    private[this] def createPipeFactory(pipeType: Option[String], pipeBufferSize: Option[Int]): PipeFactory = {
+        pipeType match {
+            case None => pipeBufferSize match {
+                case None | Some(1) => RendezvousPipeFactory
+                case Some(capacity) => BufferedPipeFactory(capacity)
+            }
+            case Some("rendezvous") => RendezvousPipeFactory
+            case Some("buffered") => BufferedPipeFactory(pipeBufferSize.getOrElse(DEFAULT_PIPE_BUFFER_SIZE))
+            case Some("ring") => RingBufferPipeFactory(pipeBufferSize.getOrElse(DEFAULT_PIPE_BUFFER_SIZE))
+            case Some(unknown) => {
+                LOGGER.error("-pipe requires a pipe type of rendezvous, buffered or ring, not '" + unknown + "'")
+                exit()
+                RendezvousPipeFactory
+            }
+        }
+    }
+
+    private[this] def parsePoolSize(size: String): Int = {
+        val workers = try {
+            Integer.parseInt(size)
+        } catch {
+            case nfe: NumberFormatException => 0
+        }
+        if (workers < 1) {
+            LOGGER.error("-poolsize requires at least 1 thread, not '" + size + "'")
+            exit()
+        }
+        workers
+    }
+
+    private[this] def parseStartupThreads(count: String): Int = {
+        val threads = try {
+            Integer.parseInt(count)
+        } catch {
+            case nfe: NumberFormatException => 0
+        }
+        if (threads < 1) {
+            LOGGER.error("-startupthreads requires at least 1 thread, not '" + count + "'")
+            exit()
+        }
+        threads
+    }
+
+    private[this] def parseCooperativeStageLimit(limit: String): Int = {
+        val commands = try {
+            Integer.parseInt(limit)
+        } catch {
+            case nfe: NumberFormatException => -1
+        }
+        if (commands < 0) {
+            LOGGER.error("-cooperative requires a number of commands, or 0, not '" + limit + "'")
+            exit()
+        }
+        commands
+    }
+
+    private[this] def createStageExecutor(executorType: Option[String], poolSize: Int): StageExecutor = {
+        executorType match {
+            case None | Some("pool") => new StagePool("dzsh" + nextShellNumber(), poolSize)
+            case Some("platform") => StageExecutors.ThreadPerStage
+            case Some("virtual") => StageExecutors.virtualThreads.getOrElse {
+                LOGGER.warn("Virtual threads are not available in this JVM; using platform threads")
+                StageExecutors.ThreadPerStage
+            }
+            case Some(unknown) => {
+                LOGGER.error("-executor requires an executor type of pool, platform or virtual, not '" + unknown + "'")
+                exit()
+                StageExecutors.ThreadPerStage
+            }
         }
     }
 
@@ -376,16 +753,24 @@ object ShellMain {
     val LOGGER = Logger.getLogger(classOf[ShellMain])
     private val SHELLPLUGIN_PROPERTIES = "shellplugin.properties"
     val SHELL_NAME = "DevZendo.org Object Shell"
+    private val DEFAULT_PIPE_BUFFER_SIZE = 256
+    private val DEFAULT_COOPERATIVE_STAGE_LIMIT = 4
+    private val shellNumber = new java.util.concurrent.atomic.AtomicInteger(0)
+
+    // Distinguishes the threads of several shells in the one JVM.
+    private def nextShellNumber(): Int = shellNumber.incrementAndGet()
 
     /**
      * @param args the command line arguments.
      */
     def main(args: Array[String]) {
-        val logging = Logging.getInstance()
+        val startupTimes = new StartupTimes()
         val argList: java.util.List[String] = new java.util.ArrayList[String]()
         args.foreach(s => argList.add(s))
-        val finalArgList = logging.setupLoggingFromArgs(argList).asScala.toList
-        new ShellMain(finalArgList).start()
+        val finalArgList = startupTimes.time("log4j setup") {
+            Logging.getInstance().setupLoggingFromArgs(argList).asScala.toList
+        }
+        new ShellMain(finalArgList, startupTimes).start()
     }
 }
 
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.analyser
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.ast.{BlockStatements, Command, CommandPipeline, Statement}
+import org.devzendo.shell.interpreter._
+import org.devzendo.shell.pipe.{NullInputPipe, VariableOutputPipe}
+import org.devzendo.shell.plugin.{BasicOperatorsPlugin, ControlShellPlugin}
+
+import scala.collection.JavaConverters._
+
+object ConstantFolder {
+    private val LOGGER = Logger.getLogger(classOf[ConstantFolder])
+}
+
+/**
+ * Evaluates operator commands whose arguments are all literals as statements
+ * are analysed, replacing them with the literal they yield, so that they are
+ * not wired and run each time the statement executes.
+ *
+ * The operators are the commands the PluginMethodScanner finds in the
+ * BasicOperatorsPlugin, evaluated by the plugin itself, so folding follows
+ * exactly the same coercion and validation rules as execution. A name is
+ * only folded if the command registry resolves it to that plugin. An
+ * operator that fails, or does not yield exactly one value, is left alone,
+ * for the failure to be reported when the statement is executed.
+ *
+ * A sub-command's output reaches its enclosing command as a Variable, so a
+ * sub-command is only replaced by its value when the enclosing command reads
+ * its arguments through PluginHelper.wrapArgAsList, to which the two are
+ * indistinguishable. An operator at the top of a pipeline is replaced by an
+ * eval of its value.
+ *
+ * @param pluginClassName the class name of the plugin providing a command,
+ * as given by CommandRegistry.getPluginClassName
+ */
+class ConstantFolder(pluginClassName: String => Option[String]) {
+    import ConstantFolder.LOGGER
+
+    private val operators = new BasicOperatorsPlugin()
+    private val commandHandlerFactory = new CommandHandlerFactory()
+
+    // Every command of the plugin bar eval, which is what a folded operator
+    // becomes.
+    private val foldable: Map[String, AnalysedMethod] =
+        new PluginMethodScanner().scanPluginClass(classOf[BasicOperatorsPlugin]) - "eval"
+
+    // Commands that expand each argument with wrapArgAsList, and the plugin
+    // they must be provided by.
+    private val literalConsumers: Map[String, Class[_]] =
+        foldable.map(entry => entry._1 -> classOf[BasicOperatorsPlugin]) + ("if" -> classOf[ControlShellPlugin])
+
+    def fold(statements: List[Statement]) {
+        statements.foreach(fold)
+    }
+
+    private def fold(statement: Statement) {
+        statement match {
+            case bs: BlockStatements =>
+                fold(bs.getStatements)
+            case cp: CommandPipeline =>
+                for (i <- 0 until cp.commands.size) {
+                    val command = cp.commands(i)
+                    foldArguments(command)
+                    evaluate(command).foreach { value =>
+                        val evalArgs = new java.util.ArrayList[AnyRef]
+                        evalArgs.add(value)
+                        cp.commands(i) = new Command("eval", evalArgs)
+                    }
+                }
+                cp.getSources.foreach(fold)
+                cp.getBranches.foreach(fold)
+        }
+    }
+
+    private def foldArguments(command: Command) {
+        val args = command.args
+        for (i <- 0 until args.size()) {
+            args.get(i) match {
+                case subCommand: Command =>
+                    foldArguments(subCommand)
+                    if (literalConsumers.get(command.name).exists(providedBy(command.name, _))) {
+                        evaluate(subCommand).foreach(value => args.set(i, value))
+                    }
+                case bs: BlockStatements =>
+                    fold(bs.getStatements)
+                case _ => // nothing to fold
+            }
+        }
+    }
+
+    private def evaluate(command: Command): Option[AnyRef] = {
+        foldable.get(command.name) match {
+            case Some(analysedMethod) if command.args.asScala.forall(isLiteral) &&
+                                          providedBy(command.name, classOf[BasicOperatorsPlugin]) =>
+                val result = new Variable()
+                val handler = commandHandlerFactory.createHandler(operators, analysedMethod)
+                handler.setVariableRegistry(new DefaultVariableRegistry(None))
+                handler.setInputPipe(new NullInputPipe())
+                handler.setOutputPipe(new VariableOutputPipe(result))
+                handler.setArgs(command.args.asScala.toList)
+                try {
+                    handler.execute()
+                    result.asList() match {
+                        case List(value) =>
+                            LOGGER.debug("Folded " + command + " to " + value)
+                            Some(value)
+                        case _ =>
+                            None
+                    }
+                } catch {
+                    case e: CommandExecutionException =>
+                        LOGGER.debug("Not folding " + command + ": " + e.getMessage)
+                        None
+                    case e: RuntimeException =>
+                        LOGGER.debug("Not folding " + command + ": " + e.getMessage)
+                        None
+                }
+            case _ =>
+                None
+        }
+    }
+
+    // Folding is only faithful if the name is executed by the plugin assumed
+    // here, which another plugin registering it first would prevent.
+    private def providedBy(name: String, pluginClass: Class[_]): Boolean =
+        pluginClassName(name).contains(pluginClass.getName)
+
+    private def isLiteral(arg: AnyRef): Boolean = arg match {
+        case _: java.lang.Integer | _: java.lang.Double | _: java.lang.Boolean | _: String => true
+        case _ => false
+    }
+}
@@ -5,13 +5,20 @@ import org.devzendo.shell.parser.{CommandParserException, ExistenceChecker}
 
 /**
   * Analyses a lexically-valid list of Statements, and performs additional validation.
+  * Given a ConstantFolder, valid Statements then have their constant operator
+  * expressions folded; given a TypeInferencer, their operators' operand types
+  * are then inferred.
   */
-class SemanticAnalyser(commandExists: ExistenceChecker) {
+class SemanticAnalyser(commandExists: ExistenceChecker, constantFolder: Option[ConstantFolder], typeInferencer: Option[TypeInferencer]) {
+    def this(commandExists: ExistenceChecker, constantFolder: Option[ConstantFolder]) = this(commandExists, constantFolder, None)
+    def this(commandExists: ExistenceChecker) = this(commandExists, None)
 
     @throws(classOf[CommandParserException])
     def analyse(inputLine: String, statements: List[Statement]): Unit = {
         statements.foreach( s => analyse(inputLine, s))
         // it's all good!
+        constantFolder.foreach(_.fold(statements))
+        typeInferencer.foreach(_.infer(statements))
     }
 
     private def analyse(inputLine: String, statement: Statement): Unit = {
@@ -34,6 +41,8 @@ class SemanticAnalyser(commandExists: ExistenceChecker) {
                         }
                     }
                 } )
+                cp.getSources.foreach( source => analyse(inputLine, source) )
+                cp.getBranches.foreach( branch => analyse(inputLine, branch) )
             }
         }
     }
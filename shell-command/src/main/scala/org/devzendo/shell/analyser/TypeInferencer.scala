@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.analyser
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.ast._
+
+import scala.collection.JavaConverters._
+
+object TypeInferencer {
+    private val LOGGER = Logger.getLogger(classOf[TypeInferencer])
+
+    // What is known of the type of the values an argument or variable holds:
+    // nothing yet (e.g. a variable not yet assigned in any statements), that
+    // they are all of one class, or that they may not be.
+    private sealed trait InferredType
+    private case object Unassigned extends InferredType
+    private case class Known(cls: Class[_]) extends InferredType
+    private case object Unknown extends InferredType
+
+    private def join(a: InferredType, b: InferredType): InferredType = (a, b) match {
+        case (Unassigned, _) => b
+        case (_, Unassigned) => a
+        case (Known(x), Known(y)) if x == y => a
+        case _ => Unknown
+    }
+
+    private val INTEGER = Known(classOf[java.lang.Integer])
+    private val DOUBLE = Known(classOf[java.lang.Double])
+
+    // The arithmetic operators, whose result type follows from their operand
+    // types by the BasicOperatorsPlugin's numeric coercion rules.
+    private val arithmeticOperators = Set("+", "-", "*", "/")
+    private val integerOperators = Set("%")
+}
+
+/**
+ * Infers the types of the values held by literals, variables and arithmetic
+ * operators' results in a list of Statements, and annotates each arithmetic
+ * operator Command whose operands can only be Integers, or only Doubles,
+ * with that type (see Command.operandType), so that it can be wired to an
+ * implementation for that type alone (see MonomorphicOperators).
+ *
+ * A variable's type is inferred from the assignments to it in the
+ * Statements, and in all the Statements this TypeInferencer has been given
+ * before, since a script or interactive session is analysed a statement at
+ * a time. This is optimistic: an assignment from the variable itself, as in
+ * 'x = x + 1', does not make its type unknown; assignments made other than
+ * by a statement's output variable, e.g. by a plugin, are not seen; and a
+ * statement answered from the parser's cache is not analysed again. A
+ * variable not assigned in any Statements seen has no type inferred.
+ * Inferred types are therefore only hints; the wired implementations check
+ * them, falling back to the general operator.
+ */
+class TypeInferencer {
+    import TypeInferencer._
+
+    // The types of the variables assigned in the Statements seen so far.
+    private var sessionTypes = Map[String, InferredType]()
+
+    def infer(statements: List[Statement]) {
+        // daemon requests may be analysed concurrently
+        val variableTypes = synchronized {
+            sessionTypes = inferVariableTypes(collectAssignments(statements), sessionTypes)
+            sessionTypes
+        }
+        LOGGER.debug("Inferred variable types " + variableTypes)
+        // variables not assigned in any statements seen could hold anything
+        annotate(statements, variableTypes.withDefaultValue(Unknown))
+    }
+
+    private def collectAssignments(statements: List[Statement]): List[CommandPipeline] = {
+        statements.flatMap {
+            case bs: BlockStatements =>
+                collectAssignments(bs.getStatements)
+            case cp: CommandPipeline =>
+                val own = if (cp.getOutputVariable != null) List(cp) else Nil
+                val nested = cp.getCommands.flatMap(cmd => blocksIn(cmd)).flatMap(bs => collectAssignments(bs.getStatements))
+                own ++ nested ++ collectAssignments(cp.getSources) ++ collectAssignments(cp.getBranches)
+        }
+    }
+
+    private def blocksIn(command: Command): List[BlockStatements] = {
+        command.args.asScala.toList.flatMap {
+            case bs: BlockStatements => List(bs)
+            case subCommand: Command => blocksIn(subCommand)
+            case _ => Nil
+        }
+    }
+
+    // Iterate to a fixed point: each round can only move a variable's type
+    // up from Unassigned to Known to Unknown, so this terminates.
+    private def inferVariableTypes(assignments: List[CommandPipeline], earlierTypes: Map[String, InferredType]): Map[String, InferredType] = {
+        var types = earlierTypes
+        var changed = true
+        while (changed) {
+            val next = assignments.foldLeft(earlierTypes) { (acc, cp) =>
+                val name = cp.getOutputVariable.variableName
+                acc + (name -> join(acc.getOrElse(name, Unassigned), assignedType(cp, types.withDefaultValue(Unassigned))))
+            }
+            changed = next != types
+            types = next
+        }
+        types
+    }
+
+    // Only a pipeline of a single eval or arithmetic operator, reading no
+    // input, assigns values of a type that can be inferred.
+    private def assignedType(cp: CommandPipeline, types: Map[String, InferredType]): InferredType = {
+        cp.getCommands match {
+            case List(command) if cp.getInputVariable == null && cp.getSources.isEmpty =>
+                if (command.name == "eval") {
+                    operandType(command, types)
+                } else {
+                    resultType(command, types)
+                }
+            case _ => Unknown
+        }
+    }
+
+    private def resultType(command: Command, types: Map[String, InferredType]): InferredType = {
+        val operands = operandType(command, types)
+        if (arithmeticOperators.contains(command.name)) {
+            operands match {
+                case INTEGER | DOUBLE | Unassigned => operands
+                // mixed numerics are coerced to Double
+                case Unknown if numeric(command, types) => DOUBLE
+                case _ => Unknown
+            }
+        } else if (integerOperators.contains(command.name)) {
+            operands match {
+                case INTEGER | Unassigned => operands
+                case _ => Unknown
+            }
+        } else {
+            Unknown
+        }
+    }
+
+    private def numeric(command: Command, types: Map[String, InferredType]): Boolean = {
+        command.args.asScala.forall(arg => argumentType(arg, types) match {
+            case INTEGER | DOUBLE => true
+            case _ => false
+        })
+    }
+
+    private def operandType(command: Command, types: Map[String, InferredType]): InferredType = {
+        command.args.asScala.foldLeft(Unassigned: InferredType) { (acc, arg) => join(acc, argumentType(arg, types)) }
+    }
+
+    private def argumentType(arg: AnyRef, types: Map[String, InferredType]): InferredType = arg match {
+        case _: java.lang.Integer | _: java.lang.Double | _: java.lang.Boolean | _: String => Known(arg.getClass)
+        case vr: VariableReference => types(vr.variableName)
+        case subCommand: Command => resultType(subCommand, types)
+        case _ => Unknown
+    }
+
+    private def annotate(statements: List[Statement], types: Map[String, InferredType]) {
+        statements.foreach {
+            case bs: BlockStatements =>
+                annotate(bs.getStatements, types)
+            case cp: CommandPipeline =>
+                cp.getCommands.foreach(command => annotate(command, types))
+                annotate(cp.getSources, types)
+                annotate(cp.getBranches, types)
+        }
+    }
+
+    private def annotate(command: Command, types: Map[String, InferredType]) {
+        command.args.asScala.foreach {
+            case bs: BlockStatements => annotate(bs.getStatements, types)
+            case subCommand: Command => annotate(subCommand, types)
+            case _ =>
+        }
+        if (arithmeticOperators.contains(command.name) || integerOperators.contains(command.name)) {
+            operandType(command, types) match {
+                case Known(cls) if cls == classOf[java.lang.Integer] || cls == classOf[java.lang.Double] =>
+                    LOGGER.debug("Operands of " + command + " are all " + cls.getSimpleName)
+                    command.setOperandType(cls)
+                case _ =>
+            }
+        }
+    }
+}
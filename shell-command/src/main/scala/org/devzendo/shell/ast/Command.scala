@@ -25,6 +25,11 @@ case class Command(
     @scala.beans.BeanProperty
     args: java.util.List[AnyRef]) {
 
+    // the type of every element of every argument, where the TypeInferencer
+    // could infer one, else null
+    @scala.beans.BeanProperty
+    var operandType: Class[_] = null
+
     override def toString(): String = {
         "Command " + name + " (" + (args.map( (x: AnyRef) => x.getClass().getSimpleName + "@" + x).mkString(", ")) + ")"
     }
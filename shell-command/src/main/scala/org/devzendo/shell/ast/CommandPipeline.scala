@@ -19,6 +19,12 @@ package org.devzendo.shell.ast
 final class CommandPipeline extends Statement {
     var commands = scala.collection.mutable.ArrayBuffer[Command]()
 
+    // pipelines run concurrently, their outputs merged as this pipeline's input
+    var sources = scala.collection.mutable.ArrayBuffer[CommandPipeline]()
+
+    // pipelines each fed all of this pipeline's output
+    var branches = scala.collection.mutable.ArrayBuffer[CommandPipeline]()
+
     @scala.beans.BeanProperty
     var inputVariable: VariableReference = null
 
@@ -37,13 +43,31 @@ final class CommandPipeline extends Statement {
         commands += commandToAdd
     }
 
+    def getSources: List[CommandPipeline] = {
+        sources.toList
+    }
+
+    def addSource(sourceToAdd: CommandPipeline) {
+        sources += sourceToAdd
+    }
+
+    def getBranches: List[CommandPipeline] = {
+        branches.toList
+    }
+
+    def addBranch(branchToAdd: CommandPipeline) {
+        branches += branchToAdd
+    }
+
     def isEmpty: Boolean = {
-        commands.isEmpty
+        commands.isEmpty && sources.isEmpty
     }
 
     override def toString(): String = {
         val indiag = if (inputVariable == null) "" else "<" + inputVariable + " "
         val outdiag = if (outputVariable == null) "" else " >" + outputVariable
-        indiag + "[" + commands.mkString(" ") + "]" + outdiag
+        val sourcediag = if (sources.isEmpty) "" else sources.mkString(" ") + " | "
+        val branchdiag = if (branches.isEmpty) "" else " | " + branches.mkString(" ")
+        sourcediag + indiag + "[" + commands.mkString(" ") + "]" + outdiag + branchdiag
     }
 }
@@ -16,9 +16,29 @@
 
 package org.devzendo.shell.interpreter
 
+import java.lang.invoke.{MethodHandle, MethodHandles, MethodType}
 import java.lang.reflect.Method
 
+import org.apache.log4j.Logger
+
+object AnalysedMethod {
+    private val LOGGER = Logger.getLogger(classOf[AnalysedMethod])
+
+    /**
+     * What is passed to a command method as one of its parameters.
+     */
+    sealed trait ParameterSource
+    case object JavaArguments extends ParameterSource
+    case object ScalaArguments extends ParameterSource
+    case object InputPipeParameter extends ParameterSource
+    case object OutputPipeParameter extends ParameterSource
+    case object LogParameter extends ParameterSource
+    case object VariableRegistryParameter extends ParameterSource
+    case object SetupParameter extends ParameterSource
+}
+
 final class AnalysedMethod(val meth: Method) {
+    import AnalysedMethod._
 
     @scala.beans.BeanProperty
     val method: Method = meth
@@ -40,4 +60,49 @@ final class AnalysedMethod(val meth: Method) {
 
     @scala.beans.BeanProperty
     var variableRegistryPosition: Option[Integer] = None
+
+    @scala.beans.BeanProperty
+    var setupPosition: Option[Integer] = None
+
+    @scala.beans.BeanProperty
+    var stateless: Boolean = false // annotated with @StatelessCommand
+
+    /**
+     * What to pass as each of the method's parameters, in order. Computed on
+     * first use, by when the positions above have been set by the
+     * MethodAnalyser, so that invocation needn't work it out each time.
+     */
+    lazy val parameterSources: Array[ParameterSource] = {
+        val sources = new Array[ParameterSource](method.getParameterTypes.length)
+        for (pos <- argumentsPosition)
+            sources(pos) = if (isScalaArgumentsList) ScalaArguments else JavaArguments
+        for (pos <- inputPipePosition)
+            sources(pos) = InputPipeParameter
+        for (pos <- outputPipePosition)
+            sources(pos) = OutputPipeParameter
+        for (pos <- logPosition)
+            sources(pos) = LogParameter
+        for (pos <- variableRegistryPosition)
+            sources(pos) = VariableRegistryParameter
+        for (pos <- setupPosition)
+            sources(pos) = SetupParameter
+        sources
+    }
+
+    /**
+     * The method as a handle of type (plugin: AnyRef, parameters:
+     * Array[AnyRef])Unit, or None if it isn't publicly accessible, in which
+     * case it can only be invoked reflectively.
+     */
+    lazy val methodHandle: Option[MethodHandle] = {
+        try {
+            Some(MethodHandles.publicLookup().unreflect(method)
+                .asSpreader(classOf[Array[AnyRef]], parameterSources.length)
+                .asType(MethodType.methodType(Void.TYPE, classOf[AnyRef], classOf[Array[AnyRef]])))
+        } catch {
+            case e: IllegalAccessException =>
+                LOGGER.debug("Cannot create a handle for " + method + "; it will be invoked reflectively", e)
+                None
+        }
+    }
 }
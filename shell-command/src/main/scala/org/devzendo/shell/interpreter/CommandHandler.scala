@@ -17,7 +17,7 @@
 package org.devzendo.shell.interpreter
 
 import org.apache.log4j.Logger
-import org.devzendo.shell.pipe.{OutputPipe, InputPipe}
+import org.devzendo.shell.pipe.{CancellablePipe, OutputPipe, InputPipe}
 
 object CommandHandler {
     private val LOGGER = Logger.getLogger(classOf[CommandHandler])
@@ -59,10 +59,18 @@ abstract class CommandHandler(
     @scala.beans.BeanProperty
     var verbose: Boolean = false
 
+    // see @StatelessCommand
+    @scala.beans.BeanProperty
+    var stateless: Boolean = false
+
     // TODO use Option[VariableRegistry] here instead of null
     @scala.beans.BeanProperty
     final var variableRegistry: VariableRegistry = null
 
+    // see CommandSetup
+    @scala.beans.BeanProperty
+    final val setup: CommandSetup = new CommandSetup()
+
     @scala.beans.BeanProperty
     final var subCommandHandlers = List[Option[CommandHandler]]()
 
@@ -77,6 +85,7 @@ abstract class CommandHandler(
     final def executeAndTerminatePipes() {
         try {
             CommandHandler.LOGGER.debug(name + ": < " + inputPipe + " > " + outputPipe)
+            cancelInputWhenOutputCancelled()
             CommandHandler.LOGGER.debug(name + ": executing subcommands...")
             executeSubCommands()
             CommandHandler.LOGGER.debug(name + ": executing...")
@@ -98,14 +107,43 @@ abstract class CommandHandler(
         }
     }
 
+    // Once no-one reads this command's output, nor need anyone write its
+    // input: pass cancellation back up the pipeline, so that producers
+    // polling their output pipe's isCancelled can stop early, e.g. 'cat' when
+    // a later 'head' has all it needs.
+    private final def cancelInputWhenOutputCancelled() {
+        getInputPipe match {
+            case cancellable: CancellablePipe =>
+                CancellablePipe.onCancel(getOutputPipe, () => {
+                    CommandHandler.LOGGER.debug(name + ": output cancelled; cancelling < " + cancellable)
+                    cancellable.cancel()
+                })
+            case _ =>
+        }
+    }
+
+    // This command will read no more of its input, and write no more output:
+    // cancel the former so upstream stops pushing, end the stream of the
+    // latter so downstream drains it. Pipes that can't distinguish the two
+    // are just terminated.
     private final def terminatePipes() {
-        if (getInputPipe != null) {
-            CommandHandler.LOGGER.debug(name + ": terminating < " + getInputPipe)
-            getInputPipe.setTerminated()
+        getInputPipe match {
+            case null =>
+            case cancellable: CancellablePipe =>
+                CommandHandler.LOGGER.debug(name + ": cancelling < " + getInputPipe)
+                cancellable.cancel()
+            case pipe =>
+                CommandHandler.LOGGER.debug(name + ": terminating < " + pipe)
+                pipe.setTerminated()
         }
-        if (getOutputPipe != null) {
-            CommandHandler.LOGGER.debug(name + ": terminating > " + getOutputPipe)
-            getOutputPipe.setTerminated()
+        getOutputPipe match {
+            case null =>
+            case cancellable: CancellablePipe =>
+                CommandHandler.LOGGER.debug(name + ": ending stream > " + getOutputPipe)
+                cancellable.setEndOfStream()
+            case pipe =>
+                CommandHandler.LOGGER.debug(name + ": terminating > " + pipe)
+                pipe.setTerminated()
         }
     }
 }
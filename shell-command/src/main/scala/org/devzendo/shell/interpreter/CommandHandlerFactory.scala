@@ -17,6 +17,7 @@
 package org.devzendo.shell.interpreter
 
 import org.devzendo.shell.plugin.ShellPlugin
+import java.lang.invoke.MethodHandle
 import java.lang.reflect.InvocationTargetException
 
 import org.apache.log4j.Logger
@@ -40,7 +41,9 @@ class CommandHandlerFactory {
      * by the PluginMethodScanner to conform to the CommandHandler pattern,
      * i.e. optional List<Object> for args, optional InputPipe, optional
      * OutputPipe, no other args, void return type. The position of these is
-     * stored in the AnalysedMethod.
+     * stored in the AnalysedMethod, as is the handle through which it is
+     * invoked, if it's publicly accessible; if not, it's invoked
+     * reflectively.
      * @return the CommandHandler
      */
     def createHandler(plugin: ShellPlugin, analysedMethod: AnalysedMethod): CommandHandler = {
@@ -54,30 +57,42 @@ class CommandHandlerFactory {
 
             @throws[CommandExecutionException]
             override def execute() {
-                try {
-                    // TODO the size of the needed array can be precomputed and
-                    // held by AnalysedMethod. This can then just create the
-                    // array of the correct size and insert the elements
-                    var argsMap = scala.collection.immutable.Map[Integer, AnyRef]()
-                    for (pos <- analysedMethod.getArgumentsPosition) {
-                        val pair = if (analysedMethod.getIsScalaArgumentsList)
-                            (pos -> getArgs)
-                        else
-                            (pos -> getArgs.toList.asJava)
-                        argsMap += pair
+                val sources = analysedMethod.parameterSources
+                val parameters = new Array[AnyRef](sources.length)
+                var i = 0
+                while (i < sources.length) {
+                    parameters(i) = sources(i) match {
+                        case AnalysedMethod.JavaArguments => getArgs.asJava
+                        case AnalysedMethod.ScalaArguments => getArgs
+                        case AnalysedMethod.InputPipeParameter => getInputPipe
+                        case AnalysedMethod.OutputPipeParameter => getOutputPipe
+                        case AnalysedMethod.LogParameter => getLog
+                        case AnalysedMethod.VariableRegistryParameter => getVariableRegistry
+                        case AnalysedMethod.SetupParameter => getSetup
                     }
-                    for (pos <- analysedMethod.getInputPipePosition)
-                        argsMap += (pos -> getInputPipe)
-                    for (pos <- analysedMethod.getOutputPipePosition)
-                        argsMap += (pos -> getOutputPipe)
-                    for (pos <- analysedMethod.getLogPosition)
-                        argsMap += (pos -> getLog)
-                    for (pos <- analysedMethod.getVariableRegistryPosition)
-                        argsMap += (pos -> getVariableRegistry)
-                    val argsList = (0 until argsMap.size).map { argsMap(_) }
-                    val array = argsList.toArray
+                    i += 1
+                }
+                analysedMethod.methodHandle match {
+                    case Some(methodHandle) => invokeHandle(methodHandle, parameters)
+                    case None => invokeReflectively(parameters)
+                }
+            }
+
+            // Anything thrown by a handle was thrown by the command itself.
+            private def invokeHandle(methodHandle: MethodHandle, parameters: Array[AnyRef]) {
+                try {
+                    methodHandle.invokeExact(plugin: AnyRef, parameters): Unit
+                } catch {
+                    case t: Throwable =>
+                        LOGGER.debug("Caught exception from command", t)
+                        throw commandFailed(t)
+                }
+            }
+
+            private def invokeReflectively(parameters: Array[AnyRef]) {
+                try {
                     LOGGER.debug("Dynamically invoking...")
-                    method.invoke(plugin, array:_*) // :_* ensures varargs gets called correctly
+                    method.invoke(plugin, parameters:_*) // :_* ensures varargs gets called correctly
                     LOGGER.debug("End of dynamic invocation, no exception")
                 } catch {
                     case iae: IllegalArgumentException =>
@@ -88,15 +103,18 @@ class CommandHandlerFactory {
                         throw new CommandExecutionException("Illegal access: " + e.getMessage)
                     case ite: InvocationTargetException => {
                         LOGGER.debug("Caught InvocationTargetException", ite)
-                        val cee = new CommandExecutionException(ite.getCause.getMessage, ite.getCause)
-                        cee.setStackTrace(ite.getCause.getStackTrace)
-                        throw cee
+                        throw commandFailed(ite.getCause)
                     }
-                } finally {
-                    LOGGER.debug("End of execute")
                 }
             }
+
+            private def commandFailed(cause: Throwable): CommandExecutionException = {
+                val cee = new CommandExecutionException(cause.getMessage, cause)
+                cee.setStackTrace(cause.getStackTrace)
+                cee
+            }
         }
+        handler.setStateless(analysedMethod.getStateless)
         handler
     }
 }
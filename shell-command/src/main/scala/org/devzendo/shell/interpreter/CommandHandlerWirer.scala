@@ -17,6 +17,7 @@
 package org.devzendo.shell.interpreter
 
 import org.devzendo.shell.pipe._
+import org.devzendo.shell.plugin.BasicOperatorsPlugin
 import org.devzendo.shell.ast._
 import scala.collection.JavaConversions._
 import org.devzendo.shell.ast.Switch
@@ -29,6 +30,11 @@ import org.apache.log4j.Logger
  * them, also, connect the pipeline input and outputs. Set standard command
  * handler flags (Verbose), and remove these Switches from the arguments.
  *
+ * This is done in two steps: the statement is compiled into an
+ * ExecutionPlan, resolving its commands and deciding how they're connected,
+ * which is then instantiated, creating the handlers and pipes. wirePlanned
+ * compiles each statement only once.
+ *
  * @author matt
  *
  */
@@ -36,9 +42,20 @@ object CommandHandlerWirer {
     private val LOGGER = Logger.getLogger(classOf[CommandHandlerWirer])
     val verboseLog = new Log4JLog(true)
     val nonverboseLog = new Log4JLog(false)
+    val MERGE = "merge"
 }
 
-case class CommandHandlerWirer(commandRegistry: CommandRegistry) {
+/**
+ * @param statementOutput supplies the pipe receiving the output of each
+ * pipeline that isn't stored in a variable; by default, the log
+ * @param planCache the plans of statements wired by wirePlanned, which may
+ * be shared by wirers differing only in their statementOutput
+ */
+case class CommandHandlerWirer(commandRegistry: CommandRegistry, options: ExecutionOptions, statementOutput: () => OutputPipe, planCache: ExecutionPlanCache) {
+
+    def this(commandRegistry: CommandRegistry, options: ExecutionOptions, statementOutput: () => OutputPipe) = this(commandRegistry, options, statementOutput, new ExecutionPlanCache())
+    def this(commandRegistry: CommandRegistry, options: ExecutionOptions) = this(commandRegistry, options, () => new LogInfoOutputPipe())
+    def this(commandRegistry: CommandRegistry) = this(commandRegistry, ExecutionOptions())
 
     private[this] def isFilterVerboseSwitch(p: AnyRef) = p match {
         case sw: Switch =>
@@ -49,112 +66,172 @@ case class CommandHandlerWirer(commandRegistry: CommandRegistry) {
 
     @throws[CommandNotFoundException]
     def wire(parentVariableRegistry: VariableRegistry, statement: Statement): List[CommandHandler] = {
-        statement match {
-            case blockStatements: BlockStatements => List(wireBlockStatements(parentVariableRegistry, blockStatements))
-            case commandPipeline: CommandPipeline => wireCommandPipeline(parentVariableRegistry, commandPipeline)
-        }
+        compile(statement).instantiate(parentVariableRegistry, statementOutput)
     }
 
+    /**
+     * As wire, but compiling the statement only the first time it's wired
+     * by this wirer (or another sharing its planCache), so it must not be
+     * modified afterwards.
+     */
+    @throws[CommandNotFoundException]
+    def wirePlanned(parentVariableRegistry: VariableRegistry, statement: Statement): List[CommandHandler] = {
+        planCache.getOrCompile(statement, compile).instantiate(parentVariableRegistry, statementOutput)
+    }
 
     @throws[CommandNotFoundException]
     def wireBlockStatements(parentVariableRegistry: VariableRegistry, blockStatements: BlockStatements): CommandHandler = {
-        val childVariableRegistry = new DefaultVariableRegistry(Some(parentVariableRegistry))
-        blockStatements.setVariableRegistry(childVariableRegistry) // needed?
-        val listOfCommandHandlerLists = blockStatements.getStatements.map { wire(childVariableRegistry, _) }
-        val blockCommandHandler = new SequentialCommandHandler(listOfCommandHandlerLists)
-        blockCommandHandler.setVariableRegistry(childVariableRegistry)
-        blockCommandHandler.setVerbose(false)
-        blockCommandHandler.setLog(CommandHandlerWirer.nonverboseLog)
-        blockCommandHandler.setInputPipe(new NullInputPipe())
-        blockCommandHandler.setOutputPipe(new NullOutputPipe())  // note, blocks as args use a VariableOutputPipe
-
-        blockCommandHandler
+        compileBlockStatements(blockStatements).instantiateBlock(parentVariableRegistry, statementOutput)
     }
 
     @throws[CommandNotFoundException]
     def wireCommandPipeline(variableRegistry: VariableRegistry, commandPipeline: CommandPipeline): List[CommandHandler] = {
-        val handlers = scala.collection.mutable.ArrayBuffer[CommandHandler]()
-        for (command <- commandPipeline.getCommands) {
-            handlers += initialiseCommandHandler(command, variableRegistry)
+        compilePipeline(commandPipeline, false).instantiate(variableRegistry, statementOutput)
+    }
+
+    @throws[CommandNotFoundException]
+    def compile(statement: Statement): ExecutionPlan = {
+        statement match {
+            case blockStatements: BlockStatements => compileBlockStatements(blockStatements)
+            case commandPipeline: CommandPipeline => compilePipeline(commandPipeline, false)
         }
-        // TODO convert this null to Option
-        // cat /dev/null > first, unless storing in a variable
-        if (handlers.size > 0) {
-            val pipelineInputVariable = commandPipeline.getInputVariable
-            if (pipelineInputVariable == null) {
-                handlers.head.setInputPipe(new NullInputPipe())
-            } else {
-                val inputVariable = variableRegistry.getVariable(pipelineInputVariable)
-                handlers.head.setInputPipe(new VariableInputPipe(inputVariable))
-            }
-            // last | echo, unless storing in a variable
-            val pipelineOutputVariable = commandPipeline.getOutputVariable
-            if (pipelineOutputVariable == null) {
-                handlers.last.setOutputPipe(new LogInfoOutputPipe())
+    }
+
+    @throws[CommandNotFoundException]
+    private def compileBlockStatements(blockStatements: BlockStatements): BlockPlan = {
+        BlockPlan(blockStatements.getStatements.map(compile), options)
+    }
+
+    // Compile a pipeline, which may be a branch or source of another.
+    @throws[CommandNotFoundException]
+    private def compilePipeline(commandPipeline: CommandPipeline, isBranchOrSource: Boolean): PipelinePlan = {
+        // [source] [source] | merge mode | ..., with an interleaved merge if
+        // none is given
+        val sources = commandPipeline.getSources
+        val commands = commandPipeline.getCommands match {
+            case commandList if sources.nonEmpty && commandList.headOption.forall(_.getName != CommandHandlerWirer.MERGE) =>
+                new Command(CommandHandlerWirer.MERGE, new java.util.ArrayList[AnyRef]()) :: commandList
+            case commandList => commandList
+        }
+        val commandPlans = commands.map { command =>
+            if (command.getName == ParallelCommandHandler.NAME) {
+                compileParallelCommand(command)
             } else {
-                val outputVariable = variableRegistry.getVariable(pipelineOutputVariable)
-                handlers.head.setOutputPipe(new VariableOutputPipe(outputVariable))
-            }
-            // left | right
-            for (i <- 0 until (handlers.size - 1)) {
-                val left = handlers(i)
-                val right = handlers(i + 1)
-
-                if (right.getInputPipePos.isEmpty || left.getOutputPipePos.isEmpty) {
-                    left.setOutputPipe(new NullOutputPipe())
-                    right.setInputPipe(new NullInputPipe())
-                } else {
-                    // In cases where left has output, and right has input:
-                    connectByRendezvousPipe(left, right)
-                }
+                compileCommand(command)
             }
         }
-        handlers.toList
+        val branches = commandPipeline.getBranches
+        val (sourcePlans, branchPlans, mergeModeOfSources) = if (commandPlans.nonEmpty) {
+            (sources.map(compilePipeline(_, true)),
+             branches.map(compilePipeline(_, true)),
+             if (sources.nonEmpty) mergeMode(commands.head) else MergeInputPipe.Interleaved)
+        } else {
+            (List[PipelinePlan](), List[PipelinePlan](), MergeInputPipe.Interleaved)
+        }
+        // left | right, unless either lacks a pipe
+        val connected = commandPlans.zip(commandPlans.drop(1)).map { case (left, right) =>
+            left.hasOutput && right.hasInput
+        }
+        // Small linear pipelines may be run cooperatively by the
+        // ExecutionContainer, so give them pipes it can watch for overflow,
+        // large enough that short outputs never do.
+        val cooperative = commandPlans.size <= options.cooperativeStageLimit && branches.isEmpty && sources.isEmpty &&
+            !isBranchOrSource
+        val fused = fuseStatelessCommands(commandPlans, connected)
+        PipelinePlan(sourcePlans, mergeModeOfSources, commandPlans,
+            Option(commandPipeline.getInputVariable), Option(commandPipeline.getOutputVariable), branchPlans,
+            connected, fused, cooperative, options)
+    }
+
+    // The mode of a merge is given by its optional argument, a bare word or a
+    // string; sorted may be followed by the number of the element to sort by.
+    @throws[CommandExecutionException]
+    private def mergeMode(mergeCommand: Command): MergeInputPipe.Mode = {
+        val usage = "merge takes an optional mode: one of " + MergeInputPipe.modes.mkString(", ") +
+            "; sorted may be followed by the number (from 1) of the element of each object to sort by," +
+            " e.g. a capture group of filterRegex"
+        val args = mergeCommand.getArgs.toList.filterNot(isFilterVerboseSwitch).map {
+            case VariableReference(name) => name
+            case arg => arg
+        }
+        args match {
+            case Nil => MergeInputPipe.Interleaved
+            case List(name: String) => MergeInputPipe.mode(name).getOrElse(throw new CommandExecutionException(usage))
+            case List(MergeInputPipe.Sorted.name, element: Integer) if element > 0 => MergeInputPipe.SortedBy(element)
+            case _ => throw new CommandExecutionException(usage)
+        }
     }
 
-    private def initialiseCommandHandler(command: Command, variableRegistry: VariableRegistry): CommandHandler = {
-        val handler = commandRegistry.getHandler(command.getName)
-        val args = command.getArgs
+    // Which commands are fused into the one before: those that are stateless
+    // and read a pipe from it, whose pipe is replaced with a FusedOutputPipe
+    // that executes them directly, so they're not executed separately.
+    // Commands with sub-commands aren't fused, since their sub-commands are
+    // executed only by executeAndTerminatePipes.
+    private def fuseStatelessCommands(commandPlans: List[CommandPlan], connected: List[Boolean]): List[Boolean] = {
+        commandPlans.zipWithIndex.map { case (commandPlan, i) =>
+            options.fuseStatelessCommands && i > 0 && connected(i - 1) &&
+                commandPlan.stateless && !commandPlan.hasSubCommands
+        }
+    }
 
+    // parallel N [-unordered] (command args...) is wired as a
+    // ParallelCommandHandler running N copies of the command, which must be
+    // stateless; the command isn't a sub-command to be executed first. The
+    // switch may come anywhere, but 'parallel -unordered' would parse as the
+    // '-' command.
+    @throws[CommandExecutionException]
+    private def compileParallelCommand(command: Command): CommandPlan = {
+        val usage = "parallel takes an optional -unordered switch, a number of copies, and a stateless (command)"
+        val args = command.getArgs.toList
         val verbose = args.exists(isFilterVerboseSwitch)
-        handler.setVerbose(verbose)
-        handler.setLog(if (verbose) CommandHandlerWirer.verboseLog else CommandHandlerWirer.nonverboseLog)
-
-        val filteredArgs = args.filterNot(isFilterVerboseSwitch).toList
-        val (subCommandHandlers, arguments) = filteredArgs.map((arg: AnyRef) =>
-            arg match {
-                case subCommand: Command =>
-                    val subCommandHandler = initialiseCommandHandler(subCommand, variableRegistry)
-                    val avp = new AnonymousVariablePipe()
-                    subCommandHandler.setInputPipe(new NullInputPipe())
-                    subCommandHandler.setOutputPipe(avp)
-                    (Some(subCommandHandler), avp.contents)
-
-                case block: BlockStatements =>
-                    val blockCommandHandler = wireBlockStatements(variableRegistry, block)
-                    // wireBlockStatements fills in a NullInputPipe, and NullOutputPipe, but we
-                    // want to store the output in an anonymous variable, so that output can be
-                    // captured by the block executor (e.g. 'if', 'while', etc.) after lazy
-                    // evaluation
-                    val avp = new AnonymousVariablePipe()
-                    blockCommandHandler.setOutputPipe(avp)
-                    (None, blockCommandHandler)
-
-                case x: AnyRef =>
-                    (None, x)
-            }
-        ).unzip
-        handler.setArgs(arguments)
-        handler.setSubCommandHandlers(subCommandHandlers)
+        val (switches, rest) = args.filterNot(isFilterVerboseSwitch).partition(_.isInstanceOf[Switch])
+        val ordered = switches match {
+            case Nil => true
+            case List(Switch("unordered")) => false
+            case _ => throw new CommandExecutionException(usage)
+        }
+        val (copies, copyCommand) = rest match {
+            case List(n: Integer, copyCommand: Command) if n > 0 =>
+                (n.intValue, copyCommand)
+            case _ =>
+                throw new CommandExecutionException(usage)
+        }
+        val copy = compileCommand(copyCommand)
+        if (!copy.stateless || !copy.hasInput || !copy.hasOutput) {
+            throw new CommandExecutionException("parallel can only run stateless commands that read input and write output; '" + copyCommand.getName + "' is not one")
+        }
+        ParallelCommandPlan(copies, ordered, verbose, copy, options)
+    }
 
-        CommandHandlerWirer.LOGGER.debug("setting command " + command.name + " variable registry to " + variableRegistry)
-        handler.setVariableRegistry(variableRegistry)
-        handler
+    // The handler's name, pipes and statelessness are those of every handler
+    // of the command, so are taken from one created now.
+    @throws[CommandNotFoundException]
+    private def compileCommand(command: Command): SingleCommandPlan = {
+        val createHandler = specialise(command, commandRegistry.resolveHandler(command.getName))
+        val prototype = createHandler()
+        val args = command.getArgs.toList
+
+        val verbose = args.exists(isFilterVerboseSwitch)
+        val arguments = args.filterNot(isFilterVerboseSwitch).map {
+            case subCommand: Command => SubCommandArgument(compileCommand(subCommand))
+            case block: BlockStatements => BlockArgument(compileBlockStatements(block))
+            case x: AnyRef => LiteralArgument(x)
+        }
+        CommandHandlerWirer.LOGGER.debug("compiled command " + command.name)
+        SingleCommandPlan(command.getName, createHandler, verbose, arguments,
+            prototype.getStateless, prototype.getInputPipePos.isDefined, prototype.getOutputPipePos.isDefined)
     }
 
-    private def connectByRendezvousPipe(left: CommandHandler, right: CommandHandler) {
-        val pipe = new RendezvousPipe()
-        left.setOutputPipe(pipe)
-        right.setInputPipe(pipe)
+    // An operator whose operands' type was inferred is bound to the
+    // implementation for that type, if there is one, and the operator is the
+    // BasicOperatorsPlugin's, whose semantics that implementation shares.
+    private def specialise(command: Command, createGeneral: () => CommandHandler): () => CommandHandler = {
+        MonomorphicOperators.lookup(command.getName, command.getOperandType) match {
+            case Some(operator) if commandRegistry.getPluginClassName(command.getName).contains(classOf[BasicOperatorsPlugin].getName) =>
+                CommandHandlerWirer.LOGGER.debug("binding " + command.name + " to its " + operator.operandType.getSimpleName + " implementation")
+                () => MonomorphicOperators.createHandler(operator, createGeneral())
+            case _ =>
+                createGeneral
+        }
     }
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import java.io.{BufferedInputStream, IOException, OutputStream}
+import java.util.Properties
+
+import org.apache.log4j.Logger
+
+import scala.collection.JavaConverters._
+
+object CommandIndex {
+    private val LOGGER = Logger.getLogger(classOf[CommandIndex])
+
+    val FORMAT = "1"
+
+    /**
+     * The resource holding the index of the plugins in a jar or classes
+     * directory.
+     */
+    val RESOURCE = "META-INF/dzsh-commands.properties"
+
+    private val parameterTypesByName: Map[String, Class[_]] =
+        PluginMethodScanner.parameterTypes.map(c => c.getName -> c).toMap
+
+    private def words(s: String): List[String] = {
+        if (s == null) Nil else s.split(' ').filter(_.nonEmpty).toList
+    }
+}
+
+/**
+ * A precomputed index of plugins' commands, written at build time by the
+ * CommandIndexGenerator as a properties resource in the jar or classes
+ * directory holding the plugins, so that their commands can be registered at
+ * startup without the reflective scan and analysis of all their methods done
+ * by the PluginMethodScanner.
+ *
+ * For each plugin, the index records the name it gives itself, if the
+ * generator could instantiate it to ask. For each command name (including
+ * aliases), the index records the name of
+ * its method, the method's parameter types, the positions of its arguments,
+ * pipes, log, variable registry and setup, whether its arguments are a Scala list,
+ * and whether it's stateless. Keys are prefixed with the plugin's class name.
+ *
+ * @param classLoader the loader whose classpath's indexes are read
+ */
+class CommandIndex(classLoader: ClassLoader) {
+    import CommandIndex._
+
+    def this() = this(Thread.currentThread().getContextClassLoader)
+
+    // every index on the classpath, merged, read when first needed
+    private lazy val classpathIndex: Properties = {
+        val properties = new Properties()
+        for (url <- classLoader.getResources(RESOURCE).asScala) {
+            LOGGER.debug("Loading command index at " + url)
+            val stream = new BufferedInputStream(url.openStream())
+            try {
+                properties.load(stream)
+            } catch {
+                case e: IOException =>
+                    LOGGER.warn("Cannot read the command index at " + url + ": " + e.getMessage)
+            } finally {
+                stream.close()
+            }
+        }
+        properties
+    }
+
+    /**
+     * Load the commands of a plugin class from the index on the classpath, if
+     * it's indexed there, and the index is still valid for the class.
+     *
+     * @param pluginClass the plugin's class
+     * @return its commands by name, or None if it has no (valid) index, and
+     * must be scanned.
+     */
+    def load(pluginClass: Class[_]): Option[Map[String, AnalysedMethod]] = {
+        if (classpathIndex.containsKey(pluginClass.getName + ".commands")) {
+            read(pluginClass, classpathIndex)
+        } else {
+            LOGGER.debug("No command index for " + pluginClass.getName)
+            None
+        }
+    }
+
+    /**
+     * The names of the commands of a plugin in the index on the classpath,
+     * without loading its class.
+     *
+     * @param pluginClassName the plugin's class name
+     * @return its command names, or None if it isn't indexed
+     */
+    def commandNames(pluginClassName: String): Option[List[String]] = {
+        val prefix = pluginClassName + "."
+        if (classpathIndex.getProperty(prefix + "format") == FORMAT) {
+            Some(words(classpathIndex.getProperty(prefix + "commands")))
+        } else {
+            None
+        }
+    }
+
+    /**
+     * The name a plugin gives itself (see ShellPlugin.getName), as recorded
+     * in the index on the classpath, without loading its class.
+     *
+     * @param pluginClassName the plugin's class name
+     * @return its name, or None if it isn't indexed, or its name wasn't
+     * recorded
+     */
+    def pluginName(pluginClassName: String): Option[String] = {
+        val prefix = pluginClassName + "."
+        if (classpathIndex.getProperty(prefix + "format") == FORMAT) {
+            Option(classpathIndex.getProperty(prefix + "name"))
+        } else {
+            None
+        }
+    }
+
+    /**
+     * Recreate the commands of a plugin class from an index, unless the index
+     * doesn't match the class, e.g. it was built from an earlier version of it.
+     */
+    def read(pluginClass: Class[_], properties: Properties): Option[Map[String, AnalysedMethod]] = {
+        val prefix = pluginClass.getName + "."
+        def property(key: String) = Option(properties.getProperty(prefix + key)).getOrElse("")
+        if (property("format") != FORMAT) {
+            LOGGER.warn("Ignoring the command index for " + pluginClass.getName + " of unknown format")
+            return None
+        }
+        try {
+            // A command and its alias share a method, and its AnalysedMethod
+            val analysedMethods = scala.collection.mutable.Map[String, AnalysedMethod]()
+            val commands = words(property("commands")).map { name =>
+                def commandProperty(key: String) = property(name + "." + key)
+                def position(key: String): Option[Integer] = commandProperty(key) match {
+                    case "" => None
+                    case pos => Some(Integer.valueOf(pos))
+                }
+                val methodName = commandProperty("method")
+                val parameterTypeNames = commandProperty("parameters")
+                val analysedMethod = analysedMethods.getOrElseUpdate(methodName + "(" + parameterTypeNames + ")", {
+                    val parameterTypes = words(parameterTypeNames).map(parameterTypesByName)
+                    val analysedMethod = new AnalysedMethod(pluginClass.getMethod(methodName, parameterTypes: _*))
+                    analysedMethod.setArgumentsPosition(position("arguments"))
+                    analysedMethod.setIsScalaArgumentsList(commandProperty("scalaArguments").toBoolean)
+                    analysedMethod.setInputPipePosition(position("input"))
+                    analysedMethod.setOutputPipePosition(position("output"))
+                    analysedMethod.setLogPosition(position("log"))
+                    analysedMethod.setVariableRegistryPosition(position("variableRegistry"))
+                    analysedMethod.setSetupPosition(position("setup"))
+                    analysedMethod.setStateless(commandProperty("stateless").toBoolean)
+                    analysedMethod
+                })
+                name -> analysedMethod
+            }
+            LOGGER.debug("Read " + commands.size + " command(s) from the index for " + pluginClass.getName)
+            Some(commands.toMap)
+        } catch {
+            case e: Exception =>
+                LOGGER.warn("Ignoring the stale command index for " + pluginClass.getName + ": " + e)
+                None
+        }
+    }
+
+    /**
+     * Write the index of some plugin classes' commands.
+     *
+     * @param pluginCommands each plugin class's commands by name, as scanned
+     * by the PluginMethodScanner
+     * @param pluginNames the names of those plugins that are known
+     */
+    def write(pluginCommands: Map[Class[_], Map[String, AnalysedMethod]], pluginNames: Map[Class[_], String], outputStream: OutputStream) {
+        val properties = new Properties()
+        for ((pluginClass, commands) <- pluginCommands) {
+            val prefix = pluginClass.getName + "."
+            def setProperty(key: String, value: String) {
+                properties.setProperty(prefix + key, value)
+            }
+            def position(pos: Option[Integer]) = pos.map(_.toString).getOrElse("")
+            val names = commands.keys.toList.sorted
+            setProperty("format", FORMAT)
+            pluginNames.get(pluginClass).foreach(setProperty("name", _))
+            setProperty("commands", names.mkString(" "))
+            for (name <- names) {
+                val analysedMethod = commands(name)
+                setProperty(name + ".method", analysedMethod.getMethod.getName)
+                setProperty(name + ".parameters", analysedMethod.getMethod.getParameterTypes.map(_.getName).mkString(" "))
+                setProperty(name + ".arguments", position(analysedMethod.getArgumentsPosition))
+                setProperty(name + ".scalaArguments", analysedMethod.getIsScalaArgumentsList.toString)
+                setProperty(name + ".input", position(analysedMethod.getInputPipePosition))
+                setProperty(name + ".output", position(analysedMethod.getOutputPipePosition))
+                setProperty(name + ".log", position(analysedMethod.getLogPosition))
+                setProperty(name + ".variableRegistry", position(analysedMethod.getVariableRegistryPosition))
+                setProperty(name + ".setup", position(analysedMethod.getSetupPosition))
+                setProperty(name + ".stateless", analysedMethod.getStateless.toString)
+            }
+        }
+        properties.store(outputStream, "Generated by CommandIndexGenerator; do not edit")
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import java.io.{File, FileOutputStream, IOException}
+import java.lang.reflect.Modifier
+
+import org.apache.log4j.{BasicConfigurator, Level, Logger}
+import org.devzendo.shell.plugin.ShellPlugin
+
+object CommandIndexGenerator {
+    private val LOGGER = Logger.getLogger(classOf[CommandIndexGenerator])
+
+    def main(args: Array[String]) {
+        BasicConfigurator.configure()
+        Logger.getRootLogger.setLevel(Level.INFO)
+        if (args.length != 1) {
+            LOGGER.error("Usage: CommandIndexGenerator classesDirectory")
+            System.exit(1)
+        }
+        new CommandIndexGenerator().generate(new File(args(0)))
+    }
+}
+
+/**
+ * Writes the CommandIndex of every ShellPlugin class in a directory of
+ * compiled classes into that directory. Run by the build after compilation.
+ */
+class CommandIndexGenerator {
+    import CommandIndexGenerator.LOGGER
+
+    private val scanner = new PluginMethodScanner()
+    private val commandIndex = new CommandIndex()
+
+    @throws[IOException]
+    def generate(classesDirectory: File) {
+        val loader = Thread.currentThread().getContextClassLoader
+        val pluginClasses: List[Class[_]] = classFiles(classesDirectory).map { classFile =>
+            val relativePath = classFile.getPath.substring(classesDirectory.getPath.length + 1)
+            Class.forName(relativePath.stripSuffix(".class").replace(File.separatorChar, '.'), false, loader)
+        }.filter(isPlugin)
+        val pluginCommands: Map[Class[_], Map[String, AnalysedMethod]] = pluginClasses.map { pluginClass =>
+            val commands = scanner.scanPluginClass(pluginClass)
+            LOGGER.info("Indexing " + commands.size + " command(s) of " + pluginClass.getName)
+            pluginClass -> commands
+        }.toMap
+        val pluginNames: Map[Class[_], String] = pluginClasses.flatMap(pluginClass => pluginName(pluginClass).map(pluginClass -> _)).toMap
+        val indexFile = new File(classesDirectory, CommandIndex.RESOURCE)
+        indexFile.getParentFile.mkdirs()
+        val outputStream = new FileOutputStream(indexFile)
+        try {
+            commandIndex.write(pluginCommands, pluginNames, outputStream)
+        } finally {
+            outputStream.close()
+        }
+        LOGGER.info("Wrote the command index of " + pluginCommands.size + " plugin(s) to " + indexFile)
+    }
+
+    // A deferred plugin is reported by this name until it's loaded; it's only
+    // known if the plugin can be instantiated (but not initialised) here. One
+    // that can't, e.g. for want of a no-argument constructor, can't be loaded
+    // by name either, so is never deferred.
+    private def pluginName(pluginClass: Class[_]): Option[String] = {
+        try {
+            Some(pluginClass.getConstructor().newInstance().asInstanceOf[ShellPlugin].getName)
+        } catch {
+            case e @ (_: Exception | _: LinkageError) =>
+                LOGGER.debug("Not recording the name of " + pluginClass.getName + ", which cannot be instantiated: " + e)
+                None
+        }
+    }
+
+    private def isPlugin(c: Class[_]): Boolean = {
+        classOf[ShellPlugin].isAssignableFrom(c) && !c.isInterface && !Modifier.isAbstract(c.getModifiers)
+    }
+
+    private def classFiles(directory: File): List[File] = {
+        Option(directory.listFiles).map(_.toList).getOrElse(Nil).flatMap { file =>
+            if (file.isDirectory) classFiles(file)
+            else if (file.getName.endsWith(".class")) List(file)
+            else Nil
+        }
+    }
+}
@@ -16,23 +16,56 @@
 
 package org.devzendo.shell.interpreter
 
-import org.devzendo.shell.plugin.ShellPlugin
+import java.util.concurrent.atomic.AtomicLong
+
+import org.devzendo.shell.plugin.{ShellPlugin, ShellPluginException}
 import scala.Some
 
 class CommandRegistry {
     private val commandHandlerFactory = new CommandHandlerFactory
-    private case class PluginMethod(shellPlugin: ShellPlugin, analysedMethod: AnalysedMethod) { }
-    private var nameToPluginMethod = scala.collection.mutable.Map[String, PluginMethod]()
+    private sealed trait Registration {
+        def pluginName: String
+    }
+    private case class PluginMethod(shellPlugin: ShellPlugin, analysedMethod: AnalysedMethod) extends Registration {
+        def pluginName: String = shellPlugin.getName
+    }
+    private case class DeferredPluginMethod(deferredPlugin: DeferredPlugin) extends Registration {
+        def pluginName: String = deferredPlugin.getName
+    }
+    private var nameToPluginMethod = scala.collection.mutable.Map[String, Registration]()
+    private val version = new AtomicLong(0)
+
+    /**
+     * @return a number that changes whenever a command is registered, so
+     * that anything depending on which commands exist, such as a parse, can
+     * tell whether it's stale.
+     */
+    def getVersion: Long = version.get()
 
     @throws[DuplicateCommandException]
     def registerCommand(name: String, plugin: ShellPlugin, analysedMethod: AnalysedMethod) {
+        register(name, new PluginMethod(plugin, analysedMethod))
+    }
+
+    /**
+     * Register a command of a plugin that will be loaded when the command (or
+     * another of its commands) is first used.
+     */
+    @throws[DuplicateCommandException]
+    def registerDeferredCommand(name: String, deferredPlugin: DeferredPlugin) {
+        register(name, new DeferredPluginMethod(deferredPlugin))
+    }
+
+    @throws[DuplicateCommandException]
+    private def register(name: String, registration: Registration) {
         nameToPluginMethod.get(name) match {
             case None =>
-                nameToPluginMethod += (name -> new PluginMethod(plugin, analysedMethod))
-            case Some(pluginMethod) =>
+                nameToPluginMethod += (name -> registration)
+                version.incrementAndGet()
+            case Some(existing) =>
                 throw new DuplicateCommandException("Command '" + name + "' from plugin '"
-                    + plugin.getName + "' is duplicated; initially declared in plugin '"
-                    + pluginMethod.shellPlugin.getName + "'")
+                    + registration.pluginName + "' is duplicated; initially declared in plugin '"
+                    + existing.pluginName + "'")
         }
     }
 
@@ -41,17 +74,46 @@ class CommandRegistry {
 
     @throws[CommandNotFoundException]
     def getHandler(name: String): CommandHandler = {
+        resolveHandler(name)()
+    }
+
+    /**
+     * Find a command once, loading its plugin if need be, for handlers of it
+     * to be created repeatedly.
+     * @return a function creating a new handler for the command each call
+     */
+    @throws[CommandNotFoundException]
+    def resolveHandler(name: String): () => CommandHandler = {
         nameToPluginMethod.get(name) match {
             case None =>
                 throw new CommandNotFoundException("'" + name + "' not found")
-            case Some(pluginMethod) =>
-                commandHandlerFactory.createHandler(pluginMethod.shellPlugin, pluginMethod.analysedMethod)
+            case Some(pluginMethod: PluginMethod) =>
+                () => commandHandlerFactory.createHandler(pluginMethod.shellPlugin, pluginMethod.analysedMethod)
+            case Some(DeferredPluginMethod(deferredPlugin)) =>
+                try {
+                    val (plugin, analysedMethod) = deferredPlugin.command(name)
+                    () => commandHandlerFactory.createHandler(plugin, analysedMethod)
+                } catch {
+                    case e: ShellPluginException =>
+                        throw new CommandNotFoundException("'" + name + "' could not be loaded: " + e.getMessage)
+                }
+        }
+    }
+
+    /**
+     * @return the class name of the plugin providing a command, without
+     * loading the plugin if it is deferred; None if there's no such command
+     */
+    def getPluginClassName(name: String): Option[String] = {
+        nameToPluginMethod.get(name).map {
+            case PluginMethod(shellPlugin, _) => shellPlugin.getClass.getName
+            case DeferredPluginMethod(deferredPlugin) => deferredPlugin.className
         }
     }
 
     def getNames: Map[String, String] = {
-        Map.empty ++ nameToPluginMethod.map( (p: (String, PluginMethod)) => {
-            (p._1 -> p._2.shellPlugin.getName)
+        Map.empty ++ nameToPluginMethod.map( (p: (String, Registration)) => {
+            (p._1 -> p._2.pluginName)
         })
     }
 }
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+/**
+ * Holds what a command sets up from its arguments - compiled patterns, say -
+ * for all the executions of one of its handlers. A plugin method declaring
+ * a CommandSetup parameter is given its handler's; a fused @StatelessCommand
+ * is executed once per batch of its input, and would otherwise repeat its
+ * setup, and any warnings about its arguments, for each batch.
+ */
+class CommandSetup {
+    private var setup: Option[AnyRef] = None
+
+    /**
+     * @param setUp sets up the command, on the first call only
+     * @return what the first call set up
+     */
+    def once[T <: AnyRef](setUp: => T): T = synchronized {
+        setup match {
+            case Some(done) =>
+                done.asInstanceOf[T]
+            case None =>
+                val done = setUp
+                setup = Some(done)
+                done
+        }
+    }
+}
@@ -16,38 +16,182 @@
 
 package org.devzendo.shell.interpreter
 
+import java.util.concurrent.{Callable, ExecutionException, ExecutorService, Executors, Future, FutureTask, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.log4j.Logger
 import org.devzendo.shell.plugin.{ShellPluginException, ShellPlugin}
 
+object DefaultPluginRegistry {
+    private val LOGGER = Logger.getLogger(classOf[DefaultPluginRegistry])
+
+    def defaultStartupThreads: Int = Runtime.getRuntime.availableProcessors()
+}
+
+/**
+ * Registers the commands of the given static plugins, and of those listed in
+ * the plugin descriptors on the classpath. Unless deferPluginLoading is
+ * false, plugins with a CommandIndex have their commands registered from it,
+ * and are only loaded and initialised when one of their commands is first
+ * used.
+ *
+ * The other plugins are loaded, initialised and scanned on up to
+ * startupThreads threads, while the descriptors are read; their commands
+ * are then registered on the calling thread, in the order the plugins were
+ * given, so that duplicate commands are reported as they would be were the
+ * plugins started one after another. Plugins' initialise methods may run
+ * concurrently, so must not depend on one another.
+ */
 class DefaultPluginRegistry(val propertiesResourcePath: String, val commandRegistry: CommandRegistry,
     val variableRegistry: VariableRegistry,
     val argList: List[String]) extends PluginRegistry {
 
     private val pluginMethodScanner = new PluginMethodScanner()
+    private val commandIndex = new CommandIndex()
     private val plugins = scala.collection.mutable.Set[ShellPlugin]()
+    private val deferredPlugins = scala.collection.mutable.ListBuffer[DeferredPlugin]()
     private val pluginLoader = new PluginLoader()
 
+    @scala.beans.BeanProperty
+    var deferPluginLoading: Boolean = true
+
+    @scala.beans.BeanProperty
+    var startupTimes: StartupTimes = new StartupTimes()
+
+    @scala.beans.BeanProperty
+    var startupThreads: Int = DefaultPluginRegistry.defaultStartupThreads
+
     @throws[ShellPluginException]
     def loadAndRegisterPluginMethods(staticPlugins: List[ShellPlugin]) {
         val env: ExecutionEnvironment = new DefaultExecutionEnvironment(argList, commandRegistry, variableRegistry, this)
-        val allPlugins = staticPlugins ++ pluginLoader.loadPluginsFromClasspath(propertiesResourcePath)
-        for (shellPlugin <- allPlugins) {
-            plugins += shellPlugin
-            shellPlugin.initialise(env)
-            val nameMethodMap = pluginMethodScanner.scanPluginMethods(shellPlugin)
-            for (entry <- nameMethodMap) {
-                try {
-                    commandRegistry.registerCommand(entry._1, shellPlugin, entry._2)
-                } catch {
-                    case e: DuplicateCommandException => {
-                        throw new ShellPluginException(e.getMessage)
-                    }
+        val executor = if (startupThreads > 1) Some(startupExecutor()) else None
+        try {
+            val staticRegistrations = staticPlugins.map { shellPlugin =>
+                startPlugin(executor, env, shellPlugin)
+            }
+            val classpathRegistrations = startupTimes.time("plugin descriptors") {
+                pluginLoader.loadPluginClassNamesFromClasspath(propertiesResourcePath)
+            }.map { pluginClassName =>
+                commandIndex.commandNames(pluginClassName) match {
+                    case Some(commandNames) if deferPluginLoading =>
+                        () => registerDeferredPlugin(env, pluginClassName, commandNames)
+                    case _ =>
+                        startPlugin(executor, env, startupTimes.time("load " + pluginClassName) {
+                            pluginLoader.loadPluginNamed(pluginClassName)
+                        })
                 }
             }
+            for (register <- staticRegistrations ++ classpathRegistrations) {
+                register()
+            }
+        } finally {
+            executor.foreach(_.shutdown())
+        }
+    }
+
+    private def startupExecutor(): ExecutorService = {
+        val threadNumber = new AtomicInteger(0)
+        Executors.newFixedThreadPool(startupThreads, new ThreadFactory {
+            def newThread(runnable: Runnable): Thread = {
+                val thread = new Thread(runnable, "plugin-startup-" + threadNumber.incrementAndGet())
+                thread.setDaemon(true)
+                thread
+            }
+        })
+    }
+
+    /**
+     * Initialise and find the commands of a plugin, on the executor if there
+     * is one, returning the registration of those commands, to be done once
+     * the plugins before it have been registered.
+     */
+    private def startPlugin(executor: Option[ExecutorService], env: ExecutionEnvironment, pluginToLoad: => ShellPlugin): () => Unit = {
+        val started = new FutureTask[(ShellPlugin, Map[String, AnalysedMethod])](new Callable[(ShellPlugin, Map[String, AnalysedMethod])] {
+            def call(): (ShellPlugin, Map[String, AnalysedMethod]) = {
+                val shellPlugin = pluginToLoad
+                startupTimes.time("initialise " + shellPlugin.getName) {
+                    shellPlugin.initialise(env)
+                }
+                startupTimes.time("commands of " + shellPlugin.getName) {
+                    // plugins built without a command index are scanned
+                    (shellPlugin, commandIndex.load(shellPlugin.getClass).getOrElse(
+                        pluginMethodScanner.scanPluginMethods(shellPlugin)))
+                }
+            }
+        })
+        executor match {
+            case Some(executorService) => executorService.execute(started)
+            case None => started.run()
+        }
+        () => {
+            val (shellPlugin, nameMethodMap) = awaitStarted(started)
+            addPlugin(shellPlugin)
+            for (entry <- nameMethodMap) {
+                registering { commandRegistry.registerCommand(entry._1, shellPlugin, entry._2) }
+            }
+        }
+    }
+
+    @throws[ShellPluginException]
+    private def awaitStarted[T](started: Future[T]): T = {
+        try {
+            started.get()
+        } catch {
+            case e: ExecutionException => e.getCause match {
+                case cause: ShellPluginException => throw cause
+                case cause: RuntimeException => throw cause
+                case cause: Error => throw cause
+                case cause =>
+                    DefaultPluginRegistry.LOGGER.debug("Plugin failed to start", cause)
+                    throw new ShellPluginException("Failure starting plugin: " + cause.getMessage)
+            }
+            case e: InterruptedException =>
+                throw new ShellPluginException("Interrupted while starting plugins")
+        }
+    }
+
+    @throws[ShellPluginException]
+    private def registerDeferredPlugin(env: ExecutionEnvironment, pluginClassName: String, commandNames: List[String]) {
+        val deferredPlugin = new DeferredPlugin(pluginClassName, loadDeferredPlugin(env), commandIndex)
+        deferredPlugins += deferredPlugin
+        for (commandName <- commandNames) {
+            registering { commandRegistry.registerDeferredCommand(commandName, deferredPlugin) }
+        }
+    }
+    @throws[ShellPluginException]
+    private def loadDeferredPlugin(env: ExecutionEnvironment)(pluginClassName: String): ShellPlugin = {
+        val shellPlugin = pluginLoader.loadPluginNamed(pluginClassName)
+        // if this throws, the plugin is not loaded, and the next use of one of
+        // its commands tries again
+        shellPlugin.initialise(env)
+        addPlugin(shellPlugin)
+        shellPlugin
+    }
+
+    @throws[ShellPluginException]
+    private def registering(register: => Unit) {
+        try {
+            register
+        } catch {
+            case e: DuplicateCommandException => {
+                throw new ShellPluginException(e.getMessage)
+            }
+        }
+    }
+
+    private def addPlugin(shellPlugin: ShellPlugin) {
+        plugins.synchronized {
+            plugins += shellPlugin
         }
     }
 
     def getPlugins: Set[ShellPlugin] = {
-        Set.empty ++ plugins
+        plugins.synchronized {
+            Set.empty ++ plugins
+        }
     }
-}
 
+    def getUnloadedPluginNames: Set[String] = {
+        Set.empty ++ deferredPlugins.filterNot(_.isLoaded).map(_.getName)
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.plugin.{ShellPlugin, ShellPluginException}
+
+object DeferredPlugin {
+    private val LOGGER = Logger.getLogger(classOf[DeferredPlugin])
+}
+
+/**
+ * A plugin registered from the CommandIndex alone: the names of its commands
+ * are known, but its class is only loaded, instantiated and initialised when
+ * one of them is first used.
+ *
+ * @param className the plugin's class name
+ * @param loadPlugin loads, instantiates and initialises the plugin
+ * @param commandIndex the index its commands are read from once loaded
+ */
+class DeferredPlugin(val className: String, loadPlugin: String => ShellPlugin, commandIndex: CommandIndex) {
+    private var loaded: Option[(ShellPlugin, Map[String, AnalysedMethod])] = None
+
+    /**
+     * The plugin's name: until it's loaded, as recorded in the index, or if
+     * it wasn't, its class name.
+     */
+    def getName: String = synchronized {
+        loaded.map(_._1.getName).orElse(commandIndex.pluginName(className)).getOrElse(className)
+    }
+
+    def isLoaded: Boolean = synchronized {
+        loaded.isDefined
+    }
+
+    /**
+     * The plugin, and the method of one of its commands, loading the plugin
+     * if this is the first of its commands to be used.
+     */
+    @throws[ShellPluginException]
+    def command(name: String): (ShellPlugin, AnalysedMethod) = synchronized {
+        if (loaded.isEmpty) {
+            DeferredPlugin.LOGGER.debug("Loading plugin " + className + " on first use of its command '" + name + "'")
+            val plugin = loadPlugin(className)
+            val commands = commandIndex.load(plugin.getClass).getOrElse(new PluginMethodScanner().scanPluginMethods(plugin))
+            loaded = Some((plugin, commands))
+        }
+        val (plugin, commands) = loaded.get
+        commands.get(name) match {
+            case Some(analysedMethod) => (plugin, analysedMethod)
+            case None => throw new ShellPluginException("Plugin '" + plugin.getName + "' has no command '" + name + "'; its command index is stale")
+        }
+    }
+}
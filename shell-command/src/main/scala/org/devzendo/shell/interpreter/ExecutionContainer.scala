@@ -21,12 +21,31 @@ import scala.throws
 import java.util.concurrent.CountDownLatch
 import java.util.Collections
 import java.util
+import org.devzendo.shell.pipe.{BlockingPipe, MergeInputPipe, OutputPipe}
 
 object ExecutionContainer {
     private val LOGGER = Logger.getLogger(classOf[ExecutionContainer])
 }
 
-case class ExecutionContainer(commandHandlers: List[CommandHandler]) {
+/**
+ * Executes the command handlers of a wired statement: a single handler on the
+ * current thread, several (connected by pipes) concurrently on the given
+ * StageExecutor.
+ *
+ * Pipelines of up to cooperativeStageLimit handlers whose pipes can signal
+ * overflow (see BlockingPipe.setOverflowHandler) are instead run
+ * cooperatively: each handler runs to completion on the current thread,
+ * filling the pipe to the next, which then runs on the current thread
+ * reading what was buffered. Should a handler fill its output pipe, the
+ * handlers after it are started on the StageExecutor there and then, and the
+ * pipeline finishes concurrently, as it would have done had it been started
+ * that way.
+ */
+case class ExecutionContainer(commandHandlers: List[CommandHandler], stageExecutor: StageExecutor, cooperativeStageLimit: Int) {
+    def this(commandHandlers: List[CommandHandler], stageExecutor: StageExecutor) = this(commandHandlers, stageExecutor, 0)
+    def this(commandHandlers: List[CommandHandler], options: ExecutionOptions) = this(commandHandlers, options.stageExecutor, options.cooperativeStageLimit)
+    def this(commandHandlers: List[CommandHandler]) = this(commandHandlers, StageExecutors.ThreadPerStage)
+
     commandHandlers.foreach { (handler: CommandHandler) =>
         val variableRegistry = handler.getVariableRegistry
         if (variableRegistry != null) {
@@ -41,19 +60,89 @@ case class ExecutionContainer(commandHandlers: List[CommandHandler]) {
                 // do nothing
             case 1 =>
                 executeOnCurrentThread()
+            case _ if canExecuteCooperatively =>
+                executeCooperatively()
             case _ =>
                 executeOnMultipleThreads()
         }
     }
 
+    // A handler reading from a pipe that might block its producer would
+    // deadlock that producer if both were run on the current thread, unless
+    // the pipe can signal overflow, and is fed by the handler before it, so
+    // that the overflow can start it. A merge needs all its upstreams
+    // running at once.
+    private def canExecuteCooperatively: Boolean = {
+        commandHandlers.size <= cooperativeStageLimit &&
+            commandHandlers.zip(commandHandlers.tail).forall { case (left, right) =>
+                right.getInputPipe match {
+                    case pipe: BlockingPipe => feeds(left) eq pipe
+                    case _: MergeInputPipe => false
+                    case _: OutputPipe => false
+                    case _ => true
+                }
+            }
+    }
+
+    // The pipe a handler's output reaches, through any fused commands.
+    private def feeds(handler: CommandHandler): OutputPipe = handler.getOutputPipe match {
+        case fused: FusedOutputPipe => feeds(fused.handler)
+        case pipe => pipe
+    }
+
     @throws[CommandExecutionException]
     private def executeOnMultipleThreads() {
         val latch = new CountDownLatch(commandHandlers.size)
         val exceptions = Collections.synchronizedList(new util.ArrayList[CommandExecutionException]())
-        commandHandlers.foreach {
+        startHandlers(commandHandlers, latch, exceptions)
+        awaitHandlers(latch)
+        throwIfAnyFailed(exceptions)
+    }
+
+    @throws[CommandExecutionException]
+    private def executeCooperatively() {
+        ExecutionContainer.LOGGER.debug("executing " + commandHandlers.size + " commands cooperatively")
+        val exceptions = Collections.synchronizedList(new util.ArrayList[CommandExecutionException]())
+        var promotedLatch: Option[CountDownLatch] = None
+        var remaining = commandHandlers
+        while (remaining.nonEmpty && promotedLatch.isEmpty) {
+            val handler = remaining.head
+            val following = remaining.tail
+            if (following.nonEmpty) {
+                following.head.getInputPipe match {
+                    case pipe: BlockingPipe =>
+                        pipe.setOverflowHandler(() => {
+                            ExecutionContainer.LOGGER.debug(handler.getName + " filled its output; starting the rest of the pipeline on threads")
+                            val latch = new CountDownLatch(following.size)
+                            promotedLatch = Some(latch)
+                            startHandlers(following, latch, exceptions)
+                        })
+                    case _ =>
+                }
+            }
+            try {
+                handler.executeAndTerminatePipes()
+            } catch {
+                case e: CommandExecutionException =>
+                    ExecutionContainer.LOGGER.debug("Adding CommandExecutionException to list of exceptions", e)
+                    exceptions.add(e)
+            } finally {
+                decrementUsage(handler)
+            }
+            remaining = following
+        }
+        promotedLatch.foreach(awaitHandlers)
+        throwIfAnyFailed(exceptions)
+    }
+
+    private def startHandlers(handlers: List[CommandHandler], latch: CountDownLatch, exceptions: util.List[CommandExecutionException]) {
+        handlers.foreach {
             (handler: CommandHandler) => {
-                val thread = new Thread(new Runnable() {
+                stageExecutor.execute(new Runnable() {
                     def run() {
+                        val thread = Thread.currentThread()
+                        val previousThreadName = thread.getName
+                        thread.setName(handler.getName)
                         try {
                             handler.executeAndTerminatePipes()
                         } catch {
@@ -62,19 +151,19 @@ case class ExecutionContainer(commandHandlers: List[CommandHandler]) {
                                 exceptions.add(e)
                         } finally {
                             ExecutionContainer.LOGGER.debug("Decrementing variable registry and counting down latch")
-                            val variableRegistry = handler.getVariableRegistry
-                            if (variableRegistry != null) {
-                                variableRegistry.decrementUsage()
-                            }
-                            latch.countDown()
+                            decrementUsage(handler)
                             ExecutionContainer.LOGGER.debug("Ending thread run")
+                            thread.setName(previousThreadName)
+                            latch.countDown()
                         }
                     }
                 })
-                thread.setName(handler.getName)
-                thread.start()
             }
         }
+    }
+
+    @throws[CommandExecutionException]
+    private def awaitHandlers(latch: CountDownLatch) {
         ExecutionContainer.LOGGER.debug("waiting for execution to end")
         try {
             latch.await()
@@ -83,7 +172,10 @@ case class ExecutionContainer(commandHandlers: List[CommandHandler]) {
                 throw new CommandExecutionException("Wait for commands to finish executing was interrupted: " + e.getMessage)
         }
         ExecutionContainer.LOGGER.debug("execution has ended")
+    }
 
+    @throws[CommandExecutionException]
+    private def throwIfAnyFailed(exceptions: util.List[CommandExecutionException]) {
         if (exceptions.size() != 0) {
             val sb = new StringBuilder()
             sb.append("Multiple commands failed: ")
@@ -103,10 +195,14 @@ case class ExecutionContainer(commandHandlers: List[CommandHandler]) {
         try {
             handler.executeAndTerminatePipes()
         } finally {
-            val variableRegistry = handler.getVariableRegistry
-            if (variableRegistry != null) {
-                variableRegistry.decrementUsage()
-            }
+            decrementUsage(handler)
+        }
+    }
+
+    private def decrementUsage(handler: CommandHandler) {
+        val variableRegistry = handler.getVariableRegistry
+        if (variableRegistry != null) {
+            variableRegistry.decrementUsage()
         }
     }
 }
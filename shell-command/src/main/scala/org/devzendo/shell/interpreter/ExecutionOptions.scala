@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import org.devzendo.shell.pipe.{PipeFactory, RendezvousPipeFactory}
+import org.devzendo.shell.interpreter.StageExecutors.ThreadPerStage
+
+object ExecutionOptions {
+    /**
+     * The capacity of the pipes between the commands of a pipeline that may
+     * be run cooperatively; a producer that pushes more than this before it
+     * finishes causes the rest of the pipeline to be started on threads.
+     */
+    val COOPERATIVE_PIPE_BUFFER_SIZE = 1024
+
+    val DEFAULT_FAN_OUT_BUFFER_SIZE = 256
+}
+
+/**
+ * Shell-wide settings that control how statements are wired and executed.
+ *
+ * @param pipeFactory creates the pipes between adjacent commands of a pipeline
+ * @param stageExecutor runs the commands of a pipeline concurrently
+ * @param fuseStatelessCommands run each @StatelessCommand in a pipeline on the
+ *                              thread of the command before it, if possible
+ * @param cooperativeStageLimit pipelines of up to this many commands are run
+ *                              one command after another on the calling
+ *                              thread, until a pipe between them fills; 0
+ *                              disables this
+ * @param fanOutBufferSize the number of objects buffered for each branch of
+ *                         a pipeline that fans out, before the slowest
+ *                         branch holds up the others
+ */
+case class ExecutionOptions(
+    pipeFactory: PipeFactory = RendezvousPipeFactory,
+    stageExecutor: StageExecutor = ThreadPerStage,
+    fuseStatelessCommands: Boolean = true,
+    cooperativeStageLimit: Int = 0,
+    fanOutBufferSize: Int = ExecutionOptions.DEFAULT_FAN_OUT_BUFFER_SIZE) {
+
+    def this(pipeFactory: PipeFactory, stageExecutor: StageExecutor, fuseStatelessCommands: Boolean) =
+        this(pipeFactory, stageExecutor, fuseStatelessCommands, 0, ExecutionOptions.DEFAULT_FAN_OUT_BUFFER_SIZE)
+
+    def this(pipeFactory: PipeFactory, stageExecutor: StageExecutor, fuseStatelessCommands: Boolean, cooperativeStageLimit: Int) =
+        this(pipeFactory, stageExecutor, fuseStatelessCommands, cooperativeStageLimit, ExecutionOptions.DEFAULT_FAN_OUT_BUFFER_SIZE)
+}
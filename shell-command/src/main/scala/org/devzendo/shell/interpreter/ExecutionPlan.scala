@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import org.devzendo.shell.ast.{Statement, VariableReference}
+import org.devzendo.shell.pipe._
+
+/**
+ * A statement compiled by the CommandHandlerWirer: the commands it runs,
+ * resolved in the CommandRegistry, their arguments, and how they're to be
+ * connected. Plans are immutable, so a statement that is run repeatedly
+ * need only be compiled once; each run then instantiates its plan, creating
+ * just the handlers, pipes and variable registries of that run.
+ */
+sealed trait ExecutionPlan {
+    /**
+     * @param variableRegistry the variables of this run
+     * @param statementOutput supplies the pipe receiving the output of each
+     * pipeline that isn't stored in a variable
+     * @return the connected handlers to execute
+     */
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): List[CommandHandler]
+}
+
+/**
+ * A { block } of statements, executed in order, with variables of its own.
+ */
+case class BlockPlan(statements: List[ExecutionPlan], options: ExecutionOptions) extends ExecutionPlan {
+
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): List[CommandHandler] =
+        List(instantiateBlock(variableRegistry, statementOutput))
+
+    def instantiateBlock(parentVariableRegistry: VariableRegistry, statementOutput: () => OutputPipe): CommandHandler = {
+        val childVariableRegistry = new DefaultVariableRegistry(Some(parentVariableRegistry))
+        val listOfCommandHandlerLists = statements.map { _.instantiate(childVariableRegistry, statementOutput) }
+        val blockCommandHandler = new SequentialCommandHandler(listOfCommandHandlerLists, options)
+        blockCommandHandler.setVariableRegistry(childVariableRegistry)
+        blockCommandHandler.setVerbose(false)
+        blockCommandHandler.setLog(CommandHandlerWirer.nonverboseLog)
+        blockCommandHandler.setInputPipe(new NullInputPipe())
+        blockCommandHandler.setOutputPipe(new NullOutputPipe())  // note, blocks as args use a VariableOutputPipe
+
+        blockCommandHandler
+    }
+}
+
+/**
+ * A pipeline. Its first command reads the merged output of its sources (if
+ * any), the pipe feeding it if it's a branch of another pipeline, its input
+ * variable, or nothing; its last command feeds a lane of the merge if it's a
+ * source of another pipeline, its branches, its output variable, or the
+ * statement output.
+ *
+ * @param mergeMode how the outputs of any sources are merged
+ * @param connected whether each command is connected to the next by a pipe
+ * (or, if either lacks one, by null pipes)
+ * @param fused whether each command is fused into the one before it
+ * @param cooperative whether its pipes can signal overflow, so that the
+ * ExecutionContainer can run it cooperatively
+ */
+case class PipelinePlan(
+    sources: List[PipelinePlan],
+    mergeMode: MergeInputPipe.Mode,
+    commands: List[CommandPlan],
+    inputVariable: Option[VariableReference],
+    outputVariable: Option[VariableReference],
+    branches: List[PipelinePlan],
+    connected: List[Boolean],
+    fused: List[Boolean],
+    cooperative: Boolean,
+    options: ExecutionOptions) extends ExecutionPlan {
+
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): List[CommandHandler] =
+        instantiate(variableRegistry, statementOutput, None, None)
+
+    // The handlers of any sources of this pipeline precede its own; those of
+    // any branches follow them.
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe,
+                    branchInputPipe: Option[InputPipe], sourceOutputPipe: Option[OutputPipe]): List[CommandHandler] = {
+        if (commands.isEmpty) {
+            List()
+        } else {
+            val handlers = commands.map(_.instantiate(variableRegistry, statementOutput)).toArray
+            val sourceHandlers = if (sources.nonEmpty) {
+                val mergePipe = new MergeInputPipe(sources.size, mergeMode)
+                handlers.head.setInputPipe(mergePipe)
+                sources.zip(mergePipe.lanes).flatMap { case (source, lane) =>
+                    source.instantiate(variableRegistry, statementOutput, None, Some(lane))
+                }
+            } else {
+                handlers.head.setInputPipe(branchInputPipe.getOrElse(inputVariable match {
+                    case Some(name) => new VariableInputPipe(variableRegistry.getVariable(name))
+                    case None => new NullInputPipe()
+                }))
+                List()
+            }
+            val branchHandlers = if (sourceOutputPipe.isDefined) {
+                handlers.last.setOutputPipe(sourceOutputPipe.get)
+                List()
+            } else if (branches.nonEmpty) {
+                val branchPipes = branches.map(_ => new BufferedPipe(options.fanOutBufferSize))
+                handlers.last.setOutputPipe(new FanOutPipe(branchPipes))
+                branches.zip(branchPipes).flatMap { case (branch, branchPipe) =>
+                    branch.instantiate(variableRegistry, statementOutput, Some(branchPipe), None)
+                }
+            } else {
+                handlers.last.setOutputPipe(outputVariable match {
+                    case Some(name) => new VariableOutputPipe(variableRegistry.getVariable(name))
+                    case None => statementOutput()
+                })
+                List()
+            }
+            for (i <- 0 until (handlers.length - 1)) {
+                val left = handlers(i)
+                val right = handlers(i + 1)
+                if (connected(i)) {
+                    val pipe = if (cooperative) {
+                        new BufferedPipe(ExecutionOptions.COOPERATIVE_PIPE_BUFFER_SIZE)
+                    } else {
+                        options.pipeFactory.createPipe()
+                    }
+                    left.setOutputPipe(pipe)
+                    right.setInputPipe(pipe)
+                } else {
+                    left.setOutputPipe(new NullOutputPipe())
+                    right.setInputPipe(new NullInputPipe())
+                }
+            }
+            for (i <- (handlers.length - 1) until 0 by -1 if fused(i)) {
+                handlers(i - 1).setOutputPipe(new FusedOutputPipe(handlers(i)))
+            }
+            val pipelineHandlers = handlers.toList.zip(fused).filterNot(_._2).map(_._1)
+            sourceHandlers ++ pipelineHandlers ++ branchHandlers
+        }
+    }
+}
+
+/**
+ * A command of a pipeline, and what the wiring of the pipeline needs to
+ * know about its handler.
+ */
+sealed trait CommandPlan {
+    def hasInput: Boolean
+    def hasOutput: Boolean
+    def stateless: Boolean
+    def hasSubCommands: Boolean
+
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): CommandHandler
+}
+
+/**
+ * A command, executed by a new handler from createHandler, with the Verbose
+ * switch removed from its arguments.
+ */
+case class SingleCommandPlan(
+    name: String,
+    createHandler: () => CommandHandler,
+    verbose: Boolean,
+    arguments: List[ArgumentPlan],
+    stateless: Boolean,
+    hasInput: Boolean,
+    hasOutput: Boolean) extends CommandPlan {
+
+    def hasSubCommands: Boolean = arguments.exists(_.isInstanceOf[SubCommandArgument])
+
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): CommandHandler = {
+        val handler = createHandler()
+        handler.setVerbose(verbose)
+        handler.setLog(if (verbose) CommandHandlerWirer.verboseLog else CommandHandlerWirer.nonverboseLog)
+
+        val (subCommandHandlers, args) = arguments.map(_.instantiate(variableRegistry, statementOutput)).unzip
+        handler.setArgs(args)
+        handler.setSubCommandHandlers(subCommandHandlers)
+        handler.setVariableRegistry(variableRegistry)
+        handler
+    }
+}
+
+/**
+ * parallel N [-unordered] (command args...): N copies of the command.
+ */
+case class ParallelCommandPlan(copies: Int, ordered: Boolean, verbose: Boolean, copy: SingleCommandPlan, options: ExecutionOptions) extends CommandPlan {
+    def hasInput: Boolean = copy.hasInput
+    def hasOutput: Boolean = copy.hasOutput
+    def stateless: Boolean = false
+    def hasSubCommands: Boolean = false
+
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): CommandHandler = {
+        val copyHandlers = List.fill(copies)(copy.instantiate(variableRegistry, statementOutput))
+        val handler = new ParallelCommandHandler(copyHandlers, ordered, options.stageExecutor)
+        handler.setVerbose(verbose)
+        handler.setLog(if (verbose) CommandHandlerWirer.verboseLog else CommandHandlerWirer.nonverboseLog)
+        handler.setVariableRegistry(variableRegistry)
+        handler
+    }
+}
+
+/**
+ * An argument of a command: the handler of any sub-command it needs
+ * executed first, and the argument it's given.
+ */
+sealed trait ArgumentPlan {
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): (Option[CommandHandler], AnyRef)
+}
+
+case class LiteralArgument(value: AnyRef) extends ArgumentPlan {
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): (Option[CommandHandler], AnyRef) =
+        (None, value)
+}
+
+/**
+ * A (sub-command), whose output is given as the argument.
+ */
+case class SubCommandArgument(command: SingleCommandPlan) extends ArgumentPlan {
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): (Option[CommandHandler], AnyRef) = {
+        val subCommandHandler = command.instantiate(variableRegistry, statementOutput)
+        val avp = new AnonymousVariablePipe()
+        subCommandHandler.setInputPipe(new NullInputPipe())
+        subCommandHandler.setOutputPipe(avp)
+        (Some(subCommandHandler), avp.contents)
+    }
+}
+
+/**
+ * A { block }, whose handler is given as the argument, for the command to
+ * execute if it chooses.
+ */
+case class BlockArgument(block: BlockPlan) extends ArgumentPlan {
+    def instantiate(variableRegistry: VariableRegistry, statementOutput: () => OutputPipe): (Option[CommandHandler], AnyRef) = {
+        val blockCommandHandler = block.instantiateBlock(variableRegistry, statementOutput)
+        // instantiateBlock fills in a NullInputPipe, and NullOutputPipe, but we
+        // want to store the output in an anonymous variable, so that output can be
+        // captured by the block executor (e.g. 'if', 'while', etc.) after lazy
+        // evaluation
+        blockCommandHandler.setOutputPipe(new AnonymousVariablePipe())
+        (None, blockCommandHandler)
+    }
+}
+
+/**
+ * The ExecutionPlans of statements, kept for as long as the statements are,
+ * so that a statement run repeatedly is compiled once. Statements are told
+ * apart by identity, so must not be modified once planned; those returned
+ * by CommandParser aren't.
+ */
+class ExecutionPlanCache {
+    private val plans = new java.util.WeakHashMap[Statement, ExecutionPlan]()
+    private var hits = 0L
+    private var misses = 0L
+
+    /**
+     * @return the statement's plan, compiling it with compile if it has
+     * none yet
+     */
+    def getOrCompile(statement: Statement, compile: Statement => ExecutionPlan): ExecutionPlan = {
+        val cached = plans.synchronized {
+            val plan = Option(plans.get(statement))
+            if (plan.isDefined) hits += 1 else misses += 1
+            plan
+        }
+        cached.getOrElse {
+            // compiled unlocked, as it may load plugins
+            val plan = compile(statement)
+            plans.synchronized {
+                plans.put(statement, plan)
+            }
+            plan
+        }
+    }
+
+    /** @return the cache statistics as 'name=value' strings */
+    def statistics: List[String] = plans.synchronized {
+        List(
+            "size=" + plans.size(),
+            "hits=" + hits,
+            "misses=" + misses)
+    }
+}
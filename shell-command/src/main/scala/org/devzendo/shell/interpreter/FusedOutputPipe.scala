@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.interpreter
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.pipe.{BatchInputPipe, BatchOutputPipe, CancellablePipe}
+
+object FusedOutputPipe {
+    private val LOGGER = Logger.getLogger(classOf[FusedOutputPipe])
+}
+
+/**
+ * The output pipe of a command whose next command in the pipeline has been
+ * fused into it. Rather than handing objects to another thread, each push
+ * executes the fused command's handler directly, with just the pushed objects
+ * as its input. This is only correct for @StatelessCommands.
+ *
+ * Ending this pipe's stream ends the fused command's output stream; it is
+ * cancelled when the fused command's output is.
+ *
+ * @param handler the fused command's handler, whose output pipe has been set
+ */
+class FusedOutputPipe(val handler: CommandHandler) extends BatchOutputPipe with CancellablePipe {
+    import FusedOutputPipe.LOGGER
+
+    private val input = new FusedInputPipe()
+    handler.setInputPipe(input)
+    private var ended = false
+
+    def push(obj: AnyRef) {
+        pushBatch(List(obj))
+    }
+
+    // A CommandExecutionException from the fused command propagates to the
+    // pushing command, failing it in turn.
+    def pushBatch(objs: Seq[AnyRef]) {
+        if (ended || isCancelled) {
+            LOGGER.debug("Fused pipe ended or cancelled; not executing " + handler.getName)
+            return
+        }
+        input.load(objs)
+        try {
+            handler.execute()
+        } finally {
+            input.setTerminated()
+        }
+    }
+
+    def setTerminated() {
+        setEndOfStream()
+    }
+
+    def setEndOfStream() {
+        if (!ended) {
+            ended = true
+            LOGGER.debug("Ending fused command " + handler.getName)
+            handler.getOutputPipe match {
+                case null =>
+                case cancellable: CancellablePipe => cancellable.setEndOfStream()
+                case pipe => pipe.setTerminated()
+            }
+        }
+    }
+
+    def cancel() {
+        ended = true
+    }
+
+    def isCancelled: Boolean = CancellablePipe.isCancelled(handler.getOutputPipe)
+
+    // The fused command's reader is this pipe's reader.
+    override def onCancel(listener: () => Unit) {
+        CancellablePipe.onCancel(handler.getOutputPipe, listener)
+    }
+
+    override def toString = "FusedOutputPipe(" + handler.getName + ")"
+}
+
+/**
+ * Presents the objects of a single push to a fused command; only ever used
+ * by the one thread.
+ */
+private class FusedInputPipe extends BatchInputPipe {
+    private var objs: List[AnyRef] = Nil
+
+    def load(batch: Seq[AnyRef]) {
+        objs = batch.toList
+    }
+
+    def next(): Option[AnyRef] = objs match {
+        case head :: tail =>
+            objs = tail
+            Some(head)
+        case Nil =>
+            None
+    }
+
+    def nextBatch(maxSize: Int): List[AnyRef] = {
+        val (batch, rest) = objs.splitAt(maxSize)
+        objs = rest
+        batch
+    }
+
+    def setTerminated() {
+        objs = Nil
+    }
+}
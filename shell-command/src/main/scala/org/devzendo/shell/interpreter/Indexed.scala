@@ -0,0 +1,9 @@
+package org.devzendo.shell.interpreter
+
+/**
+ * An object with numbered elements, from 1 - e.g. the capture groups of a
+ * filterRegex match - that a command can pick out by number.
+ */
+trait Indexed {
+    def element(number: Int): Option[AnyRef]
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.ast.VariableReference
+
+import scala.reflect.ClassTag
+
+object MonomorphicOperators {
+    private val LOGGER = Logger.getLogger(classOf[MonomorphicOperator])
+
+    private val INTEGER = classOf[java.lang.Integer]
+    private val DOUBLE = classOf[java.lang.Double]
+
+    private val operators: Map[(String, Class[_]), MonomorphicOperator] = Map(
+        ("+", INTEGER) -> new IntegerOperator(0, _ + _),
+        ("-", INTEGER) -> new IntegerOperator(0, _ - _, Some(0 - _)),
+        ("*", INTEGER) -> new IntegerOperator(1, _ * _),
+        ("/", INTEGER) -> new IntegerOperator(1, _ / _),
+        ("%", INTEGER) -> new IntegerOperator(1, _ % _),
+        ("+", DOUBLE) -> new DoubleOperator(0, _ + _),
+        ("-", DOUBLE) -> new DoubleOperator(0, _ - _, Some(0.0 - _)),
+        ("*", DOUBLE) -> new DoubleOperator(1, _ * _),
+        ("/", DOUBLE) -> new DoubleOperator(1, _ / _)
+    )
+
+    /**
+     * @param name an operator's command name
+     * @param operandType the type inferred for all its operands, or null
+     * @return the operator's implementation for operands of only that type,
+     *         if there is one
+     */
+    def lookup(name: String, operandType: Class[_]): Option[MonomorphicOperator] = {
+        if (operandType == null) {
+            None
+        } else {
+            operators.get((name, operandType))
+        }
+    }
+
+    /**
+     * Create a handler that executes a monomorphic operator, when the
+     * operands are all of its type, and otherwise the general command.
+     */
+    def createHandler(operator: MonomorphicOperator, general: CommandHandler): CommandHandler = {
+        val handler = new CommandHandler(general.name, general.argumentsPos, general.inputPipePos,
+                                         general.outputPipePos, general.logPos) {
+            @throws[CommandExecutionException]
+            override def execute() {
+                val operands = getArgs.map(expand)
+                if (operands.forall(_.forall(operand => operand != null && operand.getClass == operator.operandType))) {
+                    val results = try {
+                        operator(operands)
+                    } catch {
+                        case e: ArithmeticException =>
+                            throw new CommandExecutionException(e.getMessage, e)
+                    }
+                    results.foreach(getOutputPipe.push(_))
+                } else {
+                    LOGGER.debug(name + " operands are not all " + operator.operandType.getSimpleName + "; executing the general operator")
+                    general.setInputPipe(getInputPipe)
+                    general.setOutputPipe(getOutputPipe)
+                    general.setLog(getLog)
+                    general.setVerbose(getVerbose)
+                    general.setArgs(getArgs)
+                    general.setVariableRegistry(getVariableRegistry)
+                    general.execute()
+                }
+            }
+
+            // as PluginHelper.wrapArgAsList expands them
+            private def expand(arg: AnyRef): List[AnyRef] = arg match {
+                case v: Variable => v.asList()
+                case vr: VariableReference => getVariableRegistry.getVariable(vr).asList()
+                case null => Nil
+                case x => List(x)
+            }
+        }
+        handler.setStateless(general.getStateless)
+        handler
+    }
+}
+
+/**
+ * An arithmetic operator's implementation for operands that are all of one
+ * type, giving the same results as the BasicOperatorsPlugin's, without its
+ * per-element type dispatch and coercion.
+ */
+sealed trait MonomorphicOperator {
+    def operandType: Class[_]
+
+    /**
+     * @param operands each argument, expanded to a list of values that are
+     *                 all of the operandType
+     * @return the results, as PluginHelper.reduceArgsThenPipeOut would give
+     */
+    def apply(operands: List[List[AnyRef]]): List[AnyRef]
+}
+
+/**
+ * Shorter operand lists are padded with the identity, and the lists reduced
+ * pairwise, element by element. A unary operation, if given, instead maps a
+ * single operand list.
+ */
+private abstract class PaddedReduction[@specialized(Int, Double) T: ClassTag](unary: Option[T => T]) extends MonomorphicOperator {
+    protected def identity: T
+    protected def op(a: T, b: T): T
+    protected def unbox(obj: AnyRef): T
+    protected def box(value: T): AnyRef
+
+    def apply(operands: List[List[AnyRef]]): List[AnyRef] = {
+        (operands, unary) match {
+            case (Nil, _) => Nil
+            case (List(single), Some(negate)) => single.map(obj => box(negate(unbox(obj))))
+            case (List(single), None) => single
+            case (first :: rest, _) =>
+                // while loops, as closures would not be specialised
+                var length = 0
+                var lists = operands
+                while (lists.nonEmpty) {
+                    length = math.max(length, lists.head.size)
+                    lists = lists.tail
+                }
+                val results = new Array[T](length)
+                reduceInto(results, first, first = true)
+                lists = rest
+                while (lists.nonEmpty) {
+                    reduceInto(results, lists.head, first = false)
+                    lists = lists.tail
+                }
+                val out = List.newBuilder[AnyRef]
+                var i = 0
+                while (i < length) {
+                    out += box(results(i))
+                    i += 1
+                }
+                out.result()
+        }
+    }
+
+    private def reduceInto(results: Array[T], operand: List[AnyRef], first: Boolean) {
+        var remaining = operand
+        var i = 0
+        while (i < results.length) {
+            val b = if (remaining.isEmpty) identity else unbox(remaining.head)
+            results(i) = if (first) b else op(results(i), b)
+            if (remaining.nonEmpty) {
+                remaining = remaining.tail
+            }
+            i += 1
+        }
+    }
+}
+
+private class IntegerOperator(val identity: Int, reduction: (Int, Int) => Int, unary: Option[Int => Int] = None)
+        extends PaddedReduction[Int](unary) {
+    def operandType: Class[_] = classOf[java.lang.Integer]
+    protected def op(a: Int, b: Int): Int = reduction(a, b)
+    protected def unbox(obj: AnyRef): Int = obj.asInstanceOf[java.lang.Integer].intValue
+    protected def box(value: Int): AnyRef = java.lang.Integer.valueOf(value)
+}
+
+private class DoubleOperator(val identity: Double, reduction: (Double, Double) => Double, unary: Option[Double => Double] = None)
+        extends PaddedReduction[Double](unary) {
+    def operandType: Class[_] = classOf[java.lang.Double]
+    protected def op(a: Double, b: Double): Double = reduction(a, b)
+    protected def unbox(obj: AnyRef): Double = obj.asInstanceOf[java.lang.Double].doubleValue
+    protected def box(value: Double): AnyRef = java.lang.Double.valueOf(value)
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue}
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.pipe.{BatchInputPipe, BatchOutputPipe, CancellablePipe, OutputPipe}
+
+import scala.collection.JavaConverters._
+
+object ParallelCommandHandler {
+    private val LOGGER = Logger.getLogger(classOf[ParallelCommandHandler])
+
+    val NAME = "parallel"
+
+    /**
+     * The number of input objects given to a copy of the command at a time.
+     */
+    val CHUNK_SIZE = 256
+
+    private sealed trait Work
+    private case class Chunk(sequence: Int, objs: List[AnyRef]) extends Work
+    private case object Stop extends Work
+
+    private sealed trait Result
+    private case class Output(sequence: Int, objs: Seq[AnyRef]) extends Result
+    private case class Failure(exception: CommandExecutionException) extends Result
+}
+
+/**
+ * Runs several copies of a stateless command (see @StatelessCommand) on
+ * consecutive chunks of its input, concurrently, on the given StageExecutor:
+ * as wired from 'parallel N [-unordered] (command args...)'.
+ *
+ * Each copy executes once per chunk of input, as a fused command does,
+ * and its output for that chunk is collected. Ordered, the chunks' outputs
+ * are held in a reorder buffer until those of all earlier chunks have been
+ * pushed, so the output is as the command would have produced alone;
+ * unordered, each chunk's output is pushed as soon as it is complete. At most
+ * two chunks per copy are read ahead of the output.
+ *
+ * @param copies the copies of the command, each with its own (sub-command)
+ *               arguments; there must be at least one
+ * @param ordered whether output must be in the order of the input
+ * @param stageExecutor runs the copies
+ */
+class ParallelCommandHandler(val copies: List[CommandHandler], val ordered: Boolean, stageExecutor: StageExecutor)
+  extends CommandHandler(ParallelCommandHandler.NAME, None, copies.head.getInputPipePos, copies.head.getOutputPipePos, None) {
+
+    import ParallelCommandHandler._
+
+    @throws[CommandExecutionException]
+    def execute() {
+        val work = new LinkedBlockingQueue[Work]()
+        val results = new LinkedBlockingQueue[Result]()
+        val copiesEnded = new CountDownLatch(copies.size)
+        copies.zipWithIndex.foreach { case (copy, index) =>
+            stageExecutor.execute(new Runnable() {
+                def run() {
+                    val thread = Thread.currentThread()
+                    val previousThreadName = thread.getName
+                    thread.setName(copy.getName + "-" + index)
+                    try {
+                        runCopy(copy, work, results)
+                    } finally {
+                        thread.setName(previousThreadName)
+                        copiesEnded.countDown()
+                    }
+                }
+            })
+        }
+        try {
+            distributeAndCollect(work, results)
+        } finally {
+            copies.foreach { _ => work.put(Stop) }
+            copiesEnded.await()
+        }
+        // A copy can fail after every chunk's output has been collected -
+        // e.g. in its sub-commands, given no input at all.
+        results.asScala.collectFirst { case Failure(exception) => exception }.foreach(exception => throw exception)
+    }
+
+    // On the coordinating thread: read chunks of input for the copies, and
+    // push their output, until the input ends or the output is cancelled.
+    @throws[CommandExecutionException]
+    private def distributeAndCollect(work: LinkedBlockingQueue[Work], results: LinkedBlockingQueue[Result]) {
+        val maxChunksInFlight = 2 * copies.size
+        val reorderBuffer = scala.collection.mutable.Map[Int, Seq[AnyRef]]()
+        var chunksRead = 0
+        var chunksPushed = 0
+
+        def push(objs: Seq[AnyRef]) {
+            if (objs.nonEmpty) {
+                BatchOutputPipe.pushBatch(getOutputPipe, objs)
+            }
+            chunksPushed += 1
+        }
+
+        def collect(result: Result) {
+            result match {
+                case Failure(exception) =>
+                    throw exception
+                case Output(sequence, objs) if !ordered =>
+                    push(objs)
+                case Output(sequence, objs) =>
+                    reorderBuffer(sequence) = objs
+                    while (reorderBuffer.contains(chunksPushed)) {
+                        push(reorderBuffer.remove(chunksPushed).get)
+                    }
+            }
+        }
+
+        var chunk = BatchInputPipe.nextBatch(getInputPipe, CHUNK_SIZE)
+        while (chunk.nonEmpty && !CancellablePipe.isCancelled(getOutputPipe)) {
+            while (chunksRead - chunksPushed >= maxChunksInFlight) {
+                collect(results.take())
+            }
+            work.put(Chunk(chunksRead, chunk))
+            chunksRead += 1
+            chunk = BatchInputPipe.nextBatch(getInputPipe, CHUNK_SIZE)
+        }
+        LOGGER.debug("Input of " + chunksRead + " chunk(s) distributed to " + copies.size + " copies of " + copies.head.getName)
+        while (chunksPushed < chunksRead) {
+            collect(results.take())
+        }
+    }
+
+    // On a copy's thread: execute the copy on each chunk of work, until
+    // stopped. After a failure, further chunks are skipped, since the
+    // coordinator will stop at the first failure it collects.
+    private def runCopy(copy: CommandHandler, work: LinkedBlockingQueue[Work], results: LinkedBlockingQueue[Result]) {
+        val input = new FusedInputPipe()
+        val output = new CollectingOutputPipe()
+        copy.setInputPipe(input)
+        copy.setOutputPipe(output)
+        var failed = false
+        try {
+            copy.executeSubCommands()
+        } catch {
+            case e: CommandExecutionException =>
+                results.put(Failure(e))
+                failed = true
+        }
+        var next = work.take()
+        while (next != Stop) {
+            next match {
+                case Chunk(sequence, objs) if !failed =>
+                    input.load(objs)
+                    try {
+                        copy.execute()
+                        results.put(Output(sequence, output.take()))
+                    } catch {
+                        case e: CommandExecutionException =>
+                            results.put(Failure(e))
+                            failed = true
+                    }
+                case _ =>
+            }
+            next = work.take()
+        }
+    }
+
+    override def toString(): String = {
+        "<" + getInputPipe + " " + getName + (if (ordered) "" else " -unordered") + " " + copies.size + " " + copies.head + " >" + getOutputPipe
+    }
+}
+
+/**
+ * Collects the output of one execution of a copy of a parallel command; only
+ * ever used by the one thread.
+ */
+private class CollectingOutputPipe extends BatchOutputPipe {
+    private var objs = new scala.collection.mutable.ArrayBuffer[AnyRef]()
+
+    def push(obj: AnyRef) {
+        objs += obj
+    }
+
+    def pushBatch(batch: Seq[AnyRef]) {
+        objs ++= batch
+    }
+
+    def take(): Seq[AnyRef] = {
+        val taken = objs
+        objs = new scala.collection.mutable.ArrayBuffer[AnyRef]()
+        taken
+    }
+
+    def setTerminated() {
+    }
+}
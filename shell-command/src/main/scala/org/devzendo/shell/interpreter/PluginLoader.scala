@@ -31,15 +31,38 @@ object PluginLoader {
 class PluginLoader {
     @throws[ShellPluginException]
     def loadPluginsFromClasspath(propertiesResourcePath: String): List[ShellPlugin] = {
-        PluginLoader.LOGGER.debug("Loading plugins from properties at " + propertiesResourcePath)
+        val plugins = failingWithShellPluginException {
+            pluginClassNames(propertiesResourcePath).map(loadPlugin)
+        }
+        PluginLoader.LOGGER.debug("Returning " + plugins.size + " plugin(s)")
+        plugins
+    }
+
+    /**
+     * The class names of the plugins listed in the plugin descriptors at a
+     * resource path, without loading them.
+     */
+    @throws[ShellPluginException]
+    def loadPluginClassNamesFromClasspath(propertiesResourcePath: String): List[String] = {
+        failingWithShellPluginException {
+            pluginClassNames(propertiesResourcePath)
+        }
+    }
+
+    /**
+     * Load, and instantiate a plugin, given its class name.
+     */
+    @throws[ShellPluginException]
+    def loadPluginNamed(pluginClassName: String): ShellPlugin = {
+        failingWithShellPluginException {
+            loadPlugin(pluginClassName)
+        }
+    }
+
+    @throws[ShellPluginException]
+    private def failingWithShellPluginException[T](load: => T): T = {
         try {
-            val propertiesURLs = getPluginDescriptorURLs(propertiesResourcePath)
-            val plugins = propertiesURLs.map { propertiesURL =>
-                val properties = loadProperties(propertiesURL)
-                loadPlugins(properties)
-            }.flatten.toList
-            PluginLoader.LOGGER.debug("Returning " + plugins.size + " plugin(s)")
-            plugins
+            load
         } catch {
             case e: IOException =>
                 val warning = "Failure loading plugins: " + e.getMessage
@@ -49,6 +72,16 @@ class PluginLoader {
         }
     }
 
+    @throws[IOException]
+    private def pluginClassNames(propertiesResourcePath: String): List[String] = {
+        PluginLoader.LOGGER.debug("Loading plugins from properties at " + propertiesResourcePath)
+        val propertiesURLs = getPluginDescriptorURLs(propertiesResourcePath)
+        propertiesURLs.map { propertiesURL =>
+            // we can ignore the lhs
+            loadProperties(propertiesURL).values.map(_.toString)
+        }.flatten.toList
+    }
+
     /**
      * Given a resource path, return all URLs pointing to this on the current
      * classpath
@@ -64,16 +97,6 @@ class PluginLoader {
         Thread.currentThread().getContextClassLoader.getResources(resourcePath)
     }
 
-    @throws[IOException]
-    private def loadPlugins(properties: Map[String, String]): List[ShellPlugin] = {
-        val plugins = properties.map { entry =>
-            // we can ignore the lhs
-            val pluginClassName = entry._2.toString
-            loadPlugin(pluginClassName)
-        }
-        plugins.toList
-    }
-
     @throws[IOException]
     private def loadPlugin(pluginClassName: String): ShellPlugin = {
         if (pluginClassName == null || pluginClassName.trim().length() == 0) {
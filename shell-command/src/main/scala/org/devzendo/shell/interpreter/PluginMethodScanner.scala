@@ -17,24 +17,36 @@
 package org.devzendo.shell.interpreter
 
 import org.apache.log4j.Logger
-import java.lang.reflect.Method
+import java.lang.reflect.{Method, Modifier}
 import org.devzendo.shell.pipe.{InputPipe, OutputPipe}
-import org.devzendo.shell.plugin.{CommandName, CommandAlias, ShellPlugin}
+import org.devzendo.shell.plugin.{CommandName, CommandAlias, ShellPlugin, StatelessCommand}
 
 object PluginMethodScanner {
     private val LOGGER = Logger.getLogger(classOf[PluginMethodScanner])
     private val objectMethodNames = Set("getClass", "notify", "notifyAll",
         "wait", "equals", "hashCode", "toString")
     private val shellPluginMethodNames = Set("initialise")
+    val parameterTypes: List[Class[_]] = List(
+        classOf[java.util.List[_]],
+        classOf[scala.collection.immutable.List[_]],
+        classOf[InputPipe],
+        classOf[OutputPipe],
+        classOf[Log],
+        classOf[VariableRegistry],
+        classOf[CommandSetup])
 }
 
 class PluginMethodScanner {
     val methodAnalyser = new MethodAnalyser()
 
     def scanPluginMethods(shellPlugin: ShellPlugin): Map[String, AnalysedMethod] = {
-        val methods = shellPlugin.getClass.getMethods
-        PluginMethodScanner.LOGGER.debug("Scanning " + methods.length + " method(s) from class " + shellPlugin.getClass.getSimpleName)
-        val possiblePluginMethods = methods filter notObjectOrShellPluginMethodNames filter voidReturn filter validParameterTypes
+        scanPluginClass(shellPlugin.getClass)
+    }
+
+    def scanPluginClass(pluginClass: Class[_]): Map[String, AnalysedMethod] = {
+        val methods = pluginClass.getMethods
+        PluginMethodScanner.LOGGER.debug("Scanning " + methods.length + " method(s) from class " + pluginClass.getSimpleName)
+        val possiblePluginMethods = methods filter notObjectOrShellPluginMethodNames filter notStatic filter voidReturn filter validParameterTypes
 
         val namedAnalysedMethods = possiblePluginMethods.flatMap { (method: Method) =>
             PluginMethodScanner.LOGGER.debug("Considering method " + method)
@@ -78,34 +90,34 @@ class PluginMethodScanner {
             PluginMethodScanner.shellPluginMethodNames.contains(name))
     }
 
+    // e.g. the public static bodies of lambdas in the plugin
+    private def notStatic(method: Method): Boolean = {
+        !Modifier.isStatic(method.getModifiers)
+    }
+
     private def voidReturn(method: Method): Boolean = {
         method.getReturnType.toString.equals("void") // no other way to detect this?
     }
 
     private def validParameterTypes(method: Method): Boolean = {
-        method.getParameterTypes forall(c => {
-            c == classOf[java.util.List[_]] ||
-            c == classOf[scala.collection.immutable.List[_]] ||
-            c == classOf[InputPipe] ||
-            c == classOf[OutputPipe] ||
-            c == classOf[Log] ||
-            c == classOf[VariableRegistry]
-        })
+        method.getParameterTypes forall(c => PluginMethodScanner.parameterTypes.contains(c))
     }
 }
 
 class MethodAnalyser {
     def analyseMethod(method: Method): Option[AnalysedMethod] = {
         val analysedMethod = new AnalysedMethod(method)
+        analysedMethod.setStateless(method.isAnnotationPresent(classOf[StatelessCommand]))
         val parameterTypes = method.getParameterTypes
         if (parameterTypes.length == 0 ||
                 
-            (parameterTypes.length >= 1 && parameterTypes.length <= 5 &&
+            (parameterTypes.length >= 1 && parameterTypes.length <= 6 &&
              (optionalInput(analysedMethod, parameterTypes) &&
               optionalOutput(analysedMethod, parameterTypes) &&
               optionalArguments(analysedMethod, parameterTypes) &&
               optionalLog(analysedMethod, parameterTypes) &&
-              optionalVariableRegistry(analysedMethod, parameterTypes)
+              optionalVariableRegistry(analysedMethod, parameterTypes) &&
+              optionalSetup(analysedMethod, parameterTypes)
              ))) {
             Option(analysedMethod)
         } else {
@@ -144,6 +156,12 @@ class MethodAnalyser {
             (o: Option[Integer]) => analysedMethod.setVariableRegistryPosition(o))
     }
 
+    private def optionalSetup(analysedMethod: AnalysedMethod,
+            parameterTypes: Array[Class[_]]): Boolean = {
+        optionalParameter(parameterTypes, classOf[CommandSetup],
+            (o: Option[Integer]) => analysedMethod.setSetupPosition(o))
+    }
+
     private def optionalOutput(analysedMethod: AnalysedMethod,
             parameterTypes: Array[Class[_]]): Boolean = {
         optionalParameter(parameterTypes, classOf[OutputPipe], 
@@ -23,4 +23,10 @@ trait PluginRegistry {
     def loadAndRegisterPluginMethods(staticPlugins: List[ShellPlugin])
 
     def getPlugins: Set[ShellPlugin]
+
+    /**
+     * The names of the plugins whose commands are registered, but which
+     * haven't been loaded, since none of their commands have been used.
+     */
+    def getUnloadedPluginNames: Set[String]
 }
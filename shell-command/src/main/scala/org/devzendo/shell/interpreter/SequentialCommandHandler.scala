@@ -23,15 +23,16 @@ object SequentialCommandHandler {
 }
 
 
-class SequentialCommandHandler(listOfCommandHandlerLists: List[List[CommandHandler]]) extends CommandHandler("<block>", None, None, None, None) {
+class SequentialCommandHandler(listOfCommandHandlerLists: List[List[CommandHandler]], options: ExecutionOptions) extends CommandHandler("<block>", None, None, None, None) {
 
+    def this(listOfCommandHandlerLists: List[List[CommandHandler]]) = this(listOfCommandHandlerLists, ExecutionOptions())
 
     @throws[CommandExecutionException]
     def execute() {
         SequentialCommandHandler.LOGGER.debug("starting block execution")
         listOfCommandHandlerLists.foreach( (h: List[CommandHandler]) => {
             SequentialCommandHandler.LOGGER.debug("starting block handlers execution: " + h)
-            new ExecutionContainer(h).execute()
+            new ExecutionContainer(h, options).execute()
             SequentialCommandHandler.LOGGER.debug("ending block handlers execution: " + h)
         })
         SequentialCommandHandler.LOGGER.debug("ending block execution")
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.interpreter
+
+import java.util.concurrent.{Executor, ExecutorService, Executors}
+
+import org.apache.log4j.Logger
+
+/**
+ * The Executors that can run the stages of a pipeline concurrently. Each
+ * stage may block on its pipes until its neighbours run, so an Executor used
+ * here must never queue a stage behind another that hasn't finished.
+ */
+object StageExecutors {
+    private val LOGGER = Logger.getLogger(classOf[StageExecutor])
+
+    /**
+     * Runs each stage on a new platform thread.
+     */
+    object ThreadPerStage extends StageExecutor {
+        def execute(command: Runnable) {
+            new Thread(command).start()
+        }
+
+        override def toString = "platform"
+    }
+
+    /**
+     * Runs each stage on a new virtual thread, if this JVM has them (Java 21
+     * onwards); they're looked up reflectively so the shell still runs on
+     * older JVMs.
+     */
+    lazy val virtualThreads: Option[StageExecutor] = {
+        try {
+            val method = classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor")
+            val executorService = method.invoke(null).asInstanceOf[ExecutorService]
+            Some(new StageExecutor {
+                def execute(command: Runnable) {
+                    executorService.execute(command)
+                }
+
+                override def toString = "virtual"
+            })
+        } catch {
+            case e: NoSuchMethodException =>
+                LOGGER.debug("Virtual threads are not available in this JVM")
+                None
+            case e: Exception =>
+                LOGGER.debug("Virtual threads could not be used: " + e.getMessage, e)
+                None
+        }
+    }
+}
+
+/**
+ * Runs the stages of pipelines; see StageExecutors.
+ */
+trait StageExecutor extends Executor
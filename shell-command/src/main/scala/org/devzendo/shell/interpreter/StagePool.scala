@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.interpreter
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.log4j.Logger
+
+object StagePool {
+    private val LOGGER = Logger.getLogger(classOf[StagePool])
+
+    /**
+     * Stages spend most of their time blocked on their pipes, so allow
+     * several per processor.
+     */
+    def defaultWorkers: Int = Math.max(8, 4 * Runtime.getRuntime.availableProcessors())
+}
+
+/**
+ * A reusable pool of daemon worker threads for pipeline stages, named
+ * 'name-stage-N', so that running many pipelines doesn't create a thread per
+ * stage each time. Idle workers end after a minute.
+ *
+ * Stages are never queued: a stage waiting in a queue for a worker may be the
+ * very stage that the busy workers' stages are blocked on, which would
+ * deadlock the pipeline. Instead, when every worker is busy, the stage runs
+ * on a new overflow thread, 'name-overflow-N', that ends with it; a pipeline
+ * with more stages than workers still runs, just with some thread creation.
+ *
+ * @param name the name of the pool, used to name its threads
+ * @param workers the maximum number of worker threads kept for reuse
+ */
+class StagePool(val name: String, val workers: Int) extends StageExecutor {
+    import StagePool.LOGGER
+
+    if (workers < 1) {
+        throw new IllegalArgumentException("A StagePool must have at least 1 worker, not " + workers)
+    }
+
+    private val workerNumber = new AtomicInteger(0)
+    private val overflowNumber = new AtomicInteger(0)
+    private val activeOverflowThreads = new AtomicInteger(0)
+
+    private val threadFactory = new ThreadFactory {
+        def newThread(runnable: Runnable): Thread = {
+            val thread = new Thread(runnable, name + "-stage-" + workerNumber.incrementAndGet())
+            thread.setDaemon(true)
+            thread
+        }
+    }
+
+    private val overflowPolicy = new RejectedExecutionHandler {
+        def rejectedExecution(runnable: Runnable, executor: ThreadPoolExecutor) {
+            if (executor.isShutdown) {
+                throw new RejectedExecutionException("The " + name + " stage pool has been shut down")
+            }
+            val thread = new Thread(new Runnable {
+                def run() {
+                    try {
+                        runnable.run()
+                    } finally {
+                        activeOverflowThreads.decrementAndGet()
+                    }
+                }
+            }, name + "-overflow-" + overflowNumber.incrementAndGet())
+            LOGGER.debug("All " + workers + " workers busy; running stage on " + thread.getName)
+            thread.setDaemon(true)
+            activeOverflowThreads.incrementAndGet()
+            thread.start()
+        }
+    }
+
+    private val pool = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue[Runnable](), threadFactory, overflowPolicy)
+    pool.allowCoreThreadTimeOut(true)
+
+    def execute(command: Runnable) {
+        pool.execute(command)
+    }
+
+    def shutdown() {
+        pool.shutdown()
+    }
+
+    /** @return the number of workers currently running a stage */
+    def activeWorkers: Int = pool.getActiveCount
+
+    /** @return the number of worker threads, busy or idle */
+    def poolSize: Int = pool.getPoolSize
+
+    /** @return the number of stages waiting for a worker; always 0, see above */
+    def queueDepth: Int = pool.getQueue.size()
+
+    /** @return the number of stages currently running on overflow threads */
+    def activeOverflow: Int = activeOverflowThreads.get()
+
+    /** @return the number of overflow threads started */
+    def overflowStarted: Int = overflowNumber.get()
+
+    /** @return the number of stages run to completion by workers */
+    def completedStages: Long = pool.getCompletedTaskCount
+
+    /** @return the statistics above as 'name=value' strings */
+    def statistics: List[String] = List(
+        "workers=" + workers,
+        "poolSize=" + poolSize,
+        "activeWorkers=" + activeWorkers,
+        "queueDepth=" + queueDepth,
+        "activeOverflow=" + activeOverflow,
+        "overflowStarted=" + overflowStarted,
+        "completedStages=" + completedStages)
+
+    override def toString = "pool(" + name + ", " + workers + " workers)"
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.interpreter
+
+import java.lang.management.ManagementFactory
+
+/**
+ * The times taken by the phases of the shell's startup, up to its being
+ * ready to read its first statement, measured with System.nanoTime.
+ * Phases may be timed on several threads at once, as plugins are, and may
+ * be nested, as the initialisation of each plugin is within that of all of
+ * them.
+ *
+ * @param mainNanos the System.nanoTime at which main was entered
+ */
+class StartupTimes(val mainNanos: Long) {
+    def this() = this(System.nanoTime())
+
+    private case class Phase(name: String, startNanos: Long, var elapsedNanos: Option[Long])
+
+    private val phases = scala.collection.mutable.ArrayBuffer[Phase]()
+    private var readyNanos: Option[Long] = None
+
+    /**
+     * Time a phase of startup.
+     */
+    def time[T](name: String)(phase: => T): T = {
+        val started = Phase(name, System.nanoTime(), None)
+        synchronized {
+            phases += started
+        }
+        try {
+            phase
+        } finally {
+            val elapsed = System.nanoTime() - started.startNanos
+            synchronized {
+                started.elapsedNanos = Some(elapsed)
+            }
+        }
+    }
+
+    /**
+     * Record that startup is over; only the first call has any effect.
+     */
+    def ready() {
+        synchronized {
+            if (readyNanos.isEmpty) {
+                readyNanos = Some(System.nanoTime())
+            }
+        }
+    }
+
+    /**
+     * @return the phases timed so far, in the order they started, with the
+     * nanoseconds each took; None for any still running.
+     */
+    def getPhases: List[(String, Option[Long])] = synchronized {
+        phases.map(phase => (phase.name, phase.elapsedNanos)).toList
+    }
+
+    /**
+     * @return a line per phase, giving when it started relative to main,
+     * and how long it took, preceded by the time the JVM took to reach main,
+     * and followed by the total time to being ready.
+     */
+    def report: List[String] = synchronized {
+        val jvmNanos = ManagementFactory.getRuntimeMXBean.getUptime * 1000000L - (System.nanoTime() - mainNanos)
+        val lines = scala.collection.mutable.ListBuffer[String]()
+        lines += line(None, Some(jvmNanos), "JVM start to main")
+        for (phase <- phases) {
+            lines += line(Some(phase.startNanos - mainNanos), phase.elapsedNanos, phase.name)
+        }
+        lines += line(None, readyNanos.map(_ - mainNanos), "main to ready")
+        lines.toList
+    }
+
+    private def line(offsetNanos: Option[Long], elapsedNanos: Option[Long], name: String): String = {
+        def millis(nanos: Long) = "%9.3f ms".format(nanos / 1000000.0)
+        offsetNanos.map("+" + millis(_)).getOrElse(" " * 13) + " " +
+            elapsedNanos.map(millis).getOrElse("%12s".format("-")) + "  " + name
+    }
+}
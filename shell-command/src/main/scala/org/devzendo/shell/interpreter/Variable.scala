@@ -30,12 +30,24 @@ final class Variable {
         }
     }
 
+    def addAll(objs: Seq[AnyRef]) {
+        store.synchronized {
+            store ++= objs
+        }
+    }
+
     def get(index: Integer): AnyRef = {
         store.synchronized {
             store.apply(index)
         }
     }
 
+    def slice(from: Int, until: Int): List[AnyRef] = {
+        store.synchronized {
+            store.slice(from, until).toList
+        }
+    }
+
     def get: List[AnyRef] = {
         store.synchronized {
             store.toList
@@ -27,17 +27,47 @@ import org.devzendo.shell.ast.Command
 
 trait ExistenceChecker {
     def exists(name: String): Boolean
+
+    /**
+     * A number that changes whenever the commands that exist may have
+     * changed, or None if that can't be told, in which case parses can't be
+     * cached.
+     */
+    def version: Option[Long] = None
 }
 
 object CommandParser {
     private val LOGGER = Logger.getLogger(classOf[CommandParser])
+
+    val DEFAULT_CACHE_SIZE = 256
 }
 
-class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = false, analyser: SemanticAnalyser) {
+/**
+ * Parses input into Statements, caching the statements of up to cacheSize
+ * of the most recently parsed inputs, so that lines that are run repeatedly
+ * are only parsed once. Whether a word is a command affects the parse, so
+ * the cache is emptied whenever the ExistenceChecker's version changes.
+ * Cached statements are returned for each parse of the same input, so must
+ * not be modified.
+ *
+ * A CommandParser may be used by several threads at once.
+ */
+class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = false, analyser: SemanticAnalyser, cacheSize: Int) {
     import CommandParser.LOGGER;
 
+    def this(commandExists: ExistenceChecker, debugParser: Boolean, analyser: SemanticAnalyser) =
+        this(commandExists, debugParser, analyser, CommandParser.DEFAULT_CACHE_SIZE)
+
     private val LINE_SEPARATOR = System.getProperty("line.separator")
 
+    private val cache = new java.util.LinkedHashMap[String, List[Statement]](16, 0.75f, true) {
+        override def removeEldestEntry(eldest: java.util.Map.Entry[String, List[Statement]]): Boolean = size() > cacheSize
+    }
+    private var cacheVersion: Option[Long] = None
+    private var hits = 0L
+    private var misses = 0L
+    private var invalidations = 0L
+
     @throws(classOf[CommandParserException])
     def parse(inputLine: String): List[Statement] = {
         def sanitizedInput = nullToEmpty(inputLine).trim()
@@ -45,6 +75,10 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
             LOGGER.debug("parsing |" + sanitizedInput + "|")
         }
         if (sanitizedInput.size > 0) {
+            val version = commandExists.version
+            for (statements <- cached(sanitizedInput, version)) {
+                return statements
+            }
             val ccp = new StatementCombinatorParser()
             val parserOutput = ccp.parseProgram(sanitizedInput)
             parserOutput match {
@@ -56,6 +90,7 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
                         val astDescriptions: List[String] = rList.map(ast => ast.getClass.getSimpleName + " => " + ast)
                         LOGGER.debug("  " + astDescriptions.mkString(", "))
                     }
+                    store(sanitizedInput, version, rList)
                     return rList
                 }
                 case x => throw new CommandParserException(x.toString)
@@ -67,11 +102,79 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
         List(new CommandPipeline())
     }
 
+    private def cached(input: String, version: Option[Long]): Option[List[Statement]] = {
+        cache.synchronized {
+            if (version != cacheVersion) {
+                if (!cache.isEmpty) {
+                    invalidations += 1
+                }
+                cache.clear()
+                cacheVersion = version
+            }
+            val statements = if (version.isDefined) Option(cache.get(input)) else None
+            if (statements.isDefined) hits += 1 else misses += 1
+            statements
+        }
+    }
+
+    private def store(input: String, version: Option[Long], statements: List[Statement]) {
+        cache.synchronized {
+            // not if the commands changed during the parse
+            if (version.isDefined && version == cacheVersion && cacheSize > 0) {
+                cache.put(input, statements)
+            }
+        }
+    }
+
+    /** @return the number of parses answered from the cache */
+    def getCacheHits: Long = cache.synchronized { hits }
+
+    /** @return the number of parses not answered from the cache */
+    def getCacheMisses: Long = cache.synchronized { misses }
+
+    /** @return the cache statistics as 'name=value' strings */
+    def cacheStatistics: List[String] = cache.synchronized {
+        List(
+            "size=" + cache.size(),
+            "capacity=" + cacheSize,
+            "hits=" + hits,
+            "misses=" + misses,
+            "invalidations=" + invalidations)
+    }
+
     private def nullToEmpty(input: String): String = {
         if (input == null) "" else input
     }
 
+    // The alternatives below often re-parse the same input at the same
+    // position: infix and prefix commands both parse arguments, a
+    // parenthesised command is tried as an argument then as a command, and
+    // each kind of statement starts with literals. Without memoisation, the
+    // time taken grows exponentially with the depth of nesting, so the
+    // productions reached that way are memoised, packrat-style, and held in
+    // lazy vals so they're the same parser wherever they're referred to. The
+    // others aren't, as looking them up would cost more than parsing them
+    // again. A StatementCombinatorParser is used for a single parse.
     private class StatementCombinatorParser extends JavaTokenParsers {
+        // Remembers the result of p at each offset of the input; grammar
+        // here is not left-recursive, so p is never re-entered at an offset
+        // it's still parsing.
+        private def memoised[T](p: => Parser[T]): Parser[T] = {
+            lazy val parser = p
+            val results = new java.util.HashMap[Int, ParseResult[T]]()
+            Parser { in =>
+                val offset = in.offset
+                val result = results.get(offset)
+                if (result != null) {
+                    result
+                } else {
+                    val parsed = parser(in)
+                    results.put(offset, parsed)
+                    parsed
+                }
+            }
+        }
+
         def diag(s: String) = {
             println(s)
             true
@@ -92,7 +195,7 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
             )
 
 
-        def blockStatements: Parser[BlockStatements] = (
+        lazy val blockStatements: Parser[BlockStatements] = memoised((
                 "{" ~> statements <~ "}"
             ) ^^ {
             case statements =>
@@ -100,7 +203,7 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
                 val blockStatements = new BlockStatements()
                 blockStatements.setStatements(statements)
                 blockStatements
-        }
+        })
 
         def implicitEvalCommand: Parser[CommandPipeline] = literal ~ rep(literal) ^^ {
             case firstArgument ~ remainingArgumentList =>
@@ -140,15 +243,17 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
 
         def pipeline: Parser[CommandPipeline] = (
                 opt(variable <~ "=") ~
-                command ~ opt("<" ~> variable)
-              ~ opt("|" ~> repsep(command, "|"))
+                pipelineHead
+              ~ opt(pipelineTail)
               ~ opt(">" ~> variable) ~ opt(";") // ~ opt(LINE_SEPARATOR)
               ) ^? ({
-            case store ~ firstCommand ~ from ~ restCommandList ~ to ~ semi
-                if (! (store.isDefined && to.isDefined)) => {
+            case store ~ ((sources, firstCommand, from)) ~ tail ~ to ~ semi
+                if (! (store.isDefined && to.isDefined)) &&
+                   (! ((store.isDefined || to.isDefined) && tail.exists(_._2.nonEmpty))) => {
                     if (debugParser) LOGGER.debug("in pipeline")
                     val pipeline = new CommandPipeline()
-                    pipeline.addCommand(firstCommand)
+                    sources.foreach(pipeline.addSource)
+                    firstCommand.foreach(pipeline.addCommand)
                     if (store.isDefined) {
                         pipeline.setOutputVariable(store.get)
                     }
@@ -158,24 +263,68 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
                     if (to.isDefined) {
                         pipeline.setOutputVariable(to.get)
                     }
-                    if (restCommandList.isDefined) {
-                        pipeline.addCommands(restCommandList.get)
+                    if (tail.isDefined) {
+                        pipeline.addCommands(tail.get._1)
+                        tail.get._2.foreach(pipeline.addBranch)
                     }
                     pipeline
                 }
 
-            }, ( _ => "Use one of = and >, but not both" )
+            }, ( _ => "Use one of = and >, but not both, and neither with [branches]" )
+        )
+
+        // The start of a pipeline: either sources whose outputs are merged
+        // into its input, or its first command, optionally reading a variable.
+        def pipelineHead: Parser[(List[CommandPipeline], Option[Command], Option[VariableReference])] = (
+              rep1(source) ^^ ( sources => (sources, None, None) )
+            | command ~ opt("<" ~> variable) ^^ {
+                  case firstCommand ~ from => (List[CommandPipeline](), Some(firstCommand), from)
+              }
+        )
+
+        def source: Parser[CommandPipeline] = (
+                "[" ~> rep1sep(command, "|") <~ "]"
+              ) ^^ {
+            case commands =>
+                if (debugParser) LOGGER.debug("in source")
+                val pipeline = new CommandPipeline()
+                pipeline.addCommands(commands)
+                pipeline
+        }
+
+        // The rest of a pipeline: further commands, then optionally branches
+        // that each receive all its output.
+        def pipelineTail: Parser[(List[Command], List[CommandPipeline])] = (
+              fanOut ^^ ( branches => (List[Command](), branches) )
+            | ("|" ~> repsep(command, "|")) ~ opt(fanOut) ^^ {
+                  case commands ~ branches => (commands, branches.getOrElse(List[CommandPipeline]()))
+              }
         )
 
+        def fanOut: Parser[List[CommandPipeline]] = "|" ~> rep1(branch)
+
+        def branch: Parser[CommandPipeline] = (
+                "[" ~> rep1sep(command, "|") ~ opt(">" ~> variable) <~ "]"
+              ) ^^ {
+            case commands ~ to =>
+                if (debugParser) LOGGER.debug("in branch")
+                val pipeline = new CommandPipeline()
+                pipeline.addCommands(commands)
+                if (to.isDefined) {
+                    pipeline.setOutputVariable(to.get)
+                }
+                pipeline
+        }
+
         def commandVariant: Parser[Command] = (infixCommand | prefixCommand)
 
-        def command: Parser[Command] = (
+        lazy val command: Parser[Command] = memoised((
             commandVariant |
             ("(" ~> command <~ ")")
         ) ^^ ( x => {
             if (debugParser) LOGGER.debug("in command(" + x + ")")
             x
-        })
+        }))
 
         def infixCommand: Parser[Command] = argument ~ existingCommandName ~ rep(argument) ^^ {
             case firstArgument ~ name ~ remainingArgumentList =>
@@ -217,17 +366,17 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
             }, ( badCommand => "Command '" + badCommand + "' is not defined")
         )
 
-        def variable: Parser[VariableReference] = ident ^^ (x => {
+        lazy val variable: Parser[VariableReference] = memoised(ident ^^ (x => {
             if (debugParser) LOGGER.debug("in variable(" + x + ")")
             new VariableReference(x.toString)
-        })
+        }))
 
         def wholeIntegerNumber: Parser[String] = """-?\d+(?!\.)""".r ^^ ( x => {
             if (debugParser) LOGGER.debug("in wholeIntegerNumber(" + x + ")")
             x
         })
 
-        def argument: Parser[Any] = (
+        lazy val argument: Parser[Any] = memoised((
               literal
             | "(" ~> literal <~ ")"   // superfluous parenthesis but allows if (false) { ... } to be parsed as prefix
             | "(" ~> command <~ ")"
@@ -235,9 +384,9 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
             ) ^^ ( x => {
             if (debugParser) LOGGER.debug("in argument(" + x + ")")
             x
-        } )
+        } ))
 
-        def literal: Parser[Any] = (
+        lazy val literal: Parser[Any] = memoised((
                 "true" ^^^ true
               | "false" ^^^ false
               | "[-/]".r ~> ident ^^ ( x => new Switch(x.toString) )
@@ -248,7 +397,7 @@ class CommandParser(commandExists: ExistenceChecker, debugParser: Boolean = fals
               ) ^^ ( x => {
             if (debugParser) LOGGER.debug("in literal(" + x + ")")
             x
-        } )
+        } ))
         
         def parseProgram(input: String) = {
             parseAll(program, input)
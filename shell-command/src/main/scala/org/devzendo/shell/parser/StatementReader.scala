@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.parser
+
+import java.io.{IOException, BufferedReader, Reader}
+
+object StatementReader {
+    // A line ending in one of these continues on the next...
+    private val continuingEnds = Set('|', '=', '<')
+    // ...as does one followed by a line starting with one of these.
+    private val continuingStarts = Set('|', '{', '>', '[', '<')
+}
+
+/**
+ * Reads the statements of a script one at a time, so that each can be run
+ * as soon as it has been read, rather than once the whole script has been
+ * read and parsed.
+ *
+ * As with a line typed interactively, a statement ends at the end of its
+ * line (and several may share a line, separated by ';'), unless a bracket
+ * is still open there - as at the start of a multi-line {block} - in which
+ * case it continues until the bracket is closed. It also continues when its
+ * line ends with an operator needing more, such as '|' or '=', or the next
+ * non-blank line starts with one carrying it on, such as '|' or the '{' of
+ * an else-block; so a statement is only run once that next line is read.
+ */
+class StatementReader(reader: Reader) {
+    private val lineReader = reader match {
+        case buffered: BufferedReader => buffered
+        case _ => new BufferedReader(reader)
+    }
+    // a line read ahead to see whether it continues the statement before it
+    private var readAhead: Option[String] = None
+
+    /**
+     * @return the next statement, its lines joined with newlines, or None
+     * at the end of the script. An unclosed bracket at the end of the script
+     * ends the statement, leaving the parser to complain.
+     */
+    @throws[IOException]
+    def nextStatement: Option[String] = {
+        val statement = new StringBuilder()
+        var depth = 0
+        var line = readLine()
+        while (line != null) {
+            if (statement.nonEmpty) {
+                statement.append('\n')
+            }
+            statement.append(line)
+            depth = nesting(line, depth)
+            if (depth <= 0) {
+                val complete = statement.toString().trim()
+                if (complete.isEmpty) {
+                    statement.clear()
+                    depth = 0
+                } else if (!continuesAfter(line) && !continuesBefore(peekNonBlankLine())) {
+                    return Some(complete)
+                }
+            }
+            line = readLine()
+        }
+        val incomplete = statement.toString().trim()
+        if (incomplete.nonEmpty) Some(incomplete) else None
+    }
+
+    @throws[IOException]
+    def close() {
+        lineReader.close()
+    }
+
+    private def readLine(): String = {
+        readAhead match {
+            case Some(line) =>
+                readAhead = None
+                line
+            case None =>
+                lineReader.readLine()
+        }
+    }
+
+    // Blank lines before the next non-blank one are dropped; null at the
+    // end of the script.
+    private def peekNonBlankLine(): String = {
+        var line = readLine()
+        while (line != null && line.trim().isEmpty) {
+            line = lineReader.readLine()
+        }
+        readAhead = Option(line)
+        line
+    }
+
+    private def continuesAfter(line: String): Boolean = {
+        val trimmed = line.trim()
+        trimmed.nonEmpty && StatementReader.continuingEnds.contains(trimmed.last)
+    }
+
+    private def continuesBefore(line: String): Boolean = {
+        val trimmed = if (line == null) "" else line.trim()
+        trimmed.nonEmpty && StatementReader.continuingStarts.contains(trimmed.head)
+    }
+
+    // The depth of bracket nesting at the end of the line, given that at its
+    // start. Brackets in string literals, which can't span lines, don't count.
+    private def nesting(line: String, depthAtStart: Int): Int = {
+        var depth = depthAtStart
+        var inString = false
+        var i = 0
+        while (i < line.length) {
+            line.charAt(i) match {
+                case '\\' if inString => i += 1
+                case '"' => inString = !inString
+                case '(' | '[' | '{' if !inString => depth += 1
+                case ')' | ']' | '}' if !inString => depth -= 1
+                case _ =>
+            }
+            i += 1
+        }
+        depth
+    }
+}
@@ -23,7 +23,7 @@ import org.devzendo.shell.interpreter.Variable
  * enclosing command (as a Variable that can be directly 'got' from, rather than
  * as their input pipe).
  */
-class AnonymousVariablePipe extends OutputPipe {
+class AnonymousVariablePipe extends BatchOutputPipe {
     val contents = new Variable()
     private val outputPipe = new VariableOutputPipe(contents)
 
@@ -34,4 +34,8 @@ class AnonymousVariablePipe extends OutputPipe {
     def push(obj: AnyRef) {
         outputPipe.push(obj)
     }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        outputPipe.pushBatch(objs)
+    }
 }
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.pipe
+
+object BatchInputPipe {
+    /**
+     * The number of objects a command asks for, or pushes, at once when
+     * moving data through pipes in batches.
+     */
+    val DEFAULT_BATCH_SIZE = 64
+
+    /**
+     * Obtain the next batch of objects from any InputPipe. Pipes that only
+     * know how to deliver a single object at a time are adapted, returning a
+     * batch of at most one object.
+     * @param inputPipe the pipe to read from
+     * @param maxSize the maximum number of objects to return
+     * @return the next batch; empty at the end of the stream
+     */
+    def nextBatch(inputPipe: InputPipe, maxSize: Int): List[AnyRef] = inputPipe match {
+        case batchPipe: BatchInputPipe => batchPipe.nextBatch(maxSize)
+        case _ => inputPipe.next().toList
+    }
+}
+
+/**
+ * An InputPipe that can deliver several objects per call, so that any
+ * synchronisation is paid once per batch rather than once per object.
+ */
+trait BatchInputPipe extends InputPipe {
+    /**
+     * Block until at least one object is available, then return it along with
+     * up to maxSize - 1 further objects that are available without blocking.
+     * @param maxSize the maximum number of objects to return, >= 1
+     * @return the next batch; empty at the end of the stream
+     */
+    def nextBatch(maxSize: Int): List[AnyRef]
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.pipe
+
+object BatchOutputPipe {
+    /**
+     * Push a batch of objects into any OutputPipe. Pipes that only know how
+     * to accept a single object at a time have each object pushed in turn.
+     * @param outputPipe the pipe to push into
+     * @param objs the objects to push, in order
+     */
+    def pushBatch(outputPipe: OutputPipe, objs: Seq[AnyRef]) {
+        outputPipe match {
+            case batchPipe: BatchOutputPipe => batchPipe.pushBatch(objs)
+            case _ => objs.foreach(outputPipe.push)
+        }
+    }
+}
+
+/**
+ * An OutputPipe that can accept several objects per call, so that any
+ * synchronisation is paid once per batch rather than once per object.
+ */
+trait BatchOutputPipe extends OutputPipe {
+    /**
+     * Push all the objects, in order, blocking as push() would.
+     * @param objs the objects to push
+     */
+    def pushBatch(objs: Seq[AnyRef])
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.pipe
+
+import java.util.concurrent.locks.ReentrantLock
+
+import org.apache.log4j.Logger
+
+object BlockingPipe {
+    private val LOGGER = Logger.getLogger(classOf[BlockingPipe])
+
+    // Placed in the buffer after the writer's last object; never returned.
+    private object EndOfStream
+}
+
+/**
+ * A bounded pipe in which the pusher blocks while the buffer is full, and the
+ * receiver blocks while it is empty.
+ *
+ * Termination is in-band: setEndOfStream() queues an end-of-stream marker
+ * behind the objects already pushed, so the receiver drains them and then
+ * gets None. cancel() discards the buffer and wakes any blocked pusher, whose
+ * pushes are then discarded. Nothing is ever interrupted, so plugin code
+ * doing interruptible I/O is unaffected by the termination of its pipes.
+ *
+ * @param capacity the maximum number of objects buffered, must be >= 1
+ */
+abstract class BlockingPipe(val capacity: Int) extends BatchInputPipe with BatchOutputPipe with CancellablePipe {
+    import BlockingPipe.{LOGGER, EndOfStream}
+
+    if (capacity < 1) {
+        throw new IllegalArgumentException("A " + getClass.getSimpleName + " must have a capacity of at least 1, not " + capacity)
+    }
+
+    private val lock = new ReentrantLock()
+    private val notEmpty = lock.newCondition()
+    private val notFull = lock.newCondition()
+    // objects pushed, possibly followed by EndOfStream (which may exceed capacity)
+    private val buffer = new java.util.ArrayDeque[AnyRef](capacity + 1)
+    private var endOfStream = false
+    @volatile private var cancelled = false
+    // called once, by the first push to find the buffer full
+    private var overflowHandler: Option[() => Unit] = None
+
+    def setTerminated() {
+        setEndOfStream()
+    }
+
+    def setEndOfStream() {
+        lock.lock()
+        try {
+            if (!endOfStream) {
+                LOGGER.debug("End of stream in " + this)
+                endOfStream = true
+                buffer.addLast(EndOfStream)
+                notEmpty.signalAll()
+                // a pusher other than the writer may be blocked
+                notFull.signalAll()
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    def cancel() {
+        lock.lock()
+        try {
+            LOGGER.debug("Cancelling " + this)
+            cancelled = true
+            buffer.clear()
+            notEmpty.signalAll()
+            notFull.signalAll()
+        } finally {
+            lock.unlock()
+        }
+        notifyCancelled()
+    }
+
+    def isCancelled: Boolean = cancelled
+
+    /**
+     * Arrange for a handler to be called the first time a push finds the
+     * buffer full, before the pusher blocks. The handler is called once, on
+     * the pushing thread, with the pipe's lock held; it may start the
+     * receiver, but must not push to or receive from this pipe itself.
+     *
+     * @param handler called on the first overflow
+     */
+    def setOverflowHandler(handler: () => Unit) {
+        lock.lock()
+        try {
+            overflowHandler = Some(handler)
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    def push(obj: AnyRef) {
+        lock.lock()
+        try {
+            if (awaitSpace()) {
+                buffer.addLast(obj)
+                notEmpty.signal()
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        lock.lock()
+        try {
+            val it = objs.iterator
+            while (it.hasNext && awaitSpace()) {
+                while (buffer.size < capacity && it.hasNext) {
+                    buffer.addLast(it.next())
+                }
+                notEmpty.signal()
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    // With the lock held, wait until there's space for a push; false if the
+    // push is to be discarded since the pipe has ended or been cancelled.
+    private def awaitSpace(): Boolean = {
+        if (buffer.size >= capacity && !endOfStream && !cancelled) {
+            overflowHandler.foreach { handler =>
+                overflowHandler = None
+                handler()
+            }
+        }
+        while (!endOfStream && !cancelled && buffer.size >= capacity) {
+            notFull.awaitUninterruptibly()
+        }
+        if (endOfStream || cancelled) {
+            LOGGER.debug("Pipe ended or cancelled; not pushing data")
+            false
+        } else {
+            true
+        }
+    }
+
+    def next(): Option[AnyRef] = {
+        lock.lock()
+        try {
+            if (!awaitData()) {
+                None
+            } else {
+                val obj = buffer.pollFirst()
+                notFull.signal()
+                Some(obj)
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    def nextBatch(maxSize: Int): List[AnyRef] = {
+        lock.lock()
+        try {
+            if (!awaitData()) {
+                Nil
+            } else {
+                val batch = scala.collection.mutable.ListBuffer[AnyRef]()
+                while (batch.size < maxSize && !buffer.isEmpty && (buffer.peekFirst() ne EndOfStream)) {
+                    batch += buffer.pollFirst()
+                }
+                notFull.signal()
+                batch.toList
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    // With the lock held, wait until there's an object to return; false at
+    // the end of the stream (the marker stays put for subsequent calls) or on
+    // cancellation.
+    private def awaitData(): Boolean = {
+        while (buffer.isEmpty && !cancelled) {
+            notEmpty.awaitUninterruptibly()
+        }
+        !cancelled && (buffer.peekFirst() ne EndOfStream)
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.pipe
+
+/**
+ * A pipe that can hold up to 'capacity' objects before the pushing thread
+ * blocks, so that producer and consumer only hand off to each other when the
+ * buffer fills or empties, rather than on every object as with the
+ * RendezvousPipe.
+ *
+ * @param capacity the maximum number of objects buffered, must be >= 1
+ */
+class BufferedPipe(capacity: Int) extends BlockingPipe(capacity)
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.pipe
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicBoolean
+
+object CancellablePipe {
+    /**
+     * @param pipe any pipe
+     * @return true iff the pipe is cancellable, and its reader has cancelled
+     * it; producers poll this to stop producing output no-one will read.
+     */
+    def isCancelled(pipe: Pipe): Boolean = pipe match {
+        case cancellable: CancellablePipe => cancellable.isCancelled
+        case _ => false
+    }
+
+    /**
+     * Register a listener to be called when the pipe is cancelled, if it can
+     * be.
+     *
+     * @param pipe any pipe
+     * @param listener called once, on cancellation
+     */
+    def onCancel(pipe: Pipe, listener: () => Unit) {
+        pipe match {
+            case cancellable: CancellablePipe => cancellable.onCancel(listener)
+            case _ =>
+        }
+    }
+}
+
+/**
+ * A pipe whose two ends can be finished with independently, without
+ * interrupting the thread at the other end.
+ *
+ * When the writer has finished, it marks the end of the stream: the reader
+ * still receives everything pushed before that, then sees the end of the
+ * stream. When the reader has finished (perhaps early, as with 'head'), it
+ * cancels the pipe: anything buffered is discarded, further pushes are
+ * discarded without blocking, and the writer can poll isCancelled to stop
+ * producing, or register with onCancel to be told.
+ *
+ * setTerminated() remains for callers that don't know which end they are;
+ * it behaves as setEndOfStream().
+ */
+trait CancellablePipe extends Pipe {
+    /**
+     * Called by the writer when it will push no more objects.
+     */
+    def setEndOfStream()
+
+    /**
+     * Called by the reader when it will read no more objects.
+     */
+    def cancel()
+
+    /**
+     * @return true iff the reader has cancelled the pipe
+     */
+    def isCancelled: Boolean
+
+    private val cancelListeners = new CopyOnWriteArrayList[() => Unit]()
+
+    /**
+     * Register a listener to be called once, on the cancelling thread, when
+     * the reader cancels the pipe; if it has already done so, the listener is
+     * called now, on this thread.
+     *
+     * @param listener called on cancellation
+     */
+    def onCancel(listener: () => Unit) {
+        val once = new AtomicBoolean(false)
+        val onceListener = () => if (once.compareAndSet(false, true)) listener()
+        cancelListeners.add(onceListener)
+        if (isCancelled) {
+            onceListener()
+        }
+    }
+
+    /**
+     * Called by implementations once they have been cancelled, to notify the
+     * listeners registered with onCancel.
+     */
+    protected def notifyCancelled() {
+        val listeners = cancelListeners.iterator()
+        while (listeners.hasNext) {
+            listeners.next()()
+        }
+    }
+}
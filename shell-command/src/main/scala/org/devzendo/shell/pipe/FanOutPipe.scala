@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.pipe
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.log4j.Logger
+
+object FanOutPipe {
+    private val LOGGER = Logger.getLogger(classOf[FanOutPipe])
+}
+
+/**
+ * Broadcasts every object pushed into it to each of several branch pipes,
+ * each read by its own downstream pipeline. With branches that buffer (such
+ * as BufferedPipes), a slow branch only holds up the others once its buffer
+ * is full.
+ *
+ * Ending the stream ends that of every branch. Cancellation of a branch
+ * stops pushes to it; the fan-out is cancelled, so its writer can stop, once
+ * every branch is.
+ *
+ * @param branches the pipes to broadcast to
+ */
+class FanOutPipe(val branches: List[OutputPipe]) extends BatchOutputPipe with CancellablePipe {
+    import FanOutPipe.LOGGER
+
+    private val activeBranches = new AtomicInteger(branches.size)
+    @volatile private var cancelled = false
+
+    branches.foreach { (branch: OutputPipe) =>
+        CancellablePipe.onCancel(branch, () => {
+            if (activeBranches.decrementAndGet() == 0) {
+                LOGGER.debug("All branches cancelled")
+                cancel()
+            }
+        })
+    }
+
+    def push(obj: AnyRef) {
+        branches.foreach { (branch: OutputPipe) =>
+            if (!CancellablePipe.isCancelled(branch)) {
+                branch.push(obj)
+            }
+        }
+    }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        branches.foreach { (branch: OutputPipe) =>
+            if (!CancellablePipe.isCancelled(branch)) {
+                BatchOutputPipe.pushBatch(branch, objs)
+            }
+        }
+    }
+
+    def setTerminated() {
+        setEndOfStream()
+    }
+
+    def setEndOfStream() {
+        branches.foreach {
+            case cancellable: CancellablePipe => cancellable.setEndOfStream()
+            case branch => branch.setTerminated()
+        }
+    }
+
+    def cancel() {
+        if (!cancelled) {
+            cancelled = true
+            notifyCancelled()
+        }
+    }
+
+    def isCancelled: Boolean = cancelled
+
+    override def toString = "FanOutPipe(" + branches.mkString(", ") + ")"
+}
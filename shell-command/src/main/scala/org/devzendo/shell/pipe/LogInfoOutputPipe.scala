@@ -27,12 +27,16 @@ object LogInfoOutputPipe {
  * @author matt
  *
  */
-class LogInfoOutputPipe extends OutputPipe {
+class LogInfoOutputPipe extends BatchOutputPipe {
 
     def push(obj: AnyRef) {
         LogInfoOutputPipe.LOGGER.info(obj)
     }
 
+    def pushBatch(objs: Seq[AnyRef]) {
+        objs.foreach((obj: AnyRef) => LogInfoOutputPipe.LOGGER.info(obj))
+    }
+
     def setTerminated() {
         // do nothing
     }
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.pipe
+
+import java.util.concurrent.locks.ReentrantLock
+
+import org.apache.log4j.Logger
+import org.devzendo.shell.interpreter.Indexed
+
+object MergeInputPipe {
+    private val LOGGER = Logger.getLogger(classOf[MergeInputPipe])
+
+    /**
+     * The number of objects each upstream can push before it blocks,
+     * waiting for the reader.
+     */
+    val DEFAULT_LANE_CAPACITY = 256
+
+    /**
+     * How the reader chooses the lane to take its next object from.
+     */
+    sealed abstract class Mode(val name: String) {
+        override def toString = name
+
+        /** what objects are ordered by, if they are */
+        def key(obj: AnyRef): AnyRef = obj
+    }
+    /** whichever lane has an object, fairly */
+    case object Interleaved extends Mode("interleaved")
+    /** each lane in turn, skipping those that have ended */
+    case object RoundRobin extends Mode("roundRobin")
+    /** the least first object of all lanes, each of which must be sorted */
+    case object Sorted extends Mode("sorted")
+    /**
+     * as Sorted, by the numbered element (from 1) of each object: of a list,
+     * or of an Indexed object, such as a filterRegex match, whose elements are
+     * its capture groups. An object without that element is its own key.
+     */
+    case class SortedBy(element: Int) extends Mode("sorted") {
+        override def toString = name + " " + element
+
+        override def key(obj: AnyRef): AnyRef = {
+            val keyElement = obj match {
+                case indexed: Indexed => indexed.element(element)
+                case list: java.util.List[AnyRef @unchecked] => if (element <= list.size) Option(list.get(element - 1)) else None
+                case seq: Seq[AnyRef @unchecked] => seq.lift(element - 1)
+                case _ => None
+            }
+            keyElement.getOrElse(obj)
+        }
+    }
+
+    val modes = List(Interleaved, RoundRobin, Sorted)
+
+    def mode(name: String): Option[Mode] = modes.find(_.name == name)
+
+    // Objects of the same Comparable class in their natural order, anything
+    // else by their string forms.
+    private object KeyOrdering extends Ordering[AnyRef] {
+        def compare(x: AnyRef, y: AnyRef): Int = (x, y) match {
+            case (cx: Comparable[AnyRef] @unchecked, _) if x.getClass == y.getClass => cx.compareTo(y)
+            case _ => x.toString.compareTo(y.toString)
+        }
+    }
+
+    // what a reader can do next, without waiting
+    private sealed trait Poll
+    private case class Taken(obj: AnyRef) extends Poll
+    private case object AllEnded extends Poll
+    private case object MustWait extends Poll
+}
+
+/**
+ * Merges the output of several upstream pipelines, each pushing into its own
+ * lane concurrently, into the one input stream, chosen according to the
+ * Mode. The stream ends when every lane's has; cancelling it cancels every
+ * lane, so each upstream can stop.
+ *
+ * @param laneCount the number of upstream pipelines
+ * @param mode how the next object is chosen
+ * @param laneCapacity the number of objects each lane buffers, >= 1
+ */
+class MergeInputPipe(laneCount: Int, val mode: MergeInputPipe.Mode, laneCapacity: Int) extends BatchInputPipe with CancellablePipe {
+    import MergeInputPipe._
+
+    if (laneCapacity < 1) {
+        throw new IllegalArgumentException("A MergeInputPipe must have a lane capacity of at least 1, not " + laneCapacity)
+    }
+
+    def this(laneCount: Int, mode: MergeInputPipe.Mode) = this(laneCount, mode, MergeInputPipe.DEFAULT_LANE_CAPACITY)
+
+    // One lock and condition for all lanes: signalled whenever an object is
+    // pushed or taken, or a lane ends or is cancelled.
+    private val lock = new ReentrantLock()
+    private val changed = lock.newCondition()
+    @volatile private var cancelled = false
+    // the lane to look at first, for fairness
+    private var turn = 0
+
+    /**
+     * The pipes the upstream pipelines push into.
+     */
+    val lanes: List[Lane] = List.tabulate(laneCount)(new Lane(_))
+
+    class Lane(val index: Int) extends BatchOutputPipe with CancellablePipe {
+        private[MergeInputPipe] val buffer = new java.util.ArrayDeque[AnyRef](laneCapacity)
+        private[MergeInputPipe] var ended = false
+        @volatile private var laneCancelled = false
+
+        def push(obj: AnyRef) {
+            pushBatch(List(obj))
+        }
+
+        def pushBatch(objs: Seq[AnyRef]) {
+            lock.lock()
+            try {
+                val it = objs.iterator
+                while (it.hasNext && !ended && !laneCancelled) {
+                    while (buffer.size >= laneCapacity && !laneCancelled) {
+                        changed.awaitUninterruptibly()
+                    }
+                    if (!laneCancelled) {
+                        buffer.addLast(it.next())
+                        changed.signalAll()
+                    }
+                }
+            } finally {
+                lock.unlock()
+            }
+        }
+
+        def setTerminated() {
+            setEndOfStream()
+        }
+
+        def setEndOfStream() {
+            lock.lock()
+            try {
+                ended = true
+                changed.signalAll()
+            } finally {
+                lock.unlock()
+            }
+        }
+
+        def cancel() {
+            lock.lock()
+            try {
+                laneCancelled = true
+                ended = true
+                buffer.clear()
+                changed.signalAll()
+            } finally {
+                lock.unlock()
+            }
+            notifyCancelled()
+        }
+
+        def isCancelled: Boolean = laneCancelled
+
+        override def toString = "MergeInputPipe.Lane(" + index + ")"
+    }
+
+    def next(): Option[AnyRef] = {
+        lock.lock()
+        try {
+            awaitPoll() match {
+                case Taken(obj) => Some(obj)
+                case _ => None
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    def nextBatch(maxSize: Int): List[AnyRef] = {
+        lock.lock()
+        try {
+            awaitPoll() match {
+                case Taken(first) =>
+                    val batch = List.newBuilder[AnyRef]
+                    batch += first
+                    var size = 1
+                    var more = true
+                    while (more && size < maxSize) {
+                        poll() match {
+                            case Taken(obj) =>
+                                batch += obj
+                                size += 1
+                            case _ =>
+                                more = false
+                        }
+                    }
+                    batch.result()
+                case _ =>
+                    Nil
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    // With the lock held, wait until an object can be taken, or all lanes
+    // have ended.
+    private def awaitPoll(): Poll = {
+        var polled = poll()
+        while (polled == MustWait) {
+            changed.awaitUninterruptibly()
+            polled = poll()
+        }
+        polled
+    }
+
+    // With the lock held, take the next object if the mode allows it.
+    private def poll(): Poll = {
+        if (cancelled) {
+            return AllEnded
+        }
+        val polled = mode match {
+            case Interleaved =>
+                val ready = (0 until laneCount).map(i => lanes((turn + i) % laneCount)).find(!_.buffer.isEmpty)
+                ready match {
+                    case Some(lane) => take(lane)
+                    case None => if (lanes.forall(_.ended)) AllEnded else MustWait
+                }
+            case RoundRobin =>
+                val live = (0 until laneCount).map(i => lanes((turn + i) % laneCount)).find(lane => !lane.buffer.isEmpty || !lane.ended)
+                live match {
+                    case Some(lane) if !lane.buffer.isEmpty => take(lane)
+                    case Some(lane) =>
+                        turn = lane.index // its turn; wait for it
+                        MustWait
+                    case None => AllEnded
+                }
+            case Sorted | SortedBy(_) =>
+                if (lanes.exists(lane => lane.buffer.isEmpty && !lane.ended)) {
+                    MustWait
+                } else {
+                    lanes.filterNot(_.buffer.isEmpty) match {
+                        case Nil => AllEnded
+                        case ready => take(ready.reduceLeft((a, b) =>
+                            if (KeyOrdering.compare(mode.key(b.buffer.peekFirst), mode.key(a.buffer.peekFirst)) < 0) b else a))
+                    }
+                }
+        }
+        polled
+    }
+
+    private def take(lane: Lane): Poll = {
+        turn = (lane.index + 1) % laneCount
+        val obj = lane.buffer.pollFirst()
+        changed.signalAll()
+        Taken(obj)
+    }
+
+    def setTerminated() {
+        setEndOfStream()
+    }
+
+    def setEndOfStream() {
+        lanes.foreach(_.setEndOfStream())
+    }
+
+    def cancel() {
+        LOGGER.debug("Cancelling all lanes of " + this)
+        cancelled = true
+        lanes.foreach(_.cancel())
+        notifyCancelled()
+    }
+
+    def isCancelled: Boolean = cancelled
+
+    override def toString = "MergeInputPipe(" + mode + ", " + laneCount + " lanes)"
+}
@@ -21,10 +21,12 @@ package org.devzendo.shell.pipe
  * @author matt
  *
  */
-class NullInputPipe extends InputPipe {
+class NullInputPipe extends BatchInputPipe {
     // TODO can't this be an object?
     def next() = None
 
+    def nextBatch(maxSize: Int): List[AnyRef] = Nil
+
     def setTerminated() {
         // do nothing
     }
@@ -21,11 +21,15 @@ package org.devzendo.shell.pipe
  * @author matt
  *
  */
-class NullOutputPipe extends OutputPipe {
+class NullOutputPipe extends BatchOutputPipe {
     def push(obj: AnyRef) {
         // do nothing
     }
 
+    def pushBatch(objs: Seq[AnyRef]) {
+        // do nothing
+    }
+
     def setTerminated() {
         // do nothing
     }
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.pipe
+
+/**
+ * Creates the pipes that connect the output of one command in a pipeline to
+ * the input of the next.
+ */
+trait PipeFactory {
+    def createPipe(): InputPipe with OutputPipe
+}
+
+/**
+ * Connects commands with single-slot RendezvousPipes; every object pushed is
+ * handed directly from the producing thread to the consuming thread.
+ */
+object RendezvousPipeFactory extends PipeFactory {
+    def createPipe(): InputPipe with OutputPipe = new RendezvousPipe()
+
+    override def toString = "rendezvous"
+}
+
+/**
+ * Connects commands with BufferedPipes of a given capacity.
+ * @param capacity the number of objects each pipe may buffer
+ */
+case class BufferedPipeFactory(capacity: Int) extends PipeFactory {
+    def createPipe(): InputPipe with OutputPipe = new BufferedPipe(capacity)
+
+    override def toString = "buffered(" + capacity + ")"
+}
+
+/**
+ * Connects commands with lock-free RingBufferPipes of a given capacity.
+ * @param capacity the minimum number of objects each pipe may buffer
+ */
+case class RingBufferPipeFactory(capacity: Int) extends PipeFactory {
+    def createPipe(): InputPipe with OutputPipe = new RingBufferPipe(capacity)
+
+    override def toString = "ring(" + capacity + ")"
+}
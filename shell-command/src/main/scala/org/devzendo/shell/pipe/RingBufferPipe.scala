@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.shell.pipe
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+import org.apache.log4j.Logger
+
+object RingBufferPipe {
+    private val LOGGER = Logger.getLogger(classOf[RingBufferPipe])
+
+    private def powerOfTwoAtLeast(n: Int): Int = {
+        if (n < 1) {
+            throw new IllegalArgumentException("A RingBufferPipe must have a capacity of at least 1, not " + n)
+        }
+        if (n > (1 << 30)) {
+            throw new IllegalArgumentException("A RingBufferPipe cannot have a capacity of " + n)
+        }
+        Math.max(1, Integer.highestOneBit(n - 1) << 1)
+    }
+}
+
+/**
+ * A lock-free pipe for exactly one pushing thread and one receiving thread.
+ *
+ * Objects are held in a ring buffer indexed by two ever-increasing counters:
+ * 'tail', only written by the pusher, and 'head', only written by the
+ * receiver. A slot is written before the tail that publishes it, and cleared
+ * before the head that frees it, so neither side ever needs a lock. A thread
+ * only parks when the buffer is full (pusher) or empty (receiver); it
+ * advertises itself in a volatile field before re-checking the counters, and
+ * the other side unparks it after moving its own counter.
+ *
+ * Termination is as for the BufferedPipe: objects pushed before the end of
+ * the stream are still received, pushes after it or after cancellation are
+ * discarded, and threads parked in push() or next() are woken. No thread is
+ * ever interrupted, and, as with Condition.awaitUninterruptibly, a thread
+ * interrupted while parked carries on waiting, its interrupt status being
+ * restored once it stops.
+ *
+ * @param requestedCapacity the minimum number of objects buffered; rounded up
+ *                          to a power of two
+ */
+class RingBufferPipe(requestedCapacity: Int) extends BatchInputPipe with BatchOutputPipe with CancellablePipe {
+    import RingBufferPipe.LOGGER
+
+    val capacity: Int = RingBufferPipe.powerOfTwoAtLeast(requestedCapacity)
+    private val mask = capacity - 1
+    private val buffer = new Array[AnyRef](capacity)
+    // next slot to be read; written only by the receiver
+    private val head = new AtomicLong(0)
+    // next slot to be written; written only by the pusher
+    private val tail = new AtomicLong(0)
+    @volatile private var terminated = false
+    @volatile private var cancelled = false
+    @volatile private var parkedReceiver: Thread = null
+    @volatile private var parkedPusher: Thread = null
+
+    def setTerminated() {
+        setEndOfStream()
+    }
+
+    def setEndOfStream() {
+        LOGGER.debug("End of stream in the RingBufferPipe")
+        terminated = true
+        wake(parkedReceiver)
+        wake(parkedPusher)
+    }
+
+    def cancel() {
+        LOGGER.debug("Cancelling the RingBufferPipe")
+        cancelled = true
+        setEndOfStream()
+        notifyCancelled()
+    }
+
+    def isCancelled: Boolean = cancelled
+
+    private def wake(thread: Thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread)
+        }
+    }
+
+    def push(obj: AnyRef) {
+        val t = tail.get()
+        if (!awaitSpace(t)) {
+            return
+        }
+        buffer((t & mask).toInt) = obj
+        tail.set(t + 1)
+        wake(parkedReceiver)
+    }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        val it = objs.iterator
+        while (it.hasNext) {
+            val t = tail.get()
+            if (!awaitSpace(t)) {
+                return
+            }
+            // fill all the free slots, then publish them together
+            val free = capacity - (t - head.get()).toInt
+            var written = 0
+            while (written < free && it.hasNext) {
+                buffer(((t + written) & mask).toInt) = it.next()
+                written += 1
+            }
+            tail.set(t + written)
+            wake(parkedReceiver)
+        }
+    }
+
+    // Wait until slot t is free; false if the pipe is terminated meanwhile.
+    private def awaitSpace(t: Long): Boolean = {
+        var interrupted = false
+        try {
+            while (true) {
+                if (terminated) {
+                    LOGGER.debug("Pipe terminated; not pushing data")
+                    return false
+                }
+                if (t - head.get() < capacity) {
+                    return true
+                }
+                parkedPusher = Thread.currentThread()
+                if (t - head.get() >= capacity && !terminated) {
+                    LockSupport.park(this)
+                }
+                parkedPusher = null
+                // cleared, else park would return at once from now on
+                interrupted |= Thread.interrupted()
+            }
+            false
+        } finally {
+            restoreInterrupt(interrupted)
+        }
+    }
+
+    def next(): Option[AnyRef] = {
+        val h = head.get()
+        if (!awaitData(h)) {
+            return None
+        }
+        val index = (h & mask).toInt
+        val obj = buffer(index)
+        buffer(index) = null
+        head.set(h + 1)
+        wake(parkedPusher)
+        Some(obj)
+    }
+
+    def nextBatch(maxSize: Int): List[AnyRef] = {
+        val h = head.get()
+        if (!awaitData(h)) {
+            return Nil
+        }
+        val count = Math.min(maxSize.toLong, tail.get() - h).toInt
+        val batch = new Array[AnyRef](count)
+        for (i <- 0 until count) {
+            val index = ((h + i) & mask).toInt
+            batch(i) = buffer(index)
+            buffer(index) = null
+        }
+        head.set(h + count)
+        wake(parkedPusher)
+        batch.toList
+    }
+
+    // Wait until slot h has been published; false if the pipe is terminated
+    // and drained.
+    private def awaitData(h: Long): Boolean = {
+        var interrupted = false
+        try {
+            while (true) {
+                if (cancelled) {
+                    return false
+                }
+                if (h < tail.get()) {
+                    return true
+                }
+                if (terminated) {
+                    // a push may have published just before termination
+                    return h < tail.get()
+                }
+                parkedReceiver = Thread.currentThread()
+                if (h == tail.get() && !terminated) {
+                    LockSupport.park(this)
+                }
+                parkedReceiver = null
+                // cleared, else park would return at once from now on
+                interrupted |= Thread.interrupted()
+            }
+            false
+        } finally {
+            restoreInterrupt(interrupted)
+        }
+    }
+
+    private def restoreInterrupt(interrupted: Boolean) {
+        if (interrupted) {
+            LOGGER.debug("Interrupted while waiting on the RingBufferPipe; restoring interrupt status")
+            Thread.currentThread().interrupt()
+        }
+    }
+}
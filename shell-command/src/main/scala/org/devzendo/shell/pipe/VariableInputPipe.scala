@@ -18,7 +18,7 @@ package org.devzendo.shell.pipe
 
 import org.devzendo.shell.interpreter.Variable
 
-class VariableInputPipe(variable: Variable) extends VariablePipe(variable) with InputPipe {
+class VariableInputPipe(variable: Variable) extends VariablePipe(variable) with BatchInputPipe {
     private var index = 0
 
     def setTerminated() {
@@ -38,4 +38,12 @@ class VariableInputPipe(variable: Variable) extends VariablePipe(variable) with
             }
         }
     }
+
+    def nextBatch(maxSize: Int): List[AnyRef] = {
+        this.synchronized {
+            val batch = variable.slice(index, index + maxSize)
+            index += batch.size
+            batch
+        }
+    }
 }
@@ -18,7 +18,7 @@ package org.devzendo.shell.pipe
 
 import org.devzendo.shell.interpreter.Variable
 
-class VariableOutputPipe(variable: Variable) extends VariablePipe(variable) with OutputPipe {
+class VariableOutputPipe(variable: Variable) extends VariablePipe(variable) with BatchOutputPipe {
     private var terminated = false
 
     def setTerminated() {
@@ -31,4 +31,11 @@ class VariableOutputPipe(variable: Variable) extends VariablePipe(variable) with
         }
         variable.add(obj)
     }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        if (terminated) {
+            throw new IllegalStateException("Cannot push into a terminated pipe")
+        }
+        variable.addAll(objs)
+    }
 }
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2008-2012 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.shell.pipe
+
+import java.io.PrintWriter
+
+/**
+ * Outputs to a writer, a line per object, as the LogInfoOutputPipe does to
+ * the log. Several pipelines may output to the one writer at once, so lines
+ * are written whole.
+ */
+class WriterOutputPipe(writer: PrintWriter) extends BatchOutputPipe {
+
+    def push(obj: AnyRef) {
+        writer.synchronized {
+            writer.println(obj)
+        }
+    }
+
+    def pushBatch(objs: Seq[AnyRef]) {
+        writer.synchronized {
+            objs.foreach((obj: AnyRef) => writer.println(obj))
+        }
+    }
+
+    def setTerminated() {
+        writer.synchronized {
+            writer.flush()
+        }
+    }
+}
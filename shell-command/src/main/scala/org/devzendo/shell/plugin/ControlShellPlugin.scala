@@ -17,7 +17,7 @@
 package org.devzendo.shell.plugin
 
 import org.devzendo.shell.interpreter.{NoopCommandHandler, CommandHandler, VariableRegistry, CommandExecutionException}
-import org.devzendo.shell.pipe.OutputPipe
+import org.devzendo.shell.pipe.{InputPipe, OutputPipe}
 import org.devzendo.shell.ast.BlockStatements
 import org.apache.log4j.Logger
 
@@ -75,4 +75,12 @@ class ControlShellPlugin extends AbstractShellPlugin with PluginHelper {
 
         commandHandler.execute()
     }
+
+    // parallel N [-unordered] (command args...) runs N copies of a stateless
+    // command on chunks of its input. It's wired as a ParallelCommandHandler by
+    // CommandHandlerWirer; this only makes 'parallel' a known command.
+    @throws(classOf[CommandExecutionException])
+    def parallel(inputPipe: InputPipe, outputPipe: OutputPipe) {
+        throw new CommandExecutionException("parallel can only be used in a pipeline")
+    }
 }
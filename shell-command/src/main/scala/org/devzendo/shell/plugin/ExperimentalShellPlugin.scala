@@ -19,7 +19,7 @@ package org.devzendo.shell.plugin
 import java.io.File
 import java.util.regex.{Pattern, PatternSyntaxException}
 
-import org.devzendo.shell.pipe.{InputPipe, OutputPipe}
+import org.devzendo.shell.pipe.{BatchInputPipe, BatchOutputPipe, CancellablePipe, InputPipe, OutputPipe}
 import org.devzendo.shell.ShellMain.LOGGER
 
 import scala.collection.JavaConversions._
@@ -27,7 +27,7 @@ import scala.util.control.Breaks._
 import scala.io.Source
 import scala.Option
 import org.devzendo.shell.ast.VariableReference
-import org.devzendo.shell.interpreter.{CommandExecutionException, Inspectable, VariableRegistry}
+import org.devzendo.shell.interpreter.{CommandExecutionException, CommandSetup, Indexed, Inspectable, VariableRegistry}
 
 class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
     def getName = {
@@ -45,48 +45,55 @@ class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
         val first = Integer.parseInt(args.get(0).toString)
         val last = Integer.parseInt(args.get(1).toString)
 
-        first to last foreach( (x: Int) => outputPipe.push(x.asInstanceOf[Integer]) )
+        pushAll(outputPipe, (first to last).iterator.map(Integer.valueOf))
     }
 
     // cat ---------------------------------------------------------------------
     def cat(outputPipe: OutputPipe, args: java.util.List[Object]) {
-        filterString(args).foreach(catFile(_, outputPipe))
+        filterString(args).iterator.takeWhile(_ => !CancellablePipe.isCancelled(outputPipe)).foreach(catFile(_, outputPipe))
     }
     
     private def catFile(filename: Object, outputPipe: OutputPipe) {
         if (new File(filename.toString).exists) {
-            Source.fromFile(filename.toString).getLines().foreach(outputPipe.push)
+            // stops reading, and closes the file, if the reader cancels
+            val source = Source.fromFile(filename.toString)
+            try {
+                pushAll(outputPipe, source.getLines())
+            } finally {
+                source.close()
+            }
         } else {
             LOGGER.warn("cat: File '" + filename + "' does not exist")
         }
     }
     
     // filterRegex -------------------------------------------------------------
-    def filterRegex(inputPipe: InputPipe, outputPipe: OutputPipe, args: java.util.List[Object]) {
-        val patternSeq = filterValidPatterns(args)
+    @StatelessCommand
+    def filterRegex(inputPipe: InputPipe, outputPipe: OutputPipe, args: java.util.List[Object], setup: CommandSetup) {
+        // when fused, this is executed for each batch of input
+        val patternSeq = setup.once(filterValidPatterns(args))
         LOGGER.debug("patternSeq is " + patternSeq)
-        def filterOutput(o: Object) = {
-            patternSeq.find { (pattern: Pattern) =>  
-                val objString = o.toString
-                LOGGER.debug("matching '" + objString + "'")
-                val matcher = pattern.matcher(objString)
-                if (matcher.matches) {
+        def filterOutput(o: Object): Seq[Object] = {
+            val objString = o.toString
+            LOGGER.debug("matching '" + objString + "'")
+            patternSeq.view.map(_.matcher(objString)).find(_.matches) match {
+                case Some(matcher) =>
                     LOGGER.debug("it matches")
-                    outputPipe.push(new MatchContext(objString, (1 to matcher.groupCount) map matcher.group))
-                    true
-                } else {
+                    List(new MatchContext(objString, (1 to matcher.groupCount) map matcher.group))
+                case None =>
                     LOGGER.debug("does not match")
-                    false
-                }
+                    Nil
             }
         }
 
-        streamForeach(inputPipe.next(), (a: Object) => filterOutput(a))
+        streamFlatMap(inputPipe, outputPipe, filterOutput)
     }
     
-    private class MatchContext(val inputString: String, val captureGroups: Seq[String]) extends Inspectable {
+    private class MatchContext(val inputString: String, val captureGroups: Seq[String]) extends Inspectable with Indexed {
         override def toString: String = inputString
 
+        override def element(number: Int): Option[AnyRef] = captureGroups.lift(number - 1)
+
         override def inspect(output: (String) => Unit): Unit = {
             output.apply("MatchContext(" + inputString + "), " + numberPlusPluralDescription(captureGroups.size, "capture group"))
             for (index <- captureGroups.indices) {
@@ -122,25 +129,29 @@ class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
     // cut ---------------------------------------------------------------------
     // cut takes MatchContexts (capture groups) and cuts out specific ones, 
     // pushing ArrayBuffer of cut capture groups. Indices start at 1.
+    @StatelessCommand
     def cut(inputPipe: InputPipe, outputPipe: OutputPipe, args: java.util.List[Object]) {
        val captureGroups = filterInt(args)
-       streamForeach(inputPipe.next(), (a: Object) => a match {
+       streamFlatMap(inputPipe, outputPipe, (a: Object) => a match {
            case mc: MatchContext =>
-               outputPipe.push(for (group <- captureGroups) yield mc.captureGroups(group - 1))
+               List(for (group <- captureGroups) yield mc.captureGroups(group - 1))
            case s: String => // in case we got here straight from cat
                LOGGER.info("Got string '" + s + "' - cut doesn't know what to do with Strings")
+               Nil
        })
     }
 
 
     // matches -----------------------------------------------------------------
     // matches takes MatchContexts (capture groups) on input and outputs the matching text.
+    @StatelessCommand
     def matches(inputPipe: InputPipe, outputPipe: OutputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => a match {
+        streamFlatMap(inputPipe, outputPipe, (a: Object) => a match {
             case mc: MatchContext =>
-                outputPipe.push(mc.inputString)
+                List(mc.inputString)
             case s: String => // in case we got here straight from cat
                 LOGGER.info("Got string '" + s + "' - match doesn't know what to do with Strings")
+                Nil
         })
     }
 
@@ -186,7 +197,7 @@ class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
         LOGGER.debug("inspecting args...")
         args.foreach(inspectIt)
         LOGGER.debug("inspecting input pipe...")
-        streamForeach(inputPipe.next(), inspectIt)
+        streamForeach(inputPipe, inspectIt)
     }
 
     // head --------------------------------------------------------------------
@@ -196,20 +207,18 @@ class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
         if (numLinesSeq.size == 1) {
             val numLines: Int = numLinesSeq.get(0)
             LOGGER.debug("head passing " + numLines + " object(s)")
+            var remaining = numLines
             breakable {
-                for (n <- 0 until numLines) {
-                    LOGGER.debug("getting head object " + (n+1) + "/" + numLines)
-                    val obj = inputPipe.next()
-                    obj match {
-                        case Some(x) => {
-                            LOGGER.debug("pushing head object '" + x + "'")
-                            outputPipe.push(x)
-                            LOGGER.debug("pushed head object")
-                        }
-                        case None =>
-                            LOGGER.debug("input pipe empty")
-                            break()
+                while (remaining > 0) {
+                    LOGGER.debug("getting up to " + remaining + " head object(s)")
+                    val batch = BatchInputPipe.nextBatch(inputPipe, Math.min(remaining, BatchInputPipe.DEFAULT_BATCH_SIZE))
+                    if (batch.isEmpty) {
+                        LOGGER.debug("input pipe empty")
+                        break()
                     }
+                    LOGGER.debug("pushing " + batch.size + " head object(s)")
+                    BatchOutputPipe.pushBatch(outputPipe, batch)
+                    remaining -= batch.size
                 }
             }
             LOGGER.debug("head finished")
@@ -218,4 +227,14 @@ class ExperimentalShellPlugin extends AbstractShellPlugin with PluginHelper {
         }
     }
 
-}
\ No newline at end of file
+    // merge -------------------------------------------------------------------
+    // [source] [source] | merge [interleaved|roundRobin|sorted [N]] | ... runs
+    // each source pipeline concurrently; their outputs are merged according to
+    // the mode as the wirer builds merge's input pipe - sorted N by the Nth
+    // element of each object, e.g. a timestamp captured by filterRegex. merge
+    // itself just passes that input on, as it does any other input.
+    @StatelessCommand
+    def merge(inputPipe: InputPipe, outputPipe: OutputPipe, args: java.util.List[Object]) {
+        streamBatches(inputPipe, batch => BatchOutputPipe.pushBatch(outputPipe, batch))
+    }
+}
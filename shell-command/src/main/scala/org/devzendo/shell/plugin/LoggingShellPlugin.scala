@@ -26,23 +26,29 @@ class LoggingShellPlugin extends AbstractShellPlugin with PluginHelper {
     }
     
     // Log each InputPipe object at various levels...
+    @StatelessCommand
     def logDebug(inputPipe: InputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => LOGGER.debug(a))
+        streamForeach(inputPipe, (a: Object) => LOGGER.debug(a))
     }
+    @StatelessCommand
     def logInfo(inputPipe: InputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => LOGGER.info(a))
+        streamForeach(inputPipe, (a: Object) => LOGGER.info(a))
     }
+    @StatelessCommand
     def logWarn(inputPipe: InputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => LOGGER.warn(a))
+        streamForeach(inputPipe, (a: Object) => LOGGER.warn(a))
     }
+    @StatelessCommand
     def logError(inputPipe: InputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => LOGGER.error(a))
+        streamForeach(inputPipe, (a: Object) => LOGGER.error(a))
     }
+    @StatelessCommand
     def logFatal(inputPipe: InputPipe) {
-        streamForeach(inputPipe.next(), (a: Object) => LOGGER.fatal(a))
+        streamForeach(inputPipe, (a: Object) => LOGGER.fatal(a))
     }
 
+    @StatelessCommand
     def logVerbose(inputPipe: InputPipe, log: Log) {
-        streamForeach(inputPipe.next(), (a: Object) => log.logVerbose(a))
+        streamForeach(inputPipe, (a: Object) => log.logVerbose(a))
     }
 }
\ No newline at end of file
@@ -21,7 +21,8 @@ import org.devzendo.shell.interpreter.{CommandExecutionException, Variable, Vari
 import org.devzendo.shell.ast.VariableReference
 
 import scala.annotation.tailrec
-import org.devzendo.shell.pipe.OutputPipe
+import org.devzendo.shell.pipe.{BatchInputPipe, BatchOutputPipe, CancellablePipe, InputPipe, OutputPipe}
+import org.devzendo.shell.pipe.BatchInputPipe.DEFAULT_BATCH_SIZE
 
 
 object PluginHelper {
@@ -35,6 +36,41 @@ trait PluginHelper {
         Stream.continually(producer).takeWhile(_.isDefined).flatten.foreach(processor)
     }
 
+    // Process every object from the input pipe, reading it a batch at a time.
+    def streamForeach(inputPipe: InputPipe, processor: (Object) => Unit) {
+        streamBatches(inputPipe, (batch: List[AnyRef]) => batch.foreach(processor))
+    }
+
+    // Map every object from the input pipe to zero or more output objects,
+    // reading and pushing a batch at a time.
+    def streamFlatMap(inputPipe: InputPipe, outputPipe: OutputPipe, processor: (Object) => Seq[Object]) {
+        streamBatches(inputPipe, (batch: List[AnyRef]) => {
+            val out = batch.flatMap(processor)
+            if (out.nonEmpty) {
+                BatchOutputPipe.pushBatch(outputPipe, out)
+            }
+        })
+    }
+
+    // Process the input pipe a batch at a time, until it is exhausted.
+    def streamBatches(inputPipe: InputPipe, processor: (List[AnyRef]) => Unit) {
+        var batch = BatchInputPipe.nextBatch(inputPipe, DEFAULT_BATCH_SIZE)
+        while (batch.nonEmpty) {
+            processor(batch)
+            batch = BatchInputPipe.nextBatch(inputPipe, DEFAULT_BATCH_SIZE)
+        }
+    }
+
+    // Push all objects into the output pipe, a batch at a time, stopping
+    // early (without consuming the rest of the objects) if the pipe's reader
+    // cancels it.
+    def pushAll(outputPipe: OutputPipe, objs: Iterator[AnyRef]) {
+        val batches = objs.grouped(DEFAULT_BATCH_SIZE)
+        while (!CancellablePipe.isCancelled(outputPipe) && batches.hasNext) {
+            BatchOutputPipe.pushBatch(outputPipe, batches.next())
+        }
+    }
+
     def streamMap(producer: => Option[Object], processor: (Object) => Object): Stream[Object] = {
         Stream.continually(producer).takeWhile(_.isDefined).flatten.map(processor)
     }
@@ -26,5 +26,8 @@ class PluginsShellPlugin extends AbstractShellPlugin {
         for (shellPlugin <- plugins) {
             outputPipe.push(shellPlugin.getName)
         }
+        for (pluginName <- executionEnvironment().pluginRegistry().getUnloadedPluginNames) {
+            outputPipe.push(pluginName + " (not loaded yet)")
+        }
     }
 }
@@ -158,6 +158,17 @@ public class PluginVariations {
         }
     }
 
+    public static class VoidReturnNoArgsStaticNotScanned extends
+            AbstractShellPlugin {
+        public void funk() {
+            mExecuted = true;
+        }
+
+        public static void lambdaBody(final OutputPipe output) {
+            // like the body of a lambda compiled by Scala
+        }
+    }
+
     public static class VoidReturnNoArgsBadSignature extends AbstractShellPlugin {
         public void funk(final OutputPipe output, final Integer notValid) {
             mExecuted = true;
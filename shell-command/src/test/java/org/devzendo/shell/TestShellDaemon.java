@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.devzendo.shell;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import scala.Tuple2;
+import scala.runtime.AbstractFunction3;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class TestShellDaemon {
+    private final File socketFile = new File(System.getProperty("java.io.tmpdir"), "dzsh-test-" + System.nanoTime() + ".sock");
+    private ShellDaemon daemon;
+
+    @After
+    public void closeDaemon() {
+        if (daemon != null) {
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void requestArgumentsPrecedeTheScript() throws IOException {
+        final Tuple2<scala.collection.immutable.List<String>, String> request = read("arg one\narg two words\n\nfoo 1\nbar\n");
+        assertThat(request._1().size(), equalTo(2));
+        assertThat(request._1().apply(0), equalTo("one"));
+        assertThat(request._1().apply(1), equalTo("two words"));
+        assertThat(request._2(), equalTo("foo 1\nbar\n"));
+    }
+
+    @Test
+    public void requestMayHaveJustAScript() throws IOException {
+        final Tuple2<scala.collection.immutable.List<String>, String> request = read("foo 1\n");
+        assertThat(request._1().size(), equalTo(0));
+        assertThat(request._2(), equalTo("foo 1\n"));
+    }
+
+    @Test
+    public void requestIsRunAndItsOutputReturned() throws Exception {
+        final SocketAddress address = assumeUnixDomainSockets();
+        final Thread serving = startDaemon(echoArgumentsAndScript());
+
+        assertThat(request(address, "arg a\narg b\n\nfoo 1\n"), equalTo(asList("a,b", "foo 1", "dzsh-exit-status 0")));
+
+        daemon.close();
+        serving.join(5000);
+        assertThat(socketFile.exists(), equalTo(false));
+    }
+
+    @Test
+    public void requestExitStatusIsReturnedLast() throws Exception {
+        final SocketAddress address = assumeUnixDomainSockets();
+        startDaemon(exitingWith(3));
+
+        assertThat(request(address, "foo 1\n"), equalTo(asList("", "foo 1", "dzsh-exit-status 3")));
+    }
+
+    @Test
+    public void socketIsAccessibleToItsOwnerOnly() throws Exception {
+        assumeUnixDomainSockets();
+        startDaemon(echoArgumentsAndScript());
+
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(socketFile.toPath())), equalTo("rw-------"));
+    }
+
+    @Test
+    public void staleSocketIsReplaced() throws Exception {
+        final SocketAddress address = assumeUnixDomainSockets();
+        final ServerSocketChannel stale = ServerSocketChannel.open(ShellDaemon.unixProtocolFamily());
+        stale.bind(address);
+        stale.close();
+        assertThat(socketFile.exists(), equalTo(true));
+
+        startDaemon(echoArgumentsAndScript());
+
+        assertThat(request(address, "foo 1\n"), equalTo(asList("", "foo 1", "dzsh-exit-status 0")));
+    }
+
+    @Test
+    public void regularFileIsNotReplaced() throws Exception {
+        assumeUnixDomainSockets();
+        Files.write(socketFile.toPath(), "precious".getBytes(StandardCharsets.UTF_8));
+        try {
+            daemon = new ShellDaemon(socketFile, echoArgumentsAndScript());
+            daemon.serve();
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), equalTo(socketFile + " exists, and is not a socket"));
+        } finally {
+            assertThat(new String(Files.readAllBytes(socketFile.toPath()), StandardCharsets.UTF_8), equalTo("precious"));
+            socketFile.delete();
+        }
+    }
+
+    @Test
+    public void socketOfARunningDaemonIsNotTakenOver() throws Exception {
+        final SocketAddress address = assumeUnixDomainSockets();
+        startDaemon(echoArgumentsAndScript());
+        try {
+            new ShellDaemon(socketFile, echoArgumentsAndScript()).serve();
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), equalTo("A daemon is already serving scripts on " + socketFile));
+        }
+
+        assertThat(request(address, "foo 1\n"), equalTo(asList("", "foo 1", "dzsh-exit-status 0")));
+    }
+
+    private SocketAddress assumeUnixDomainSockets() {
+        final SocketAddress address = ShellDaemon.unixDomainSocketAddress(socketFile).getOrElse(null);
+        Assume.assumeTrue(address != null);
+        return address;
+    }
+
+    private AbstractFunction3<scala.collection.immutable.List<String>, String, PrintWriter, Object> echoArgumentsAndScript() {
+        return exitingWith(0);
+    }
+
+    private AbstractFunction3<scala.collection.immutable.List<String>, String, PrintWriter, Object> exitingWith(final int exitStatus) {
+        return new AbstractFunction3<scala.collection.immutable.List<String>, String, PrintWriter, Object>() {
+            @Override
+            public Object apply(final scala.collection.immutable.List<String> args, final String script, final PrintWriter output) {
+                output.println(args.mkString(","));
+                output.print(script);
+                return exitStatus;
+            }
+        };
+    }
+
+    // Wait until the daemon's socket is in place, replacing any stale one.
+    private Thread startDaemon(final AbstractFunction3<scala.collection.immutable.List<String>, String, PrintWriter, Object> runRequest) throws InterruptedException {
+        final Object staleFileKey = fileKey();
+        daemon = new ShellDaemon(socketFile, runRequest);
+        final Thread serving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        serving.start();
+        for (int i = 0; i < 100 && (fileKey() == null || fileKey().equals(staleFileKey)); i++) {
+            Thread.sleep(20);
+        }
+        return serving;
+    }
+
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(socketFile.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    private List<String> request(final SocketAddress address, final String request) throws IOException {
+        final SocketChannel channel = SocketChannel.open(ShellDaemon.unixProtocolFamily());
+        try {
+            channel.connect(address);
+            final Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            writer.write(request);
+            writer.flush();
+            channel.shutdownOutput();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            final List<String> lines = new ArrayList<String>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private Tuple2<scala.collection.immutable.List<String>, String> read(final String request) throws IOException {
+        return ShellDaemon.readRequest(new BufferedReader(new StringReader(request)));
+    }
+}
@@ -0,0 +1,161 @@
+package org.devzendo.shell.analyser;
+
+import org.devzendo.shell.RecordingShellPlugin;
+import org.devzendo.shell.ScalaListHelper;
+import org.devzendo.shell.ast.*;
+import org.devzendo.shell.interpreter.AnalysedMethod;
+import org.devzendo.shell.interpreter.CommandRegistry;
+import org.devzendo.shell.interpreter.DuplicateCommandException;
+import org.devzendo.shell.interpreter.PluginMethodScanner;
+import org.devzendo.shell.plugin.BasicOperatorsPlugin;
+import org.devzendo.shell.plugin.ControlShellPlugin;
+import org.devzendo.shell.plugin.ShellPlugin;
+import org.junit.Before;
+import org.junit.Test;
+import scala.Tuple2;
+import scala.collection.Iterator;
+
+import java.util.ArrayList;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+public class TestConstantFolder {
+    private ConstantFolder folder;
+
+    @Before
+    public void setUp() throws DuplicateCommandException {
+        final CommandRegistry commandRegistry = registry(new BasicOperatorsPlugin(), new ControlShellPlugin());
+        folder = new ConstantFolder(commandRegistry::getPluginClassName);
+    }
+
+    @Test
+    public void operatorWithLiteralArgumentsIsReplacedByEval() {
+        final CommandPipeline cp = pipeline(command("*", 45, 3));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(command("eval", 135)));
+    }
+
+    @Test
+    public void foldingCoercesNumericsAsExecutionDoes() {
+        final CommandPipeline cp = pipeline(command("+", 1, 2.5));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(command("eval", 3.5)));
+    }
+
+    @Test
+    public void nestedOperatorsAreFoldedInnermostFirst() {
+        final CommandPipeline cp = pipeline(command("==", command("+", 1, 2), 3));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(command("eval", true)));
+    }
+
+    @Test
+    public void subCommandOfIfIsFoldedToALiteral() {
+        final BlockStatements thenBlock = block(pipeline(command("echo", "yes")));
+        final CommandPipeline cp = pipeline(command("if", command("<", 1, 2), thenBlock));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(command("if", true, thenBlock)));
+    }
+
+    @Test
+    public void subCommandOfOtherCommandsIsNotFolded() {
+        final CommandPipeline cp = pipeline(command("echo", command("+", 1, 2)));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head().getArgs().get(0), instanceOf(Command.class));
+    }
+
+    @Test
+    public void operatorWithVariableArgumentIsNotFolded() {
+        final Command plus = command("+", new VariableReference("x"), 2);
+        final CommandPipeline cp = pipeline(plus);
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(plus));
+    }
+
+    @Test
+    public void failingOperatorIsLeftForExecutionToReport() {
+        final Command divide = command("/", 1, 0);
+        final CommandPipeline cp = pipeline(divide);
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(divide));
+    }
+
+    @Test
+    public void pipelinesInsideBlocksAreFolded() {
+        final CommandPipeline cp = pipeline(command("-", 10, 4));
+        fold(block(cp));
+
+        assertThat(cp.getCommands().head(), equalTo(command("eval", 6)));
+    }
+
+    @Test
+    public void operatorAliasesAreFolded() {
+        final CommandPipeline cp = pipeline(command("\u2264", 1, 2));
+
+        fold(cp);
+
+        assertThat(cp.getCommands().head(), equalTo(command("eval", true)));
+    }
+
+    @Test
+    public void operatorProvidedByAnotherPluginIsNotFolded() throws DuplicateCommandException {
+        final CommandRegistry otherRegistry = new CommandRegistry();
+        final AnalysedMethod plus = new PluginMethodScanner().scanPluginClass(BasicOperatorsPlugin.class).apply("+");
+        otherRegistry.registerCommand("+", new RecordingShellPlugin(), plus);
+        final ConstantFolder otherFolder = new ConstantFolder(otherRegistry::getPluginClassName);
+        final Command command = command("+", 1, 2);
+
+        otherFolder.fold(ScalaListHelper.createList(pipeline(command)));
+
+        assertThat(command.getName(), equalTo("+"));
+    }
+
+    private static CommandRegistry registry(final ShellPlugin... plugins) throws DuplicateCommandException {
+        final CommandRegistry commandRegistry = new CommandRegistry();
+        for (final ShellPlugin plugin : plugins) {
+            final Iterator<Tuple2<String, AnalysedMethod>> methods = new PluginMethodScanner().scanPluginMethods(plugin).iterator();
+            while (methods.hasNext()) {
+                final Tuple2<String, AnalysedMethod> method = methods.next();
+                commandRegistry.registerCommand(method._1(), plugin, method._2());
+            }
+        }
+        return commandRegistry;
+    }
+
+    private Command command(final String name, final Object... args) {
+        return new Command(name, new ArrayList<Object>(asList(args)));
+    }
+
+    private CommandPipeline pipeline(final Command command) {
+        final CommandPipeline cp = new CommandPipeline();
+        cp.addCommand(command);
+        return cp;
+    }
+
+    private BlockStatements block(final Statement... statements) {
+        final BlockStatements block = new BlockStatements();
+        block.setStatements(ScalaListHelper.createList(statements));
+        return block;
+    }
+
+    private void fold(final Statement... statements) {
+        folder.fold(ScalaListHelper.createList(statements));
+    }
+}
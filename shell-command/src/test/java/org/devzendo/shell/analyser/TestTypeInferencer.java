@@ -0,0 +1,142 @@
+package org.devzendo.shell.analyser;
+
+import org.devzendo.shell.ScalaListHelper;
+import org.devzendo.shell.ast.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TestTypeInferencer {
+    final TypeInferencer inferencer = new TypeInferencer();
+
+    @Test
+    public void operatorOnIntegerVariableAndLiteralIsInteger() {
+        final Command plus = command("+", variable("x"), 1);
+
+        infer(assign("x", command("eval", 1, 2, 3)), pipeline(plus));
+
+        assertThat(plus.getOperandType(), equalTo((Object) Integer.class));
+    }
+
+    @Test
+    public void operatorOnDoubleVariableAndLiteralIsDouble() {
+        final Command times = command("*", variable("d"), 2.0);
+
+        infer(assign("d", command("eval", 1.5, 2.5)), pipeline(times));
+
+        assertThat(times.getOperandType(), equalTo((Object) Double.class));
+    }
+
+    @Test
+    public void mixedNumericOperandsAreNotAnnotated() {
+        final Command plus = command("+", variable("x"), 2.5);
+
+        infer(assign("x", command("eval", 1)), pipeline(plus));
+
+        assertThat(plus.getOperandType(), nullValue());
+    }
+
+    @Test
+    public void mixedNumericSubCommandResultIsDouble() {
+        final Command times = command("*", variable("x"), 2.0);
+        final Command plus = command("+", times, 1.0);
+
+        infer(assign("x", command("eval", 1)), pipeline(plus));
+
+        assertThat(times.getOperandType(), nullValue());
+        assertThat(plus.getOperandType(), equalTo((Object) Double.class));
+    }
+
+    @Test
+    public void unassignedVariableIsNotAnnotated() {
+        final Command plus = command("+", variable("y"), 1);
+
+        infer(pipeline(plus));
+
+        assertThat(plus.getOperandType(), nullValue());
+    }
+
+    @Test
+    public void variableAssignedDifferentTypesIsNotAnnotated() {
+        final Command plus = command("+", variable("x"), 1);
+
+        infer(assign("x", command("eval", 1)), assign("x", command("eval", "one")), pipeline(plus));
+
+        assertThat(plus.getOperandType(), nullValue());
+    }
+
+    @Test
+    public void variableAssignedFromAnotherCommandIsNotAnnotated() {
+        final Command plus = command("+", variable("x"), 1);
+
+        infer(assign("x", command("eval", 1)), assign("x", command("count", 1, 3)), pipeline(plus));
+
+        assertThat(plus.getOperandType(), nullValue());
+    }
+
+    @Test
+    public void variableIncrementedInABlockIsInteger() {
+        final Command increment = command("+", variable("x"), 1);
+        final CommandPipeline conditional = pipeline(command("if", true, block(assign("x", increment))));
+
+        infer(assign("x", command("eval", 0)), conditional);
+
+        assertThat(increment.getOperandType(), equalTo((Object) Integer.class));
+    }
+
+    @Test
+    public void variableAssignedInAnEarlierStatementKeepsItsType() {
+        final Command plus = command("+", variable("x"), 1);
+
+        infer(assign("x", command("eval", 1)));
+        infer(pipeline(plus));
+
+        assertThat(plus.getOperandType(), equalTo((Object) Integer.class));
+    }
+
+    @Test
+    public void variableAssignedAnotherTypeInALaterStatementIsNotAnnotated() {
+        final Command plus = command("+", variable("x"), 1);
+
+        infer(assign("x", command("eval", 1)));
+        infer(assign("x", command("eval", "one")));
+        infer(pipeline(plus));
+
+        assertThat(plus.getOperandType(), nullValue());
+    }
+
+    private Command command(final String name, final Object... args) {
+        return new Command(name, new ArrayList<Object>(asList(args)));
+    }
+
+    private VariableReference variable(final String name) {
+        return new VariableReference(name);
+    }
+
+    private CommandPipeline pipeline(final Command command) {
+        final CommandPipeline cp = new CommandPipeline();
+        cp.addCommand(command);
+        return cp;
+    }
+
+    private CommandPipeline assign(final String name, final Command command) {
+        final CommandPipeline cp = pipeline(command);
+        cp.setOutputVariable(variable(name));
+        return cp;
+    }
+
+    private BlockStatements block(final Statement... statements) {
+        final BlockStatements block = new BlockStatements();
+        block.setStatements(ScalaListHelper.createList(statements));
+        return block;
+    }
+
+    private void infer(final Statement... statements) {
+        inferencer.infer(ScalaListHelper.createList(statements));
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+import org.devzendo.shell.ast.Command;
+import org.devzendo.shell.ast.CommandPipeline;
+import org.devzendo.shell.pipe.RendezvousPipeFactory$;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.Iterator;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Not a unit test: measures the time taken to execute a short two-command
+ * pipeline, as typed interactively, on a pool of threads and cooperatively on
+ * the calling thread.
+ *
+ * Run with: java -cp ... org.devzendo.shell.interpreter.CooperativeBenchmark [objects]
+ */
+public class CooperativeBenchmark {
+    private static final int STATEMENTS = 20000;
+
+    public static void main(final String[] args) throws Exception {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final CommandRegistry commandRegistry = new CommandRegistry();
+        final FusionBenchmark.BenchmarkPlugin plugin = new FusionBenchmark.BenchmarkPlugin();
+        final Iterator<Tuple2<String, AnalysedMethod>> methods = new PluginMethodScanner().scanPluginMethods(plugin).iterator();
+        while (methods.hasNext()) {
+            final Tuple2<String, AnalysedMethod> method = methods.next();
+            commandRegistry.registerCommand(method._1(), plugin, method._2());
+        }
+        final VariableRegistry variableRegistry = new DefaultVariableRegistry(Option.<VariableRegistry>apply(null));
+        variableRegistry.incrementUsage();
+        final StagePool pool = new StagePool("benchmark", 8);
+        try {
+            for (final int cooperativeStageLimit : new int[] {0, 2, 0, 2}) {
+                final ExecutionOptions options = new ExecutionOptions(RendezvousPipeFactory$.MODULE$, pool, true, cooperativeStageLimit);
+                final CommandHandlerWirer wirer = new CommandHandlerWirer(commandRegistry, options);
+                final long start = System.nanoTime();
+                for (int i = 0; i < STATEMENTS; i++) {
+                    new ExecutionContainer(wirer.wireCommandPipeline(variableRegistry, pipeline(objects)), options).execute();
+                }
+                final long elapsed = System.nanoTime() - start;
+                System.out.printf("%-12s %,10.1f us/statement%n",
+                        cooperativeStageLimit == 0 ? "pool" : "cooperative", elapsed / 1e3 / STATEMENTS);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static CommandPipeline pipeline(final int objects) {
+        final CommandPipeline pipeline = new CommandPipeline();
+        pipeline.addCommand(new Command("produce", Arrays.<Object>asList(objects)));
+        pipeline.addCommand(new Command("sink", Collections.emptyList()));
+        return pipeline;
+    }
+}
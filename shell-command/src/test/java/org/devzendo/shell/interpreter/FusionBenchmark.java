@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.shell.ast.Command;
+import org.devzendo.shell.ast.CommandPipeline;
+import org.devzendo.shell.pipe.InputPipe;
+import org.devzendo.shell.pipe.OutputPipe;
+import org.devzendo.shell.pipe.RendezvousPipeFactory$;
+import org.devzendo.shell.plugin.AbstractShellPlugin;
+import org.devzendo.shell.plugin.StatelessCommand;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.Iterator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Not a unit test: measures the time per object taken by a pipeline of a
+ * producer, three stateless pass-through commands and a sink, with and without
+ * fusion of the stateless commands into the producer's thread.
+ *
+ * Run with: java -cp ... org.devzendo.shell.interpreter.FusionBenchmark [objects]
+ */
+public class FusionBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static class BenchmarkPlugin extends AbstractShellPlugin {
+        @Override
+        public String getName() {
+            return "Benchmark";
+        }
+
+        public void produce(final OutputPipe outputPipe, final List<Object> args) {
+            final int objects = (Integer) args.get(0);
+            final Integer payload = 42;
+            for (int i = 0; i < objects; i++) {
+                outputPipe.push(payload);
+            }
+        }
+
+        @StatelessCommand
+        public void pass(final InputPipe inputPipe, final OutputPipe outputPipe) {
+            Option<Object> next = inputPipe.next();
+            while (next.isDefined()) {
+                outputPipe.push(next.get());
+                next = inputPipe.next();
+            }
+        }
+
+        public void sink(final InputPipe inputPipe) {
+            while (inputPipe.next().isDefined()) {
+                // discard
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final CommandRegistry commandRegistry = new CommandRegistry();
+        final BenchmarkPlugin plugin = new BenchmarkPlugin();
+        final Iterator<Tuple2<String, AnalysedMethod>> methods = new PluginMethodScanner().scanPluginMethods(plugin).iterator();
+        while (methods.hasNext()) {
+            final Tuple2<String, AnalysedMethod> method = methods.next();
+            commandRegistry.registerCommand(method._1(), plugin, method._2());
+        }
+        final VariableRegistry variableRegistry = new DefaultVariableRegistry(Option.<VariableRegistry>apply(null));
+        variableRegistry.incrementUsage();
+
+        for (final boolean fusion : new boolean[] {false, true}) {
+            final CommandHandlerWirer wirer = new CommandHandlerWirer(commandRegistry,
+                    new ExecutionOptions(RendezvousPipeFactory$.MODULE$, StageExecutors.ThreadPerStage$.MODULE$, fusion));
+            long best = Long.MAX_VALUE;
+            int stages = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                final scala.collection.immutable.List<CommandHandler> handlers =
+                        wirer.wireCommandPipeline(variableRegistry, pipeline(objects));
+                stages = handlers.size();
+                final long start = System.nanoTime();
+                new ExecutionContainer(handlers, StageExecutors.ThreadPerStage$.MODULE$).execute();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("fusion %-5s %d thread(s) %,10.1f ns/object%n", fusion, stages, (double) best / objects);
+        }
+    }
+
+    private static CommandPipeline pipeline(final int objects) {
+        final CommandPipeline pipeline = new CommandPipeline();
+        pipeline.addCommand(new Command("produce", Arrays.<Object>asList(objects)));
+        for (int i = 0; i < 3; i++) {
+            pipeline.addCommand(new Command("pass", Collections.emptyList()));
+        }
+        pipeline.addCommand(new Command("sink", Collections.emptyList()));
+        return pipeline;
+    }
+}
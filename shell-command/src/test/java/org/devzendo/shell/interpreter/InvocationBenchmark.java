@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.shell.pipe.InputPipe;
+import org.devzendo.shell.pipe.NullInputPipe;
+import org.devzendo.shell.pipe.NullOutputPipe;
+import org.devzendo.shell.pipe.OutputPipe;
+import org.devzendo.shell.plugin.AbstractShellPlugin;
+import org.devzendo.shell.ScalaListHelper;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Not a unit test: measures the time per call of a command that does almost
+ * nothing: called directly; through the reflective invocation that
+ * CommandHandlerFactory used to do (rebuilding the argument map and calling
+ * Method.invoke, but without its per-call debug logging); through the
+ * AnalysedMethod's handle alone; and through a CommandHandler as created by
+ * CommandHandlerFactory now.
+ *
+ * Run with: java -cp ... org.devzendo.shell.interpreter.InvocationBenchmark [calls]
+ */
+public class InvocationBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static class BenchmarkPlugin extends AbstractShellPlugin {
+        private long mCalls = 0;
+
+        @Override
+        public String getName() {
+            return "Benchmark";
+        }
+
+        public void tick(final InputPipe inputPipe, final OutputPipe outputPipe, final List<Object> args) {
+            mCalls++;
+        }
+    }
+
+    private interface Caller {
+        void call() throws Throwable;
+    }
+
+    public static void main(final String[] args) throws Throwable {
+        final int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final BenchmarkPlugin plugin = new BenchmarkPlugin();
+        final AnalysedMethod analysedMethod = new PluginMethodScanner().scanPluginMethods(plugin).get("tick").get();
+        final Method method = analysedMethod.getMethod();
+        final InputPipe inputPipe = new NullInputPipe();
+        final OutputPipe outputPipe = new NullOutputPipe();
+        @SuppressWarnings("unchecked")
+        final scala.collection.immutable.List<Object> scalaArgs = ScalaListHelper.<Object>createList("one", 2);
+        final List<Object> javaArgs = scala.collection.JavaConverters.seqAsJavaListConverter(scalaArgs).asJava();
+
+        final CommandHandler handler = new CommandHandlerFactory().createHandler(plugin, analysedMethod);
+        handler.setArgs(scalaArgs);
+        handler.setInputPipe(inputPipe);
+        handler.setOutputPipe(outputPipe);
+
+        report("direct", calls, new Caller() {
+            @Override
+            public void call() {
+                plugin.tick(inputPipe, outputPipe, javaArgs);
+            }
+        });
+        report("reflective", calls, new Caller() {
+            @Override
+            public void call() throws Exception {
+                final Map<Integer, Object> argsMap = new HashMap<Integer, Object>();
+                argsMap.put(analysedMethod.getArgumentsPosition().get(), javaArgs);
+                argsMap.put(analysedMethod.getInputPipePosition().get(), inputPipe);
+                argsMap.put(analysedMethod.getOutputPipePosition().get(), outputPipe);
+                final Object[] array = new Object[argsMap.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = argsMap.get(i);
+                }
+                method.invoke(plugin, array);
+            }
+        });
+        final java.lang.invoke.MethodHandle methodHandle = analysedMethod.methodHandle().get();
+        report("handle", calls, new Caller() {
+            @Override
+            public void call() throws Throwable {
+                methodHandle.invokeExact((Object) plugin, new Object[] {inputPipe, outputPipe, javaArgs});
+            }
+        });
+        report("handler", calls, new Caller() {
+            @Override
+            public void call() throws Exception {
+                handler.execute();
+            }
+        });
+    }
+
+    private static void report(final String name, final int calls, final Caller caller) throws Throwable {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                caller.call();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %8.1f ns/call%n", name, (double) best / calls);
+    }
+}
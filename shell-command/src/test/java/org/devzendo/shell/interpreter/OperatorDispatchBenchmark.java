@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.shell.ScalaListHelper;
+import org.devzendo.shell.pipe.NullInputPipe;
+import org.devzendo.shell.pipe.NullOutputPipe;
+import org.devzendo.shell.plugin.BasicOperatorsPlugin;
+
+/**
+ * Not a unit test: measures the time per call of arithmetic operators on
+ * two variables of Integers, and of Doubles: through a CommandHandler for
+ * the BasicOperatorsPlugin's general operator, and through one for the
+ * monomorphic implementation chosen when the operands' type is inferred.
+ *
+ * Run with: java -cp ... org.devzendo.shell.interpreter.OperatorDispatchBenchmark [elements] [calls]
+ */
+public class OperatorDispatchBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(final String[] args) throws CommandExecutionException {
+        final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        final BasicOperatorsPlugin plugin = new BasicOperatorsPlugin();
+        final scala.collection.immutable.Map<String, AnalysedMethod> methods = new PluginMethodScanner().scanPluginMethods(plugin);
+        final CommandHandlerFactory factory = new CommandHandlerFactory();
+
+        final Variable integers = new Variable();
+        final Variable doubles = new Variable();
+        for (int i = 0; i < elements; i++) {
+            integers.add(i + 1);
+            doubles.add(i + 1.5);
+        }
+        for (final String operator : new String[] {"+", "*", "/"}) {
+            for (final Variable operands : new Variable[] {integers, doubles}) {
+                final Class<?> operandType = operands == integers ? Integer.class : Double.class;
+                final CommandHandler general = factory.createHandler(plugin, methods.get(operator).get());
+                final CommandHandler monomorphic = MonomorphicOperators$.MODULE$.createHandler(
+                        MonomorphicOperators$.MODULE$.lookup(operator, operandType).get(),
+                        factory.createHandler(plugin, methods.get(operator).get()));
+                final String name = operator + " " + operandType.getSimpleName();
+                report(name + " general", calls, prepare(general, operands));
+                report(name + " monomorphic", calls, prepare(monomorphic, operands));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CommandHandler prepare(final CommandHandler handler, final Variable operands) {
+        handler.setArgs(ScalaListHelper.<Object>createList(operands, operands));
+        handler.setInputPipe(new NullInputPipe());
+        handler.setOutputPipe(new NullOutputPipe());
+        return handler;
+    }
+
+    private static void report(final String name, final int calls, final CommandHandler handler) throws CommandExecutionException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                handler.execute();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-22s %10.1f ns/call%n", name, (double) best / calls);
+    }
+}
@@ -16,7 +16,9 @@
 package org.devzendo.shell.interpreter;
 
 import org.apache.log4j.BasicConfigurator;
+import org.devzendo.shell.pipe.BufferedPipe;
 import org.devzendo.shell.pipe.InputPipe;
+import org.devzendo.shell.pipe.OptionMatcher;
 import org.devzendo.shell.pipe.OutputPipe;
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
@@ -60,6 +62,51 @@ public class TestCommandHandler {
         handler.executeAndTerminatePipes();
     }
 
+    @Test
+    public void cancellableInputPipeCancelledAndOutputPipeEndedAfterExecuteAndTerminatePipes() throws CommandExecutionException {
+        final BufferedPipe cancellableInputPipe = new BufferedPipe(4);
+        final BufferedPipe cancellableOutputPipe = new BufferedPipe(4);
+        final CommandHandler handler = new CommandHandler(
+            "foo", none, none, none, none ) {
+
+            @Override
+            public void execute() {
+                getOutputPipe().push("output");
+            }
+        };
+        handler.setInputPipe(cancellableInputPipe);
+        handler.setOutputPipe(cancellableOutputPipe);
+
+        handler.executeAndTerminatePipes();
+
+        assertThat(cancellableInputPipe.isCancelled(), equalTo(true));
+        assertThat(cancellableOutputPipe.isCancelled(), equalTo(false));
+        assertThat(cancellableOutputPipe.next(), OptionMatcher.<Object>isSome("output"));
+        assertThat(cancellableOutputPipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test
+    public void inputPipeCancelledWhenOutputPipeCancelledDuringExecution() throws CommandExecutionException {
+        final BufferedPipe cancellableInputPipe = new BufferedPipe(4);
+        final BufferedPipe cancellableOutputPipe = new BufferedPipe(4);
+        final boolean[] inputCancelledDuringExecution = new boolean[1];
+        final CommandHandler handler = new CommandHandler(
+            "foo", none, none, none, none ) {
+
+            @Override
+            public void execute() {
+                cancellableOutputPipe.cancel(); // as by the reader of the output
+                inputCancelledDuringExecution[0] = cancellableInputPipe.isCancelled();
+            }
+        };
+        handler.setInputPipe(cancellableInputPipe);
+        handler.setOutputPipe(cancellableOutputPipe);
+
+        handler.executeAndTerminatePipes();
+
+        assertThat(inputCancelledDuringExecution[0], equalTo(true));
+    }
+
     private static int sequence = 0;
     private static class SequencedCommandHandler extends CommandHandler {
         private int executionSequence = -1;
@@ -73,6 +73,19 @@ public class TestCommandHandlerFactory {
         assertPluginHasBeenPassed(plugin, null, null, null, null, null);
     }
 
+    @Test
+    public void parameterLayoutIsPrecomputedForInvocationThroughAHandle() {
+        final AbstractShellPlugin plugin = new VoidReturnListArgsInputPipeOutputPipeLogVariableRegistry();
+        final AnalysedMethod analysedMethod = scanner.scanPluginMethods(plugin).values().iterator().next();
+        assertThat(Arrays.<Object>asList((Object[]) analysedMethod.parameterSources()), equalTo(Arrays.<Object>asList(
+                AnalysedMethod.JavaArguments$.MODULE$,
+                AnalysedMethod.InputPipeParameter$.MODULE$,
+                AnalysedMethod.OutputPipeParameter$.MODULE$,
+                AnalysedMethod.LogParameter$.MODULE$,
+                AnalysedMethod.VariableRegistryParameter$.MODULE$)));
+        assertThat(analysedMethod.methodHandle().isDefined(), equalTo(true));
+    }
+
     @Test
     public void commandExecutionExceptionIsPropagatedCorrectly() {
         final AbstractShellPlugin plugin = new VoidReturnArrayListArgsThrows();
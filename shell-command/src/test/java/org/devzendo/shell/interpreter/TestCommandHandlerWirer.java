@@ -15,9 +15,12 @@
  */
 package org.devzendo.shell.interpreter;
 
+import org.devzendo.shell.RecordingShellPlugin;
 import org.devzendo.shell.ScalaListHelper;
 import org.devzendo.shell.ast.*;
 import org.devzendo.shell.pipe.*;
+import org.devzendo.shell.plugin.BasicOperatorsPlugin;
+import org.devzendo.shell.plugin.ShellPlugin;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -96,6 +99,25 @@ public class TestCommandHandlerWirer {
         assertThat(subCommandHandlers.size(), equalTo(3));
     }
 
+    @Test
+    public void pipelineOutputGoesToStatementOutput() throws DuplicateCommandException, CommandNotFoundException {
+        final OutputPipe statementOutputPipe = new WriterOutputPipe(new java.io.PrintWriter(new java.io.StringWriter()));
+        final CommandHandlerWirer statementOutputWirer = new CommandHandlerWirer(commandRegistry,
+            new ExecutionOptions(RendezvousPipeFactory$.MODULE$, StageExecutors.ThreadPerStage$.MODULE$, true),
+            new scala.runtime.AbstractFunction0<OutputPipe>() {
+                @Override
+                public OutputPipe apply() {
+                    return statementOutputPipe;
+                }
+            });
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        @SuppressWarnings("unchecked")
+        final Command command = new Command("foo", EMPTY_LIST);
+        pipeline.addCommand(command);
+        scala.collection.immutable.List<CommandHandler> handlers = statementOutputWirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.apply(0).getOutputPipe(), sameInstance(statementOutputPipe));
+    }
+
     @Test
     public void noPipelineInputOrOutput() throws DuplicateCommandException, CommandNotFoundException {
         commandRegistry.registerCommand("foo", null, mAnalysedMethod);
@@ -130,7 +152,257 @@ public class TestCommandHandlerWirer {
         assertThat(barCommandHandler.getInputPipe(), instanceOf(RendezvousPipe.class));
         assertThat(barCommandHandler.getOutputPipe(), instanceOf(LogInfoOutputPipe.class));
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void planInstantiatedForEachRunWithNewHandlersAndPipes() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, mAnalysedMethod);
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addCommand(new Command("bar", EMPTY_LIST));
+        final ExecutionPlan plan = wirer.compile(pipeline);
+
+        final scala.collection.immutable.List<CommandHandler> first = plan.instantiate(variableRegistry, wirer.statementOutput());
+        final scala.collection.immutable.List<CommandHandler> second = plan.instantiate(variableRegistry, wirer.statementOutput());
+        assertThat(second.size(), equalTo(2));
+        assertThat(second.apply(0).getName(), equalTo("commandHandlerWithBothPipes"));
+        assertThat(second.apply(0), not(sameInstance(first.apply(0))));
+        assertThat(second.apply(0).getOutputPipe(), instanceOf(RendezvousPipe.class));
+        assertThat(second.apply(0).getOutputPipe(), sameInstance((Object) second.apply(1).getInputPipe()));
+        assertThat(second.apply(0).getOutputPipe(), not(sameInstance((Object) first.apply(0).getOutputPipe())));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void plannedStatementCompiledOnce() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+
+        final CommandHandler first = wirer.wirePlanned(variableRegistry, pipeline).apply(0);
+        final CommandHandler second = wirer.wirePlanned(variableRegistry, pipeline).apply(0);
+        assertThat(second, not(sameInstance(first)));
+        assertThat(wirer.planCache().statistics().contains("hits=1"), equalTo(true));
+        assertThat(wirer.planCache().statistics().contains("misses=1"), equalTo(true));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void statelessCommandFusedIntoPreviousCommand() throws DuplicateCommandException, CommandNotFoundException {
+        final AnalysedMethod statelessAnalysedMethod = analyseMethodNamed("commandHandlerWithBothPipes");
+        statelessAnalysedMethod.setStateless(true);
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, statelessAnalysedMethod);
+        commandRegistry.registerCommand("baz", null, statelessAnalysedMethod);
+
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addCommand(new Command("bar", EMPTY_LIST));
+        pipeline.addCommand(new Command("baz", EMPTY_LIST));
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(1));
+
+        final CommandHandler fooCommandHandler = handlers.apply(0);
+        assertThat(fooCommandHandler.getOutputPipe(), instanceOf(FusedOutputPipe.class));
+        final CommandHandler barCommandHandler = ((FusedOutputPipe) fooCommandHandler.getOutputPipe()).handler();
+        assertThat(barCommandHandler.getName(), equalTo("commandHandlerWithBothPipes"));
+        assertThat(barCommandHandler.getOutputPipe(), instanceOf(FusedOutputPipe.class));
+        final CommandHandler bazCommandHandler = ((FusedOutputPipe) barCommandHandler.getOutputPipe()).handler();
+        assertThat(bazCommandHandler.getOutputPipe(), instanceOf(LogInfoOutputPipe.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void statelessCommandNotFusedWhenFusionDisabled() throws DuplicateCommandException, CommandNotFoundException {
+        final AnalysedMethod statelessAnalysedMethod = analyseMethodNamed("commandHandlerWithBothPipes");
+        statelessAnalysedMethod.setStateless(true);
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, statelessAnalysedMethod);
+        final CommandHandlerWirer nonFusingWirer = new CommandHandlerWirer(commandRegistry,
+                new ExecutionOptions(RendezvousPipeFactory$.MODULE$, StageExecutors.ThreadPerStage$.MODULE$, false));
+
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addCommand(new Command("bar", EMPTY_LIST));
+        scala.collection.immutable.List<CommandHandler> handlers = nonFusingWirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(2));
+        assertThat(handlers.apply(0).getOutputPipe(), instanceOf(RendezvousPipe.class));
+    }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void parallelWiredAsCopiesOfStatelessCommand() throws DuplicateCommandException, CommandNotFoundException {
+        final AnalysedMethod statelessAnalysedMethod = analyseMethodNamed("commandHandlerWithBothPipes");
+        statelessAnalysedMethod.setStateless(true);
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, statelessAnalysedMethod);
+
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addCommand(new Command("parallel", Arrays.<Object>asList(3, new Switch("unordered"), new Command("bar", EMPTY_LIST))));
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(2));
+
+        assertThat(handlers.apply(1), instanceOf(ParallelCommandHandler.class));
+        final ParallelCommandHandler parallelCommandHandler = (ParallelCommandHandler) handlers.apply(1);
+        assertThat(parallelCommandHandler.copies().size(), equalTo(3));
+        assertThat(parallelCommandHandler.ordered(), equalTo(false));
+        assertThat(parallelCommandHandler.getInputPipe(), sameInstance((Object) handlers.apply(0).getOutputPipe()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = CommandExecutionException.class)
+    public void parallelCannotRunStatefulCommand() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+
+        pipeline.addCommand(new Command("parallel", Arrays.<Object>asList(2, new Command("foo", EMPTY_LIST))));
+        wirer.wireCommandPipeline(variableRegistry, pipeline);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = CommandExecutionException.class)
+    public void parallelNeedsPositiveNumberOfCopies() throws DuplicateCommandException, CommandNotFoundException {
+        final AnalysedMethod statelessAnalysedMethod = analyseMethodNamed("commandHandlerWithBothPipes");
+        statelessAnalysedMethod.setStateless(true);
+        commandRegistry.registerCommand("bar", null, statelessAnalysedMethod);
+
+        pipeline.addCommand(new Command("parallel", Arrays.<Object>asList(0, new Command("bar", EMPTY_LIST))));
+        wirer.wireCommandPipeline(variableRegistry, pipeline);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void fanOutFeedsEachBranchThroughItsOwnBuffer() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, mAnalysedMethod);
+        commandRegistry.registerCommand("baz", null, mAnalysedMethod);
+
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        final CommandPipeline barBranch = new CommandPipeline();
+        barBranch.addCommand(new Command("bar", EMPTY_LIST));
+        pipeline.addBranch(barBranch);
+        final CommandPipeline bazBranch = new CommandPipeline();
+        bazBranch.addCommand(new Command("baz", EMPTY_LIST));
+        bazBranch.setOutputVariable(new VariableReference("var"));
+        pipeline.addBranch(bazBranch);
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(3));
+
+        assertThat(handlers.apply(0).getOutputPipe(), instanceOf(FanOutPipe.class));
+        final FanOutPipe fanOutPipe = (FanOutPipe) handlers.apply(0).getOutputPipe();
+        assertThat(fanOutPipe.branches().size(), equalTo(2));
+        assertThat(handlers.apply(1).getInputPipe(), sameInstance((Object) fanOutPipe.branches().apply(0)));
+        assertThat(handlers.apply(1).getInputPipe(), instanceOf(BufferedPipe.class));
+        assertThat(handlers.apply(1).getOutputPipe(), instanceOf(LogInfoOutputPipe.class));
+        assertThat(handlers.apply(2).getInputPipe(), sameInstance((Object) fanOutPipe.branches().apply(1)));
+        assertThat(handlers.apply(2).getOutputPipe(), instanceOf(VariableOutputPipe.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void sourcesFeedTheirOwnLanesOfAnImplicitInterleavedMerge() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, mAnalysedMethod);
+        commandRegistry.registerCommand("merge", null, mAnalysedMethod);
+
+        final CommandPipeline fooSource = new CommandPipeline();
+        fooSource.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addSource(fooSource);
+        final CommandPipeline barSource = new CommandPipeline();
+        barSource.addCommand(new Command("bar", EMPTY_LIST));
+        pipeline.addSource(barSource);
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(3));
+
+        assertThat(handlers.apply(2).getInputPipe(), instanceOf(MergeInputPipe.class));
+        final MergeInputPipe mergePipe = (MergeInputPipe) handlers.apply(2).getInputPipe();
+        assertThat(mergePipe.mode(), equalTo((MergeInputPipe.Mode) MergeInputPipe.Interleaved$.MODULE$));
+        assertThat(handlers.apply(0).getInputPipe(), instanceOf(NullInputPipe.class));
+        assertThat(handlers.apply(0).getOutputPipe(), sameInstance((Object) mergePipe.lanes().apply(0)));
+        assertThat(handlers.apply(1).getOutputPipe(), sameInstance((Object) mergePipe.lanes().apply(1)));
+        assertThat(handlers.apply(2).getOutputPipe(), instanceOf(LogInfoOutputPipe.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void mergeModeGivenByExplicitMerge() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("merge", null, mAnalysedMethod);
+
+        final CommandPipeline fooSource = new CommandPipeline();
+        fooSource.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addSource(fooSource);
+        pipeline.addCommand(new Command("merge", asList((Object) new VariableReference("sorted"))));
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(3));
+
+        final MergeInputPipe mergePipe = (MergeInputPipe) handlers.apply(1).getInputPipe();
+        assertThat(mergePipe.mode(), equalTo((MergeInputPipe.Mode) MergeInputPipe.Sorted$.MODULE$));
+        assertThat(handlers.apply(1).getOutputPipe(), sameInstance((Object) handlers.apply(2).getInputPipe()));
+    }
+
+    @Test
+    public void typedOperatorOfTheOperatorsPluginIsBoundToItsMonomorphicImplementation() throws DuplicateCommandException, CommandNotFoundException {
+        assertThat(wireTypedPlus(new BasicOperatorsPlugin()).getClass(), not(equalTo(generalHandlerClass())));
+    }
+
+    @Test
+    public void typedOperatorOfAnotherPluginIsNotBoundToAMonomorphicImplementation() throws DuplicateCommandException, CommandNotFoundException {
+        assertThat(wireTypedPlus(new RecordingShellPlugin()).getClass(), equalTo(generalHandlerClass()));
+    }
+
+    private CommandHandler wireTypedPlus(final ShellPlugin plugin) throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("+", plugin, mAnalysedMethod);
+        final Command plus = new Command("+", asList((Object) 1, 2));
+        plus.setOperandType(Integer.class);
+        pipeline.addCommand(plus);
+        return wirer.wireCommandPipeline(variableRegistry, pipeline).apply(0);
+    }
+
+    private Class<?> generalHandlerClass() {
+        return new CommandHandlerFactory().createHandler(null, mAnalysedMethod).getClass();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void sortedMergeCanBeByANumberedElement() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("merge", null, mAnalysedMethod);
+
+        final CommandPipeline fooSource = new CommandPipeline();
+        fooSource.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addSource(fooSource);
+        pipeline.addCommand(new Command("merge", asList((Object) new VariableReference("sorted"), 2)));
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+
+        final MergeInputPipe mergePipe = (MergeInputPipe) handlers.apply(1).getInputPipe();
+        assertThat(mergePipe.mode(), equalTo((MergeInputPipe.Mode) new MergeInputPipe.SortedBy(2)));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = CommandExecutionException.class)
+    public void mergeModeMustBeKnown() throws DuplicateCommandException, CommandNotFoundException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("merge", null, mAnalysedMethod);
+
+        final CommandPipeline fooSource = new CommandPipeline();
+        fooSource.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addSource(fooSource);
+        pipeline.addCommand(new Command("merge", asList((Object) "shuffled")));
+        wirer.wireCommandPipeline(variableRegistry, pipeline);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void outputFromLastOfSeveralCommandsToVariable() throws CommandNotFoundException, DuplicateCommandException {
+        commandRegistry.registerCommand("foo", null, mAnalysedMethod);
+        commandRegistry.registerCommand("bar", null, mAnalysedMethod);
+        pipeline.addCommand(new Command("foo", EMPTY_LIST));
+        pipeline.addCommand(new Command("bar", EMPTY_LIST));
+        pipeline.setOutputVariable(new VariableReference("var"));
+        scala.collection.immutable.List<CommandHandler> handlers = wirer.wireCommandPipeline(variableRegistry, pipeline);
+        assertThat(handlers.size(), equalTo(2));
+        assertThat(handlers.apply(0).getOutputPipe(), instanceOf(RendezvousPipe.class));
+        assertThat(handlers.apply(1).getOutputPipe(), instanceOf(VariableOutputPipe.class));
+    }
+
     @Test
     public void inputToPipelineFromVariable() throws DuplicateCommandException, CommandNotFoundException {
         commandRegistry.registerCommand("foo", null, mAnalysedMethod);
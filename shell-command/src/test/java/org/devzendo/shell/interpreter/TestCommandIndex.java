@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.shell.PluginVariations.Alias;
+import org.devzendo.shell.PluginVariations.VoidReturnListArgsInputPipeOutputPipeLogVariableRegistry;
+import org.devzendo.shell.PluginVariations.VoidReturnNoArgs;
+import org.devzendo.shell.PluginVariations.VoidReturnScalaListArgsInputPipeOutputPipeLogVariableRegistry;
+import org.junit.Test;
+import scala.Option;
+import scala.collection.immutable.Map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TestCommandIndex {
+    private final PluginMethodScanner scanner = new PluginMethodScanner();
+    private final CommandIndex commandIndex = new CommandIndex();
+
+    @Test
+    public void javaListArgsInputPipeOutputPipeLogVariableRegistryRoundTrip() throws IOException {
+        roundTripMatchesScan(VoidReturnListArgsInputPipeOutputPipeLogVariableRegistry.class);
+    }
+
+    @Test
+    public void scalaListArgsInputPipeOutputPipeLogVariableRegistryRoundTrip() throws IOException {
+        roundTripMatchesScan(VoidReturnScalaListArgsInputPipeOutputPipeLogVariableRegistry.class);
+    }
+
+    @Test
+    public void aliasSharesItsCommandsMethod() throws IOException {
+        final Map<String, AnalysedMethod> indexed = roundTripMatchesScan(Alias.class);
+        assertThat(indexed.apply("jazz"), sameInstance(indexed.apply("funk")));
+    }
+
+    @Test
+    public void staleIndexIsIgnored() throws IOException {
+        final Properties properties = written(VoidReturnNoArgs.class);
+        properties.setProperty(VoidReturnNoArgs.class.getName() + ".funk.method", "renamed");
+        assertThat(commandIndex.read(VoidReturnNoArgs.class, properties).isDefined(), equalTo(false));
+    }
+
+    @Test
+    public void indexOfUnknownFormatIsIgnored() throws IOException {
+        final Properties properties = written(VoidReturnNoArgs.class);
+        properties.setProperty(VoidReturnNoArgs.class.getName() + ".format", "0");
+        assertThat(commandIndex.read(VoidReturnNoArgs.class, properties).isDefined(), equalTo(false));
+    }
+
+    @Test
+    public void pluginNameIsRecorded() throws IOException {
+        final Properties properties = written(VoidReturnNoArgs.class);
+        assertThat(properties.getProperty(VoidReturnNoArgs.class.getName() + ".name"), equalTo("indexed"));
+    }
+
+    @Test
+    public void pluginWithoutIndexMustBeScanned() {
+        assertThat(commandIndex.load(VoidReturnNoArgs.class).isDefined(), equalTo(false));
+    }
+
+    private Properties written(final Class<?> pluginClass) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final scala.collection.immutable.Map<Class<?>, Map<String, AnalysedMethod>> pluginCommands =
+                new scala.collection.immutable.Map.Map1<Class<?>, Map<String, AnalysedMethod>>(pluginClass, scanner.scanPluginClass(pluginClass));
+        final scala.collection.immutable.Map<Class<?>, String> pluginNames =
+                new scala.collection.immutable.Map.Map1<Class<?>, String>(pluginClass, "indexed");
+        commandIndex.write(pluginCommands, pluginNames, outputStream);
+        final Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(outputStream.toByteArray()));
+        return properties;
+    }
+
+    private Map<String, AnalysedMethod> roundTripMatchesScan(final Class<?> pluginClass) throws IOException {
+        final Map<String, AnalysedMethod> scanned = scanner.scanPluginClass(pluginClass);
+        final Option<Map<String, AnalysedMethod>> read = commandIndex.read(pluginClass, written(pluginClass));
+        assertThat(read.isDefined(), equalTo(true));
+        final Map<String, AnalysedMethod> indexed = read.get();
+        assertThat(indexed.keySet(), equalTo(scanned.keySet()));
+        final scala.collection.Iterator<String> names = scanned.keysIterator();
+        while (names.hasNext()) {
+            final String name = names.next();
+            final AnalysedMethod expected = scanned.apply(name);
+            final AnalysedMethod actual = indexed.apply(name);
+            assertThat(actual.getMethod(), equalTo(expected.getMethod()));
+            assertThat(actual.getArgumentsPosition(), equalTo(expected.getArgumentsPosition()));
+            assertThat(actual.getIsScalaArgumentsList(), equalTo(expected.getIsScalaArgumentsList()));
+            assertThat(actual.getInputPipePosition(), equalTo(expected.getInputPipePosition()));
+            assertThat(actual.getOutputPipePosition(), equalTo(expected.getOutputPipePosition()));
+            assertThat(actual.getLogPosition(), equalTo(expected.getLogPosition()));
+            assertThat(actual.getVariableRegistryPosition(), equalTo(expected.getVariableRegistryPosition()));
+            assertThat(actual.getStateless(), equalTo(expected.getStateless()));
+        }
+        return indexed;
+    }
+}
@@ -15,14 +15,27 @@
  */
 package org.devzendo.shell.interpreter;
 
+import org.devzendo.shell.PluginVariations.VoidReturnNoArgs;
 import org.devzendo.shell.plugin.ShellPlugin;
+import org.devzendo.shell.plugin.ShellPluginException;
 import org.junit.Test;
+import scala.runtime.AbstractFunction1;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Properties;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.*;
 
 public class TestCommandRegistry {
@@ -72,6 +85,24 @@ public class TestCommandRegistry {
         assertTrue(registry.exists("exists"));
     }
 
+    @Test
+    public void registrationChangesVersion() throws NoSuchMethodException, DuplicateCommandException {
+        final AnalysedMethod method = analyseMethod(this.getClass().getMethod("registrationChangesVersion"));
+        final long before = registry.getVersion();
+        registry.registerCommand("versioned", shellPluginOne, method);
+        assertThat(registry.getVersion(), not(equalTo(before)));
+    }
+
+    @Test
+    public void resolvedCommandCreatesNewHandlers() throws NoSuchMethodException, DuplicateCommandException, CommandNotFoundException {
+        final AnalysedMethod method = analyseMethod(this.getClass().getMethod("resolvedCommandCreatesNewHandlers"));
+        registry.registerCommand("foo", shellPluginOne, method);
+        final scala.Function0<CommandHandler> createHandler = registry.resolveHandler("foo");
+        final CommandHandler handler = createHandler.apply();
+        assertThat(handler.getName(), equalTo("resolvedCommandCreatesNewHandlers"));
+        assertThat(createHandler.apply(), not(sameInstance(handler)));
+    }
+
     @Test
     public void getRegisteredCommandYieldsHandler() throws SecurityException, NoSuchMethodException, CommandNotFoundException {
         final AnalysedMethod method = analyseMethod(this.getClass().getMethod("getRegisteredCommandYieldsHandler"));
@@ -118,6 +149,114 @@ public class TestCommandRegistry {
         }
     }
 
+    @Test
+    public void deferredCommandExistsWithoutLoadingItsPlugin() throws DuplicateCommandException {
+        final int[] loads = new int[1];
+        final DeferredPlugin deferredPlugin = deferredPlugin(loads, false);
+        registry.registerDeferredCommand("funk", deferredPlugin);
+        assertTrue(registry.exists("funk"));
+        assertThat(registry.getNames().get("funk").get(), equalTo(VoidReturnNoArgs.class.getName()));
+        assertThat(loads[0], equalTo(0));
+        assertFalse(deferredPlugin.isLoaded());
+    }
+
+    @Test
+    public void getDeferredCommandLoadsItsPluginOnce() throws DuplicateCommandException, CommandNotFoundException {
+        final int[] loads = new int[1];
+        final DeferredPlugin deferredPlugin = deferredPlugin(loads, false);
+        registry.registerDeferredCommand("funk", deferredPlugin);
+        assertThat(registry.getHandler("funk"), notNullValue());
+        assertThat(registry.getHandler("funk"), notNullValue());
+        assertThat(loads[0], equalTo(1));
+        assertTrue(deferredPlugin.isLoaded());
+    }
+
+    @Test
+    public void getDeferredCommandWhosePluginFailsToLoadYieldsException() throws DuplicateCommandException {
+        final int[] loads = new int[1];
+        registry.registerDeferredCommand("funk", deferredPlugin(loads, true));
+        try {
+            registry.getHandler("funk");
+            fail("Should have thrown on a plugin that could not be loaded");
+        } catch (CommandNotFoundException cnfe) {
+            assertThat(cnfe.getMessage(), equalTo("'funk' could not be loaded: no such plugin"));
+        }
+    }
+
+    @Test
+    public void getDeferredCommandMissingFromItsLoadedPluginYieldsException() throws DuplicateCommandException {
+        final int[] loads = new int[1];
+        registry.registerDeferredCommand("soul", deferredPlugin(loads, false));
+        try {
+            registry.getHandler("soul");
+            fail("Should have thrown on a command the plugin does not have");
+        } catch (CommandNotFoundException cnfe) {
+            assertThat(cnfe.getMessage(),
+                equalTo("'soul' could not be loaded: Plugin 'test' has no command 'soul'; its command index is stale"));
+        }
+    }
+
+    @Test
+    public void deferredCommandIsReportedByItsIndexedPluginName() throws IOException, NoSuchMethodException, DuplicateCommandException {
+        final File classpathDirectory = Files.createTempDirectory("testcommandregistry").toFile();
+        final File indexFile = new File(classpathDirectory, CommandIndex.RESOURCE());
+        try {
+            final String prefix = VoidReturnNoArgs.class.getName() + ".";
+            final Properties index = new Properties();
+            index.setProperty(prefix + "format", CommandIndex.FORMAT());
+            index.setProperty(prefix + "name", "indexed");
+            index.setProperty(prefix + "commands", "funk");
+            assertTrue(indexFile.getParentFile().mkdirs());
+            final OutputStream outputStream = new FileOutputStream(indexFile);
+            try {
+                index.store(outputStream, null);
+            } finally {
+                outputStream.close();
+            }
+            final CommandIndex commandIndex = new CommandIndex(new URLClassLoader(new URL[] {classpathDirectory.toURI().toURL()}, null));
+            final int[] loads = new int[1];
+            registry.registerDeferredCommand("funk", deferredPlugin(loads, false, commandIndex));
+            assertThat(registry.getNames().get("funk").get(), equalTo("indexed"));
+
+            final AnalysedMethod method = analyseMethod(this.getClass().getMethod("deferredCommandIsReportedByItsIndexedPluginName"));
+            try {
+                registry.registerCommand("funk", shellPluginOne, method);
+                fail("Should have thrown on duplicate command");
+            } catch (DuplicateCommandException de) {
+                assertThat(de.getMessage(),
+                    equalTo("Command 'funk' from plugin 'plugin one' is duplicated; initially declared in plugin 'indexed'"));
+            }
+            assertThat(loads[0], equalTo(0));
+        } finally {
+            indexFile.delete();
+            indexFile.getParentFile().delete();
+            classpathDirectory.delete();
+        }
+    }
+
+    private DeferredPlugin deferredPlugin(final int[] loads, final boolean failToLoad) {
+        return deferredPlugin(loads, failToLoad, new CommandIndex());
+    }
+
+    private DeferredPlugin deferredPlugin(final int[] loads, final boolean failToLoad, final CommandIndex commandIndex) {
+        return new DeferredPlugin(VoidReturnNoArgs.class.getName(), new AbstractFunction1<String, ShellPlugin>() {
+            @Override
+            public ShellPlugin apply(final String className) {
+                loads[0]++;
+                if (failToLoad) {
+                    TestCommandRegistry.<RuntimeException>rethrow(new ShellPluginException("no such plugin"));
+                }
+                return new VoidReturnNoArgs();
+            }
+        }, commandIndex);
+    }
+
+    // Scala methods may throw checked exceptions; apply cannot declare them
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void rethrow(final Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+
     private AnalysedMethod analyseMethod(Method method) {
         return (AnalysedMethod) new MethodAnalyser().analyseMethod(method).get();
     }
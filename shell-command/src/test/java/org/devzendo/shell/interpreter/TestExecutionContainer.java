@@ -17,12 +17,18 @@ package org.devzendo.shell.interpreter;
 
 import org.devzendo.shell.ScalaListHelper;
 import org.devzendo.shell.ast.VariableReference;
+import org.devzendo.shell.pipe.BufferedPipe;
+import org.devzendo.shell.pipe.CancellablePipe$;
 import org.devzendo.shell.pipe.InputPipe;
+import org.devzendo.shell.pipe.NullInputPipe;
+import org.devzendo.shell.pipe.NullOutputPipe;
 import org.devzendo.shell.pipe.OutputPipe;
 import org.devzendo.shell.pipe.Pipe;
 import org.junit.Test;
 import scala.Option;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
@@ -59,6 +65,53 @@ public class TestExecutionContainer {
         }
     }
 
+    public static final class ProducingCommandHandler extends CommandHandler {
+        private final int mObjects;
+        private Thread mCurrentThread;
+
+        public ProducingCommandHandler(String name, int objects) {
+            super(name, none, none, none, none);
+            mObjects = objects;
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            mCurrentThread = Thread.currentThread();
+            for (int i = 0; i < mObjects; i++) {
+                getOutputPipe().push(i);
+            }
+        }
+
+        public final Thread getExecuteThread() {
+            return mCurrentThread;
+        }
+    }
+
+    public static final class CountingCommandHandler extends CommandHandler {
+        private Thread mCurrentThread;
+        private int mCount;
+
+        public CountingCommandHandler(String name) {
+            super(name, none, none, none, none);
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            mCurrentThread = Thread.currentThread();
+            while (getInputPipe().next().isDefined()) {
+                mCount++;
+            }
+        }
+
+        public final Thread getExecuteThread() {
+            return mCurrentThread;
+        }
+
+        public final int getCount() {
+            return mCount;
+        }
+    }
+
     @Test
     public void zeroCommandsDoNothing() throws CommandExecutionException {
         final scala.collection.immutable.List<CommandHandler> handlers = ScalaListHelper.createList();
@@ -139,6 +192,27 @@ public class TestExecutionContainer {
         assertThat(testCommandHandlerOne.getExecuteThread(), not(equalTo(testCommandHandlerTwo.getExecuteThread())));
     }
     
+    @Test
+    public void multipleCommandsExecuteOnSuppliedStageExecutor() throws CommandExecutionException {
+        final TestCommandHandler testCommandHandlerOne = new TestCommandHandler("one");
+        final TestCommandHandler testCommandHandlerTwo = new TestCommandHandler("two");
+        final scala.collection.immutable.List<CommandHandler> handlers = ScalaListHelper.createList((CommandHandler) testCommandHandlerOne, (CommandHandler) testCommandHandlerTwo);
+        final AtomicInteger executions = new AtomicInteger();
+        final StageExecutor countingExecutor = new StageExecutor() {
+            @Override
+            public void execute(final Runnable command) {
+                executions.incrementAndGet();
+                StageExecutors.ThreadPerStage$.MODULE$.execute(command);
+            }
+        };
+        final ExecutionContainer executionContainer = new ExecutionContainer(handlers, countingExecutor);
+
+        executionContainer.execute();
+
+        assertThat(executions.get(), equalTo(2));
+        assertThat(testCommandHandlerOne.getExecuteThread(), not(equalTo(testCommandHandlerTwo.getExecuteThread())));
+    }
+
     @Test
     public void pipesAreTerminatedAfterExecutionOfMultipleCommands() throws CommandExecutionException {
         final TestCommandHandler testCommandHandlerOne = new TestCommandHandler("one");
@@ -241,6 +315,133 @@ public class TestExecutionContainer {
         assertFalse(globalRegistry.exists(varRef)); // sense the auto-closure
     }
 
+    private scala.collection.immutable.List<CommandHandler> connect(final CommandHandler left, final CommandHandler right, final int capacity) {
+        final BufferedPipe pipe = new BufferedPipe(capacity);
+        left.setInputPipe(new NullInputPipe());
+        left.setOutputPipe(pipe);
+        right.setInputPipe(pipe);
+        right.setOutputPipe(new NullOutputPipe());
+        return ScalaListHelper.createList(left, right);
+    }
+
+    @Test
+    public void smallPipelineExecutesCooperativelyOnCurrentThread() throws CommandExecutionException {
+        final ProducingCommandHandler producer = new ProducingCommandHandler("producer", 10);
+        final CountingCommandHandler consumer = new CountingCommandHandler("consumer");
+        final ExecutionContainer executionContainer = new ExecutionContainer(connect(producer, consumer, 16), StageExecutors.ThreadPerStage$.MODULE$, 2);
+
+        executionContainer.execute();
+
+        assertThat(producer.getExecuteThread(), equalTo(Thread.currentThread()));
+        assertThat(consumer.getExecuteThread(), equalTo(Thread.currentThread()));
+        assertThat(consumer.getCount(), equalTo(10));
+    }
+
+    @Test
+    public void cooperativePipelineStartsRemainingCommandsOnThreadsWhenPipeFills() throws CommandExecutionException {
+        final ProducingCommandHandler producer = new ProducingCommandHandler("producer", 100);
+        final CountingCommandHandler consumer = new CountingCommandHandler("consumer");
+        final ExecutionContainer executionContainer = new ExecutionContainer(connect(producer, consumer, 4), StageExecutors.ThreadPerStage$.MODULE$, 2);
+
+        executionContainer.execute();
+
+        assertThat(producer.getExecuteThread(), equalTo(Thread.currentThread()));
+        assertThat(consumer.getExecuteThread(), not(equalTo(Thread.currentThread())));
+        assertThat(consumer.getCount(), equalTo(100));
+    }
+
+    @Test
+    public void pipelineLongerThanCooperativeLimitExecutesOnThreads() throws CommandExecutionException {
+        final ProducingCommandHandler producer = new ProducingCommandHandler("producer", 10);
+        final CountingCommandHandler consumer = new CountingCommandHandler("consumer");
+        final ExecutionContainer executionContainer = new ExecutionContainer(connect(producer, consumer, 16), StageExecutors.ThreadPerStage$.MODULE$, 1);
+
+        executionContainer.execute();
+
+        assertThat(producer.getExecuteThread(), not(equalTo(Thread.currentThread())));
+        assertThat(consumer.getExecuteThread(), not(equalTo(Thread.currentThread())));
+        assertThat(consumer.getCount(), equalTo(10));
+    }
+
+    @Test
+    public void exceptionMessagesChainedOnFailureOfCooperativeCommands() {
+        final TestCommandHandler testCommandHandlerOne = new TestCommandHandler("one");
+        testCommandHandlerOne.injectCommandFailure();
+        final TestCommandHandler testCommandHandlerTwo = new TestCommandHandler("two");
+        testCommandHandlerTwo.injectCommandFailure();
+        final ExecutionContainer executionContainer = new ExecutionContainer(connect(testCommandHandlerOne, testCommandHandlerTwo, 16), StageExecutors.ThreadPerStage$.MODULE$, 2);
+
+        try {
+            executionContainer.execute();
+            fail("Should have throw a CommandFailureException");
+        } catch (CommandExecutionException e) {
+            assertThat(e.getMessage(), equalTo("Multiple commands failed: fail!!; fail!!"));
+        }
+    }
+
+    public static final class UnboundedProducingCommandHandler extends CommandHandler {
+        private int mPushed;
+
+        public UnboundedProducingCommandHandler(String name) {
+            super(name, none, none, none, none);
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            while (!CancellablePipe$.MODULE$.isCancelled(getOutputPipe())) {
+                getOutputPipe().push(mPushed++);
+            }
+        }
+    }
+
+    public static final class PassingCommandHandler extends CommandHandler {
+        public PassingCommandHandler(String name) {
+            super(name, none, none, none, none);
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            Option<Object> next = getInputPipe().next();
+            while (next.isDefined()) {
+                getOutputPipe().push(next.get());
+                next = getInputPipe().next();
+            }
+        }
+    }
+
+    public static final class TakingCommandHandler extends CommandHandler {
+        public TakingCommandHandler(String name) {
+            super(name, none, none, none, none);
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            for (int i = 0; i < 3; i++) {
+                getInputPipe().next();
+            }
+        }
+    }
+
+    @Test(timeout = 4000)
+    public void cancellationByLastCommandStopsProducerAtStartOfPipeline() throws CommandExecutionException {
+        final UnboundedProducingCommandHandler producer = new UnboundedProducingCommandHandler("producer");
+        final PassingCommandHandler passer = new PassingCommandHandler("passer");
+        final TakingCommandHandler taker = new TakingCommandHandler("taker");
+        final BufferedPipe first = new BufferedPipe(4);
+        final BufferedPipe second = new BufferedPipe(4);
+        producer.setInputPipe(new NullInputPipe());
+        producer.setOutputPipe(first);
+        passer.setInputPipe(first);
+        passer.setOutputPipe(second);
+        taker.setInputPipe(second);
+        taker.setOutputPipe(new NullOutputPipe());
+        final ExecutionContainer executionContainer = new ExecutionContainer(ScalaListHelper.<CommandHandler>createList(producer, passer, taker));
+
+        executionContainer.execute(); // would not return, were the producer not stopped
+
+        assertThat(first.isCancelled(), equalTo(true));
+    }
+
     private VariableReference addVariable() {
         final VariableReference varRef = new VariableReference("localvar");
         final Variable varContents = new Variable();
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.devzendo.shell.interpreter;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.devzendo.commoncode.logging.CapturingAppender;
+import org.devzendo.shell.ShellMain;
+import org.devzendo.shell.pipe.BufferedPipe;
+import org.devzendo.shell.pipe.OptionMatcher;
+import org.devzendo.shell.plugin.ExperimentalShellPlugin;
+import org.junit.Test;
+import scala.Option;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestFusedOutputPipe {
+    private static final Option<Integer> none = Option.apply(null);
+
+    // doubles each object it reads, counting its executions
+    private static final class DoublingCommandHandler extends CommandHandler {
+        private int mExecutions = 0;
+
+        public DoublingCommandHandler() {
+            super("double", none, none, none, none);
+        }
+
+        @Override
+        public void execute() {
+            mExecutions++;
+            Option<Object> next = getInputPipe().next();
+            while (next.isDefined()) {
+                getOutputPipe().push(next.get());
+                getOutputPipe().push(next.get());
+                next = getInputPipe().next();
+            }
+        }
+    }
+
+    private final DoublingCommandHandler handler = new DoublingCommandHandler();
+    private final BufferedPipe downstream = new BufferedPipe(10);
+
+    @Test
+    public void pushesExecuteFusedCommandDirectly() {
+        handler.setOutputPipe(downstream);
+        final FusedOutputPipe pipe = new FusedOutputPipe(handler);
+
+        pipe.push("one");
+        pipe.pushBatch(createObjectList("two", "three"));
+
+        assertThat(handler.mExecutions, equalTo(2));
+        assertThat(downstream.nextBatch(10).size(), equalTo(6));
+    }
+
+    @Test
+    public void endOfStreamEndsFusedCommandsOutput() {
+        handler.setOutputPipe(downstream);
+        final FusedOutputPipe pipe = new FusedOutputPipe(handler);
+
+        pipe.push("one");
+        pipe.setEndOfStream();
+        pipe.push("two");
+
+        assertThat(downstream.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(downstream.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(downstream.next(), OptionMatcher.isNone());
+    }
+
+    @Test
+    public void cancelledWhenFusedCommandsOutputIsCancelled() {
+        handler.setOutputPipe(downstream);
+        final FusedOutputPipe pipe = new FusedOutputPipe(handler);
+
+        downstream.cancel();
+        pipe.push("one");
+
+        assertThat(pipe.isCancelled(), equalTo(true));
+        assertThat(handler.mExecutions, equalTo(0));
+    }
+
+    @Test
+    public void cancelListenersToldWhenFusedCommandsOutputIsCancelled() {
+        handler.setOutputPipe(downstream);
+        final FusedOutputPipe pipe = new FusedOutputPipe(handler);
+        final boolean[] told = new boolean[1];
+        pipe.onCancel(new scala.runtime.AbstractFunction0<scala.runtime.BoxedUnit>() {
+            @Override
+            public scala.runtime.BoxedUnit apply() {
+                told[0] = true;
+                return scala.runtime.BoxedUnit.UNIT;
+            }
+        });
+
+        downstream.cancel();
+
+        assertThat(told[0], equalTo(true));
+    }
+
+    @Test
+    public void fusedCommandSetsUpOnceForAllPushes() {
+        final ExperimentalShellPlugin plugin = new ExperimentalShellPlugin();
+        final AnalysedMethod filterRegex = new PluginMethodScanner().scanPluginMethods(plugin).apply("filterRegex");
+        final CommandHandler fusedHandler = new CommandHandlerFactory().createHandler(plugin, filterRegex);
+        fusedHandler.setArgs(createObjectList("(", "a.*"));
+        fusedHandler.setOutputPipe(downstream);
+        final FusedOutputPipe pipe = new FusedOutputPipe(fusedHandler);
+        final CapturingAppender capturingAppender = new CapturingAppender();
+        final Logger logger = Logger.getLogger(ShellMain.class);
+        logger.addAppender(capturingAppender);
+        try {
+            pipe.push("apple");
+            pipe.push("banana");
+            pipe.push("avocado");
+        } finally {
+            logger.removeAppender(capturingAppender);
+        }
+
+        int warnings = 0;
+        for (final LoggingEvent event : capturingAppender.getEvents()) {
+            if (event.getLevel() == Level.WARN) {
+                warnings++;
+            }
+        }
+        assertThat(warnings, equalTo(1));
+        assertThat(downstream.nextBatch(10).size(), equalTo(2));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.devzendo.shell.ScalaListHelper;
+import org.devzendo.shell.pipe.NullInputPipe;
+import org.devzendo.shell.pipe.VariableOutputPipe;
+import org.devzendo.shell.plugin.BasicOperatorsPlugin;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.collection.immutable.List;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class TestMonomorphicOperators {
+    private static final scala.Option<VariableRegistry> noneVariableRegistry = scala.Option.apply(null);
+    private final BasicOperatorsPlugin plugin = new BasicOperatorsPlugin();
+    private final scala.collection.immutable.Map<String, AnalysedMethod> methods = new PluginMethodScanner().scanPluginMethods(plugin);
+    private final CommandHandlerFactory factory = new CommandHandlerFactory();
+
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @Test
+    public void onlyArithmeticOperatorsOnIntegersOrDoublesAreMonomorphic() {
+        assertThat(MonomorphicOperators$.MODULE$.lookup("+", Integer.class).isDefined(), equalTo(true));
+        assertThat(MonomorphicOperators$.MODULE$.lookup("/", Double.class).isDefined(), equalTo(true));
+        assertThat(MonomorphicOperators$.MODULE$.lookup("%", Double.class).isDefined(), equalTo(false));
+        assertThat(MonomorphicOperators$.MODULE$.lookup("+", String.class).isDefined(), equalTo(false));
+        assertThat(MonomorphicOperators$.MODULE$.lookup("==", Integer.class).isDefined(), equalTo(false));
+        assertThat(MonomorphicOperators$.MODULE$.lookup("+", null).isDefined(), equalTo(false));
+    }
+
+    @Test
+    public void integerOperandsGiveTheGeneralOperatorsResults() throws CommandExecutionException {
+        for (final String operator : new String[] {"+", "-", "*", "/", "%"}) {
+            assertSameAsGeneral(operator, Integer.class, createObjectList(variable(7, 8, 9), variable(2, 3), 4));
+            assertSameAsGeneral(operator, Integer.class, createObjectList(variable(7, -8, 9)));
+        }
+    }
+
+    @Test
+    public void doubleOperandsGiveTheGeneralOperatorsResults() throws CommandExecutionException {
+        for (final String operator : new String[] {"+", "-", "*", "/"}) {
+            assertSameAsGeneral(operator, Double.class, createObjectList(variable(7.5, 8.0, 0.0), variable(2.0, 3.25), 4.0));
+            assertSameAsGeneral(operator, Double.class, createObjectList(variable(7.5, -8.0, 0.0)));
+        }
+    }
+
+    @Test
+    public void operandsOfAnotherTypeAreGivenToTheGeneralOperator() throws CommandExecutionException {
+        assertSameAsGeneral("+", Integer.class, createObjectList(variable(1, 2), "a"));
+        assertSameAsGeneral("*", Double.class, createObjectList(variable(1.5, 2.5), 2));
+    }
+
+    @Test
+    public void integerDivisionByZeroFailsAsTheGeneralOperatorDoes() {
+        try {
+            execute(monomorphic("/", Integer.class), createObjectList(1, 0));
+            fail("Expected a CommandExecutionException");
+        } catch (CommandExecutionException e) {
+            assertThat(e.getMessage(), equalTo("/ by zero"));
+        }
+    }
+
+    private void assertSameAsGeneral(final String operator, final Class<?> operandType, final List<Object> args) throws CommandExecutionException {
+        final List<Object> expected = execute(general(operator), args);
+        assertThat(execute(monomorphic(operator, operandType), args), equalTo(expected));
+    }
+
+    private CommandHandler general(final String operator) {
+        return factory.createHandler(plugin, methods.get(operator).get());
+    }
+
+    private CommandHandler monomorphic(final String operator, final Class<?> operandType) {
+        return MonomorphicOperators$.MODULE$.createHandler(
+                MonomorphicOperators$.MODULE$.lookup(operator, operandType).get(), general(operator));
+    }
+
+    private List<Object> execute(final CommandHandler handler, final List<Object> args) throws CommandExecutionException {
+        final Variable output = new Variable();
+        handler.setArgs(args);
+        handler.setInputPipe(new NullInputPipe());
+        handler.setOutputPipe(new VariableOutputPipe(output));
+        handler.setVariableRegistry(new DefaultVariableRegistry(noneVariableRegistry));
+        handler.execute();
+        return output.asList();
+    }
+
+    private Variable variable(final Object... values) {
+        final Variable variable = new Variable();
+        for (final Object value : values) {
+            variable.add(value);
+        }
+        return variable;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.devzendo.shell.interpreter;
+
+import org.devzendo.shell.ScalaListHelper;
+import org.devzendo.shell.pipe.BufferedPipe;
+import org.devzendo.shell.pipe.NullInputPipe;
+import org.devzendo.shell.pipe.NullOutputPipe;
+import org.devzendo.shell.pipe.OptionMatcher;
+import org.junit.Test;
+import scala.Option;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class TestParallelCommandHandler {
+    private static final Option<Integer> none = Option.apply(null);
+    private static final Option<Integer> some = Option.apply(0);
+    private static final int OBJECTS = 2000;
+
+    // passes on even numbers; the first copy to execute is slow, so that
+    // chunks complete out of order
+    private static final class EvenCommandHandler extends CommandHandler {
+        private final boolean mSlow;
+
+        public EvenCommandHandler(final boolean slow) {
+            super("even", none, some, some, none);
+            mSlow = slow;
+        }
+
+        @Override
+        public void execute() throws CommandExecutionException {
+            Option<Object> next = getInputPipe().next();
+            while (next.isDefined()) {
+                final Integer number = (Integer) next.get();
+                if (number < 0) {
+                    throw new CommandExecutionException("negative!");
+                }
+                if (number % 2 == 0) {
+                    getOutputPipe().push(number);
+                }
+                next = getInputPipe().next();
+            }
+            if (mSlow) {
+                try {
+                    Thread.sleep(5);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private final BufferedPipe input = new BufferedPipe(OBJECTS + 1);
+    private final BufferedPipe output = new BufferedPipe(OBJECTS + 1);
+
+    private ParallelCommandHandler parallel(final int copies, final boolean ordered) {
+        final List<CommandHandler> handlers = new ArrayList<CommandHandler>();
+        for (int i = 0; i < copies; i++) {
+            handlers.add(new EvenCommandHandler(i == 0));
+        }
+        final ParallelCommandHandler handler = new ParallelCommandHandler(
+                ScalaListHelper.createList(handlers.toArray(new CommandHandler[copies])),
+                ordered, StageExecutors.ThreadPerStage$.MODULE$);
+        handler.setInputPipe(input);
+        handler.setOutputPipe(output);
+        return handler;
+    }
+
+    private void pushNumbers(final int from) {
+        for (int i = from; i < from + OBJECTS; i++) {
+            input.push(i);
+        }
+        input.setEndOfStream();
+    }
+
+    private List<Object> received() {
+        final List<Object> objects = new ArrayList<Object>();
+        Option<Object> next = output.next();
+        while (next.isDefined()) {
+            objects.add(next.get());
+            next = output.next();
+        }
+        return objects;
+    }
+
+    @Test(timeout = 10000)
+    public void orderedOutputIsInInputOrder() throws CommandExecutionException {
+        pushNumbers(0);
+
+        parallel(4, true).executeAndTerminatePipes();
+
+        final List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < OBJECTS; i += 2) {
+            expected.add(i);
+        }
+        assertThat(received(), equalTo(expected));
+    }
+
+    @Test(timeout = 10000)
+    public void unorderedOutputHasAllObjects() throws CommandExecutionException {
+        pushNumbers(0);
+
+        parallel(4, false).executeAndTerminatePipes();
+
+        final List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < OBJECTS; i += 2) {
+            expected.add(i);
+        }
+        assertThat(received(), containsInAnyOrder(expected.toArray()));
+    }
+
+    @Test(timeout = 10000)
+    public void failureOfACopyFailsTheCommand() {
+        pushNumbers(-1);
+
+        try {
+            parallel(2, true).executeAndTerminatePipes();
+            fail("Should have thrown a CommandExecutionException");
+        } catch (final CommandExecutionException e) {
+            assertThat(e.getMessage(), equalTo("negative!"));
+        }
+        assertThat(input.isCancelled(), equalTo(true));
+    }
+
+    @Test(timeout = 10000)
+    public void failureOfACopysSubCommandOnEmptyInputFailsTheCommand() {
+        input.setEndOfStream();
+        final ParallelCommandHandler handler = parallel(2, true);
+        final CommandHandler failing = new CommandHandler("fail", none, none, none, none) {
+            @Override
+            public void execute() throws CommandExecutionException {
+                throw new CommandExecutionException("sub-command failed");
+            }
+        };
+        failing.setInputPipe(new NullInputPipe());
+        failing.setOutputPipe(new NullOutputPipe());
+        handler.copies().last().setSubCommandHandlers(ScalaListHelper.createList(Option.apply(failing)));
+
+        try {
+            handler.executeAndTerminatePipes();
+            fail("Should have thrown a CommandExecutionException");
+        } catch (final CommandExecutionException e) {
+            assertThat(e.getMessage(), equalTo("sub-command failed"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void stopsReadingInputWhenOutputCancelled() throws CommandExecutionException {
+        pushNumbers(0);
+        output.cancel();
+
+        parallel(2, true).executeAndTerminatePipes();
+
+        assertThat(input.isCancelled(), equalTo(true));
+        assertThat(output.next(), OptionMatcher.isNone());
+    }
+}
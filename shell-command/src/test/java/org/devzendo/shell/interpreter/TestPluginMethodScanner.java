@@ -40,6 +40,12 @@ public class TestPluginMethodScanner {
         positionsAre(analysedMethod, none, none, none, none, none);
     }
     
+    @Test
+    public void voidReturnNoArgsOkStaticNotScanned() {
+        final AnalysedMethod analysedMethod = getAnalysedMethod(scanner.scanPluginMethods(new VoidReturnNoArgsStaticNotScanned()));
+        positionsAre(analysedMethod, none, none, none, none, none);
+    }
+
     @Test
     public void voidReturnNoArgsBadSignature() {
         final Map<String, AnalysedMethod> map = scanner.scanPluginMethods(new VoidReturnNoArgsBadSignature());
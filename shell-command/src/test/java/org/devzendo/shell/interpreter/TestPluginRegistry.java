@@ -23,6 +23,9 @@ import org.devzendo.shell.plugin.ShellPluginException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.fail;
@@ -103,4 +106,69 @@ public class TestPluginRegistry {
             assertThat(e.getMessage(), equalTo("Command 'foo' from plugin 'plugin two' is duplicated; initially declared in plugin 'plugin one'"));
         }
     }
+
+    @Test
+    public void duplicateCommandThrowsInPluginOrderWhenStartedConcurrently() {
+        final ShellPlugin slowPluginOne = new ShellPlugin() {
+            @SuppressWarnings("unused")
+            public void foo() {
+            }
+
+            @Override
+            public String getName() {
+                return "plugin one";
+            }
+
+            @Override
+            public void initialise(final ExecutionEnvironment env) {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    // finish early
+                }
+            }
+        };
+        final DefaultPluginRegistry pluginRegistry = getConcurrentPluginRegistry();
+        try {
+            pluginRegistry.loadAndRegisterPluginMethods(ScalaListHelper.createList(slowPluginOne, shellPluginTwo));
+            fail("Should have thrown a ShellPluginexception registering plugins with duplicate command names");
+        } catch (final ShellPluginException e) {
+            assertThat(e.getMessage(), equalTo("Command 'foo' from plugin 'plugin two' is duplicated; initially declared in plugin 'plugin one'"));
+        }
+    }
+
+    @Test
+    public void pluginsInitialisedConcurrently() throws ShellPluginException {
+        final CountDownLatch bothInitialising = new CountDownLatch(2);
+        final DefaultPluginRegistry pluginRegistry = getConcurrentPluginRegistry();
+        pluginRegistry.loadAndRegisterPluginMethods(ScalaListHelper.createList(
+            awaitingPlugin("plugin one", bothInitialising), awaitingPlugin("plugin two", bothInitialising)));
+        assertThat(bothInitialising.getCount(), equalTo(0L));
+        assertThat(pluginRegistry.getPlugins().size(), equalTo(2));
+    }
+
+    private DefaultPluginRegistry getConcurrentPluginRegistry() {
+        final DefaultPluginRegistry pluginRegistry = (DefaultPluginRegistry) getPluginRegistry("org/devzendo/shell/testpluginregistrar-no-plugins.properties");
+        pluginRegistry.setStartupThreads(4);
+        return pluginRegistry;
+    }
+
+    private ShellPlugin awaitingPlugin(final String name, final CountDownLatch latch) {
+        return new ShellPlugin() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void initialise(final ExecutionEnvironment env) {
+                latch.countDown();
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    // the count is checked
+                }
+            }
+        };
+    }
 }
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.devzendo.shell.interpreter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+
+public class TestStagePool {
+    private StagePool pool = new StagePool("test", 1);
+
+    @After
+    public void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustHaveAWorker() {
+        new StagePool("bad", 0);
+    }
+
+    @Test(timeout = 4000)
+    public void workerThreadsAreNamedAfterThePoolAndReused() throws InterruptedException {
+        final String[] threadNames = new String[2];
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            final CountDownLatch done = new CountDownLatch(1);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadNames[index] = Thread.currentThread().getName();
+                    done.countDown();
+                }
+            });
+            done.await();
+            // let the worker return to the pool
+            while (pool.activeWorkers() != 0) {
+                Thread.sleep(10);
+            }
+        }
+        assertThat(threadNames[0], equalTo("test-stage-1"));
+        assertThat(threadNames[1], equalTo("test-stage-1"));
+    }
+
+    @Test(timeout = 4000)
+    public void moreBlockedStagesThanWorkersDoNotDeadlock() throws InterruptedException {
+        // each stage waits for all the others to start, as stages connected
+        // by pipes would
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final CountDownLatch allFinished = new CountDownLatch(3);
+        final String[] threadNames = new String[3];
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadNames[index] = Thread.currentThread().getName();
+                    allStarted.countDown();
+                    try {
+                        allStarted.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    allFinished.countDown();
+                }
+            });
+        }
+        assertThat(allFinished.await(3, TimeUnit.SECONDS), equalTo(true));
+        assertThat(threadNames[0], equalTo("test-stage-1"));
+        assertThat(threadNames[1], startsWith("test-overflow-"));
+        assertThat(threadNames[2], startsWith("test-overflow-"));
+        assertThat(pool.overflowStarted(), equalTo(2));
+        assertThat(pool.queueDepth(), equalTo(0));
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.interpreter;
+
+import org.junit.Test;
+import scala.Option;
+import scala.Tuple2;
+import scala.runtime.AbstractFunction0;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class TestStartupTimes {
+    private final StartupTimes startupTimes = new StartupTimes();
+
+    @Test
+    public void phasesAreListedInTheOrderTheyStarted() {
+        startupTimes.time("outer", new AbstractFunction0<Object>() {
+            @Override
+            public Object apply() {
+                return startupTimes.time("inner", sleeping(20));
+            }
+        });
+        final scala.collection.immutable.List<Tuple2<String, Option<Object>>> phases = startupTimes.getPhases();
+        assertThat(phases.size(), equalTo(2));
+        assertThat(phases.apply(0)._1(), equalTo("outer"));
+        assertThat(phases.apply(1)._1(), equalTo("inner"));
+        final long outer = (Long) phases.apply(0)._2().get();
+        final long inner = (Long) phases.apply(1)._2().get();
+        assertThat(inner, greaterThanOrEqualTo(20000000L));
+        assertThat(outer, greaterThanOrEqualTo(inner));
+    }
+
+    @Test
+    public void phaseIsTimedEvenIfItFails() {
+        try {
+            startupTimes.time("failing", new AbstractFunction0<Object>() {
+                @Override
+                public Object apply() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        assertThat(startupTimes.getPhases().apply(0)._2().isDefined(), equalTo(true));
+    }
+
+    @Test
+    public void reportFramesPhasesWithJvmStartAndReadiness() {
+        startupTimes.time("phase", sleeping(1));
+        startupTimes.ready();
+        final scala.collection.immutable.List<String> report = startupTimes.report();
+        assertThat(report.size(), equalTo(3));
+        assertThat(report.apply(0), endsWith("  JVM start to main"));
+        assertThat(report.apply(1), endsWith(" ms  phase"));
+        assertThat(report.apply(1), containsString("+"));
+        assertThat(report.apply(2), endsWith(" ms  main to ready"));
+    }
+
+    @Test
+    public void onlyFirstReadinessCounts() throws InterruptedException {
+        startupTimes.ready();
+        final String first = startupTimes.report().last();
+        Thread.sleep(20);
+        startupTimes.ready();
+        assertThat(startupTimes.report().last(), equalTo(first));
+    }
+
+    @Test
+    public void unfinishedPhaseHasNoTime() {
+        startupTimes.time("outer", new AbstractFunction0<Object>() {
+            @Override
+            public Object apply() {
+                assertThat(startupTimes.getPhases().apply(0)._2().isDefined(), equalTo(false));
+                assertThat(startupTimes.report().apply(1), endsWith("-  outer"));
+                return null;
+            }
+        });
+    }
+
+    private AbstractFunction0<Object> sleeping(final long millis) {
+        return new AbstractFunction0<Object>() {
+            @Override
+            public Object apply() {
+                try {
+                    Thread.sleep(millis);
+                } catch (final InterruptedException e) {
+                    // shorter, then
+                }
+                return null;
+            }
+        };
+    }
+}
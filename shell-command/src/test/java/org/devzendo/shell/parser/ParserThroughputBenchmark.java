@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.devzendo.shell.parser;
+
+import org.devzendo.shell.analyser.SemanticAnalyser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Not a unit test: measures how many characters per second of generated
+ * scripts can be parsed, for scripts of many simple statements, and for
+ * statements whose commands are nested several deep in (sub-commands).
+ * The parse cache is disabled, so every parse is measured.
+ *
+ * Run with: java -cp ... org.devzendo.shell.parser.ParserThroughputBenchmark [statements] [nesting]
+ */
+public class ParserThroughputBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(final String[] args) throws CommandParserException {
+        final int statements = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int nesting = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final Set<String> commands = new HashSet<String>(Arrays.asList("count", "map", "filter", "echo", "+", "*"));
+        final ExistenceChecker commandExists = new ExistenceChecker() {
+            @Override
+            public boolean exists(final String name) {
+                return commands.contains(name);
+            }
+        };
+        final CommandParser parser = new CommandParser(commandExists, false, new SemanticAnalyser(commandExists), 0);
+
+        final StringBuilder flat = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            flat.append("v").append(i).append(" = ").append(i).append(" + 1;\n");
+            flat.append("count 1 10 | map { echo \"x\" } | filter -odd true > w").append(i).append(";\n");
+        }
+        final StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < statements / 10; i++) {
+            String command = "1 + 2";
+            for (int depth = 0; depth < nesting; depth++) {
+                command = "(" + command + ")";
+            }
+            nested.append("echo ").append(command).append(";\n");
+        }
+
+        report("flat", parser, flat.toString());
+        report("nested " + nesting, parser, nested.toString());
+    }
+
+    private static void report(final String name, final CommandParser parser, final String script) throws CommandParserException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            parser.parse(script);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %,10d chars %,8d ms %,12d chars/s%n", name, script.length(), best / 1000000, (long) (script.length() / (best / 1e9)));
+    }
+}
@@ -194,6 +194,92 @@ public class TestCommandParser {
         assertThat(pipeline.getOutputVariable(), nullValue());
     }
 
+    @Test
+    public void fanOutToBranches() throws CommandParserException {
+        addValidCommands("foo", "bar", "baz", "quux");
+
+        final CommandPipeline pipeline = (CommandPipeline) parser.parse("foo | bar | [baz | quux] [quux > var]").apply(0);
+        final scala.collection.immutable.List<Command> cmds = pipeline.getCommands();
+        assertThat(cmds.size(), equalTo(2));
+        assertThat(cmds.apply(0).getName(), equalTo("foo"));
+        assertThat(cmds.apply(1).getName(), equalTo("bar"));
+        assertThat(pipeline.getOutputVariable(), nullValue());
+
+        final scala.collection.immutable.List<CommandPipeline> branches = pipeline.getBranches();
+        assertThat(branches.size(), equalTo(2));
+        final scala.collection.immutable.List<Command> firstBranchCmds = branches.apply(0).getCommands();
+        assertThat(firstBranchCmds.size(), equalTo(2));
+        assertThat(firstBranchCmds.apply(0).getName(), equalTo("baz"));
+        assertThat(firstBranchCmds.apply(1).getName(), equalTo("quux"));
+        assertThat(branches.apply(0).getOutputVariable(), nullValue());
+        final scala.collection.immutable.List<Command> secondBranchCmds = branches.apply(1).getCommands();
+        assertThat(secondBranchCmds.size(), equalTo(1));
+        assertThat(secondBranchCmds.apply(0).getName(), equalTo("quux"));
+        assertThat(branches.apply(1).getOutputVariable().variableName(), equalTo("var"));
+    }
+
+    @Test
+    public void fanOutDirectlyAfterFirstCommand() throws CommandParserException {
+        addValidCommands("foo", "bar");
+
+        final CommandPipeline pipeline = (CommandPipeline) parser.parse("foo | [bar]").apply(0);
+        assertThat(pipeline.getCommands().size(), equalTo(1));
+        assertThat(pipeline.getBranches().size(), equalTo(1));
+        assertThat(pipeline.getBranches().apply(0).getCommands().apply(0).getName(), equalTo("bar"));
+    }
+
+    @Test
+    public void fanOutCannotAlsoStoreIntoVariable() throws CommandParserException {
+        addValidCommands("foo", "bar");
+
+        exception.expect(CommandParserException.class);
+        parser.parse("foo | [bar] > var");
+    }
+
+    @Test
+    public void branchVariableCannotHaveSameNameAsCommand() throws CommandParserException {
+        addValidCommands("foo", "bar");
+
+        exception.expect(CommandParserException.class);
+        exception.expectMessage("Variable 'foo' cannot have the same name as a command");
+        parser.parse("foo | [bar > foo]");
+    }
+
+    @Test
+    public void sourcesMergedIntoPipeline() throws CommandParserException {
+        addValidCommands("foo", "bar", "baz", "merge");
+
+        final CommandPipeline pipeline = (CommandPipeline) parser.parse("[foo] [bar | baz] | merge sorted | baz > var").apply(0);
+        final scala.collection.immutable.List<CommandPipeline> sources = pipeline.getSources();
+        assertThat(sources.size(), equalTo(2));
+        assertThat(sources.apply(0).getCommands().size(), equalTo(1));
+        assertThat(sources.apply(0).getCommands().apply(0).getName(), equalTo("foo"));
+        assertThat(sources.apply(1).getCommands().size(), equalTo(2));
+        assertThat(sources.apply(1).getCommands().apply(1).getName(), equalTo("baz"));
+        final scala.collection.immutable.List<Command> cmds = pipeline.getCommands();
+        assertThat(cmds.size(), equalTo(2));
+        assertThat(cmds.apply(0).getName(), equalTo("merge"));
+        assertThat(cmds.apply(1).getName(), equalTo("baz"));
+        assertThat(pipeline.getOutputVariable().variableName(), equalTo("var"));
+    }
+
+    @Test
+    public void sourcesAloneArePipeline() throws CommandParserException {
+        addValidCommands("foo", "bar");
+
+        final CommandPipeline pipeline = (CommandPipeline) parser.parse("[foo] [bar]").apply(0);
+        assertThat(pipeline.getSources().size(), equalTo(2));
+        assertThat(pipeline.getCommands().size(), equalTo(0));
+    }
+
+    @Test
+    public void sourceCannotStoreIntoVariable() throws CommandParserException {
+        addValidCommands("foo", "bar");
+
+        exception.expect(CommandParserException.class);
+        parser.parse("[foo > var] [bar]");
+    }
+
     private void checkVariableStoring(CommandPipeline pipeline) {
         final scala.collection.immutable.List<Command> cmds = pipeline.getCommands();
         assertThat(cmds.size(), equalTo(1));
@@ -675,5 +761,91 @@ public class TestCommandParser {
         barCommandArgs.addAll(asList(3));
         assertThat(barCommand.getArgs(), equalTo(barCommandArgs));
     }
-}
 
+    private long commandsVersion = 0;
+
+    final ExistenceChecker versionedCommandExistenceChecker = new ExistenceChecker() {
+
+        @Override
+        public boolean exists(String name) {
+            return validCommands.contains(name);
+        }
+
+        @Override
+        public scala.Option<Object> version() {
+            return scala.Option.apply((Object) commandsVersion);
+        }
+    };
+
+    private CommandParser cachingParser(final int cacheSize) {
+        return new CommandParser(versionedCommandExistenceChecker, debugParser,
+                new SemanticAnalyser(versionedCommandExistenceChecker), cacheSize);
+    }
+
+    @Test
+    public void repeatedParseIsAnsweredFromTheCache() throws CommandParserException {
+        addValidCommands("foo");
+        final CommandParser cachingParser = cachingParser(2);
+        final scala.collection.immutable.List<Statement> first = cachingParser.parse("foo 1");
+        assertThat(cachingParser.parse(" foo 1  "), sameInstance(first));
+        assertThat(cachingParser.getCacheHits(), equalTo(1L));
+        assertThat(cachingParser.getCacheMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void parsesAreNotCachedWithoutAVersion() throws CommandParserException {
+        addValidCommands("foo");
+        final scala.collection.immutable.List<Statement> first = parser.parse("foo 1");
+        assertThat(parser.parse("foo 1"), not(sameInstance(first)));
+        assertThat(parser.getCacheHits(), equalTo(0L));
+    }
+
+    @Test
+    public void changeOfVersionEmptiesTheCache() throws CommandParserException {
+        final CommandParser cachingParser = cachingParser(2);
+        final CommandPipeline before = (CommandPipeline) cachingParser.parse("foo").apply(0);
+        assertThat(before.getCommands().apply(0).getName(), equalTo("eval"));
+
+        addValidCommands("foo");
+        commandsVersion++;
+        final CommandPipeline after = (CommandPipeline) cachingParser.parse("foo").apply(0);
+        assertThat(after.getCommands().apply(0).getName(), equalTo("foo"));
+        assertThat(cachingParser.getCacheHits(), equalTo(0L));
+        assertThat(cachingParser.cacheStatistics().contains("invalidations=1"), equalTo(true));
+    }
+
+    @Test
+    public void leastRecentlyUsedParseIsEvicted() throws CommandParserException {
+        addValidCommands("foo");
+        final CommandParser cachingParser = cachingParser(2);
+        final scala.collection.immutable.List<Statement> one = cachingParser.parse("foo 1");
+        final scala.collection.immutable.List<Statement> two = cachingParser.parse("foo 2");
+        assertThat(cachingParser.parse("foo 1"), sameInstance(one));
+        cachingParser.parse("foo 3"); // evicts foo 2
+
+        assertThat(cachingParser.parse("foo 1"), sameInstance(one));
+        assertThat(cachingParser.parse("foo 2"), not(sameInstance(two)));
+        assertThat(cachingParser.cacheStatistics().contains("size=2"), equalTo(true));
+    }
+
+    @Test(timeout = 10000)
+    public void deeplyParenthesisedCommandParsesInLinearTime() throws CommandParserException {
+        addValidCommands("echo", "+");
+        final StringBuilder input = new StringBuilder("echo ");
+        final int depth = 40;
+        for (int i = 0; i < depth; i++) {
+            input.append('(');
+        }
+        input.append("1 + 2");
+        for (int i = 0; i < depth; i++) {
+            input.append(')');
+        }
+
+        final CommandPipeline pipeline = (CommandPipeline) parser.parse(input.toString()).apply(0);
+        final Command echo = pipeline.getCommands().apply(0);
+        assertThat(echo.getName(), equalTo("echo"));
+        final Command plus = (Command) echo.getArgs().get(0);
+        assertThat(plus.getName(), equalTo("+"));
+        assertThat(plus.getArgs(), equalTo((List<Object>) new ArrayList<Object>(asList(1, 2))));
+    }
+}
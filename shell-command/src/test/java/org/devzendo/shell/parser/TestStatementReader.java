@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.devzendo.shell.parser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestStatementReader {
+
+    private static StatementReader reader(final String script) {
+        return new StatementReader(new StringReader(script));
+    }
+
+    private static scala.Option<String> some(final String statement) {
+        return scala.Option.apply(statement);
+    }
+
+    private static final scala.Option<String> none = scala.Option.empty();
+
+    @Test
+    public void emptyScriptHasNoStatements() throws IOException {
+        assertThat(reader("").nextStatement(), equalTo(none));
+    }
+
+    @Test
+    public void eachLineIsAStatement() throws IOException {
+        final StatementReader statementReader = reader("x = 2 + 3\necho x; echo x\n");
+        assertThat(statementReader.nextStatement(), equalTo(some("x = 2 + 3")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo x; echo x")));
+        assertThat(statementReader.nextStatement(), equalTo(none));
+    }
+
+    @Test
+    public void blankLinesAreSkipped() throws IOException {
+        final StatementReader statementReader = reader("\n   \necho 1\n\n\t\n");
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 1")));
+        assertThat(statementReader.nextStatement(), equalTo(none));
+    }
+
+    @Test
+    public void statementContinuesUntilItsBlockCloses() throws IOException {
+        final StatementReader statementReader = reader("if (true) {\n    echo (1 +\n 2);\n    echo 3\n}\necho 4");
+        assertThat(statementReader.nextStatement(), equalTo(some("if (true) {\n    echo (1 +\n 2);\n    echo 3\n}")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 4")));
+    }
+
+    @Test
+    public void bracketsInStringsAreIgnored() throws IOException {
+        final StatementReader statementReader = reader("echo \"{ \\\" [\"\necho 2");
+        assertThat(statementReader.nextStatement(), equalTo(some("echo \"{ \\\" [\"")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 2")));
+    }
+
+    @Test
+    public void unclosedBracketEndsAtEndOfScript() throws IOException {
+        final StatementReader statementReader = reader("echo 1\nif (true) {\necho 2\n");
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 1")));
+        assertThat(statementReader.nextStatement(), equalTo(some("if (true) {\necho 2")));
+        assertThat(statementReader.nextStatement(), equalTo(none));
+    }
+
+    @Test
+    public void extraClosingBracketEndsTheStatement() throws IOException {
+        final StatementReader statementReader = reader("echo 1 }\necho 2");
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 1 }")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 2")));
+    }
+
+    @Test
+    public void elseBlockOnALaterLineContinuesTheIf() throws IOException {
+        final StatementReader statementReader = reader("if (c) {\n    echo 1\n}\n\n{\n    echo 2\n}\necho 3");
+        assertThat(statementReader.nextStatement(), equalTo(some("if (c) {\n    echo 1\n}\n{\n    echo 2\n}")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 3")));
+        assertThat(statementReader.nextStatement(), equalTo(none));
+    }
+
+    @Test
+    public void pipelineContinuesOnALineStartingWithAPipe() throws IOException {
+        final StatementReader statementReader = reader("count 1 10\n  | head 3;\necho 4");
+        assertThat(statementReader.nextStatement(), equalTo(some("count 1 10\n  | head 3;")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 4")));
+    }
+
+    @Test
+    public void pipelineContinuesAfterALineEndingWithAPipe() throws IOException {
+        final StatementReader statementReader = reader("count 1 10 |\n  head 3\necho 4");
+        assertThat(statementReader.nextStatement(), equalTo(some("count 1 10 |\n  head 3")));
+        assertThat(statementReader.nextStatement(), equalTo(some("echo 4")));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.pipe;
+
+import scala.Option;
+
+/**
+ * Not a unit test: measures how many objects per second can be moved from a
+ * producer thread to a consumer thread through each kind of pipe that can
+ * connect pipeline commands.
+ *
+ * Run with: java -cp ... org.devzendo.shell.pipe.PipeThroughputBenchmark [objects]
+ */
+public class PipeThroughputBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(final String[] args) throws InterruptedException {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final PipeFactory[] factories = new PipeFactory[] {
+                RendezvousPipeFactory$.MODULE$,
+                new BufferedPipeFactory(16),
+                new BufferedPipeFactory(64),
+                new BufferedPipeFactory(256),
+                new RingBufferPipeFactory(64),
+                new RingBufferPipeFactory(256)
+        };
+        for (final PipeFactory factory : factories) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.min(best, timeTransfer(factory, objects));
+            }
+            System.out.printf("%-16s %,12d objects/s%n", factory, (long) (objects / (best / 1e9)));
+        }
+    }
+
+    private static long timeTransfer(final PipeFactory factory, final int objects) throws InterruptedException {
+        final InputPipe inputPipe = factory.createPipe();
+        final OutputPipe outputPipe = (OutputPipe) inputPipe;
+        final Integer payload = 42;
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < objects; i++) {
+                    outputPipe.push(payload);
+                }
+                outputPipe.setTerminated();
+            }
+        });
+        // Consume on a fresh thread each round, so rounds are independent.
+        final int[] received = new int[1];
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Option<Object> next = inputPipe.next();
+                while (next.isDefined()) {
+                    received[0]++;
+                    next = inputPipe.next();
+                }
+            }
+        });
+        final long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        consumer.join();
+        final long elapsed = System.nanoTime() - start;
+        inputPipe.setTerminated();
+        producer.join();
+        if (received[0] != objects) {
+            throw new IllegalStateException("Only received " + received[0] + " of " + objects + " objects");
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.devzendo.shell.pipe;
+
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Rule;
+import org.junit.Test;
+import scala.Option;
+import scala.collection.immutable.List;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestBatchPipes {
+    @Rule
+    public final JUnitRuleMockery context = new JUnitRuleMockery();
+
+    @Test
+    public void singleObjectInputPipeIsAdaptedToBatchesOfOne() {
+        final InputPipe inputPipe = context.mock(InputPipe.class);
+        context.checking(new Expectations() { {
+            oneOf(inputPipe).next(); will(returnValue(Option.apply("hello")));
+            oneOf(inputPipe).next(); will(returnValue(Option.empty()));
+        } });
+
+        final List<Object> batch = BatchInputPipe$.MODULE$.nextBatch(inputPipe, 10);
+        assertThat(batch.size(), equalTo(1));
+        assertThat(batch.apply(0), equalTo((Object) "hello"));
+        assertThat(BatchInputPipe$.MODULE$.nextBatch(inputPipe, 10).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void singleObjectOutputPipeIsAdaptedToPushEachObject() {
+        final OutputPipe outputPipe = context.mock(OutputPipe.class);
+        context.checking(new Expectations() { {
+            oneOf(outputPipe).push("hello");
+            oneOf(outputPipe).push("world");
+        } });
+
+        BatchOutputPipe$.MODULE$.pushBatch(outputPipe, createObjectList("hello", "world"));
+    }
+
+    @Test
+    public void batchPipesAreUsedDirectly() {
+        final BufferedPipe pipe = new BufferedPipe(4);
+        BatchOutputPipe$.MODULE$.pushBatch(pipe, createObjectList("hello", "world"));
+        assertThat(BatchInputPipe$.MODULE$.nextBatch(pipe, 10).size(), equalTo(2));
+    }
+}
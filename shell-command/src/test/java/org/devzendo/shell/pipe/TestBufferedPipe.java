@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.pipe;
+
+import org.devzendo.commoncode.concurrency.ThreadUtils;
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Option;
+import scala.collection.immutable.List;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestBufferedPipe {
+    private final BufferedPipe pipe = new BufferedPipe(3);
+
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new BufferedPipe(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(timeout = 4000)
+    public void receiverBlocksUntilObjectPushed() throws InterruptedException {
+        final CountDownLatch stored = new CountDownLatch(1);
+        final Object[] store = new Object[] {null};
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store[0] = pipe.next();
+                stored.countDown();
+            }
+        });
+        receiver.start();
+        pipe.push("hello");
+        stored.await();
+        assertThat((Option<String>) store[0], OptionMatcher.isSome("hello"));
+    }
+
+    @Test(timeout = 4000)
+    public void pushesUpToCapacityDoNotBlock() {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.push("three");
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("two"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("three"));
+    }
+
+    @Test(timeout = 4000)
+    public void pushBeyondCapacityBlocksUntilReceiverTakes() throws InterruptedException {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.push("three");
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.push("four"); // will block
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        assertThat(outOfPush.getCount(), equalTo(1L));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        outOfPush.await();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("two"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("three"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("four"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(timeout = 4000)
+    public void receiverGetsNoneWhenTerminated() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch stored = new CountDownLatch(1);
+        final Object[] store = new Object[] {"replaced-with-none"};
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                store[0] = pipe.next();
+                stored.countDown();
+            }
+        });
+        receiver.setName("receiver");
+        receiver.start();
+        started.await();
+        ThreadUtils.waitNoInterruption(500); // give it chance to block on
+                                             // next()
+        pipe.setTerminated();
+        stored.await();
+        final Option<Object> option = (Option<Object>) store[0];
+        assertThat(option, OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void objectsPushedBeforeTerminationAreStillReceived() {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.setTerminated();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("two"));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void nextBatchReturnsAllBufferedObjectsUpToMaximum() {
+        pipe.pushBatch(createObjectList("one", "two", "three"));
+        final List<Object> first = pipe.nextBatch(2);
+        assertThat(first.size(), equalTo(2));
+        assertThat(first.apply(0), equalTo((Object) "one"));
+        assertThat(first.apply(1), equalTo((Object) "two"));
+        final List<Object> second = pipe.nextBatch(2);
+        assertThat(second.size(), equalTo(1));
+        assertThat(second.apply(0), equalTo((Object) "three"));
+    }
+
+    @Test(timeout = 4000)
+    public void nextBatchIsEmptyWhenTerminatedAndDrained() {
+        pipe.push("one");
+        pipe.setTerminated();
+        assertThat(pipe.nextBatch(5).size(), equalTo(1));
+        assertThat(pipe.nextBatch(5).isEmpty(), equalTo(true));
+    }
+
+    @Test(timeout = 4000)
+    public void pushBatchBeyondCapacityBlocksUntilReceiverTakes() throws InterruptedException {
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.pushBatch(createObjectList("one", "two", "three", "four")); // will block
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        assertThat(outOfPush.getCount(), equalTo(1L));
+        assertThat(pipe.nextBatch(10).size(), equalTo(3));
+        outOfPush.await();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("four"));
+    }
+
+    @Test(timeout = 4000)
+    public void pushIntoTerminatedPipePushesNothing() {
+        pipe.setTerminated();
+        pipe.push("data");
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void cancellationDiscardsBufferedAndSubsequentObjects() {
+        pipe.push("one");
+        pipe.cancel();
+        pipe.push("two");
+        assertThat(pipe.isCancelled(), equalTo(true));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void pushingThreadWokenWithoutInterruptionWhenPipeCancelled() throws InterruptedException {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.push("three");
+
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final boolean[] interrupted = new boolean[] {true};
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.push("four"); // will block
+                interrupted[0] = Thread.currentThread().isInterrupted();
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        pipe.cancel();
+        outOfPush.await();
+        assertThat(interrupted[0], equalTo(false));
+    }
+
+    @Test(timeout = 4000)
+    public void pushingThreadWokenWhenPipeTerminated() throws InterruptedException {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.push("three"); // does not block, but next push will
+
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.push("four"); // will block
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        pipe.setTerminated();
+        outOfPush.await();
+    }
+
+    @Test(timeout = 4000)
+    public void overflowHandlerCalledOnceWhenPushFindsBufferFull() throws InterruptedException {
+        final int[] overflows = new int[1];
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (pipe.next().isDefined()) {
+                    // drain
+                }
+            }
+        });
+        pipe.setOverflowHandler(new scala.runtime.AbstractFunction0<scala.runtime.BoxedUnit>() {
+            @Override
+            public scala.runtime.BoxedUnit apply() {
+                overflows[0]++;
+                receiver.start();
+                return scala.runtime.BoxedUnit.UNIT;
+            }
+        });
+        pipe.push("one");
+        pipe.push("two");
+        pipe.push("three");
+        assertThat(overflows[0], equalTo(0));
+
+        for (int i = 0; i < 20; i++) {
+            pipe.push("more"); // the first of these starts the receiver
+        }
+        pipe.setEndOfStream();
+        receiver.join();
+
+        assertThat(overflows[0], equalTo(1));
+    }
+
+    private static final class CountingListener extends scala.runtime.AbstractFunction0<scala.runtime.BoxedUnit> {
+        private int mCalls;
+
+        @Override
+        public scala.runtime.BoxedUnit apply() {
+            mCalls++;
+            return scala.runtime.BoxedUnit.UNIT;
+        }
+    }
+
+    @Test(timeout = 4000)
+    public void cancelListenerCalledOnceWhenPipeCancelled() {
+        final CountingListener listener = new CountingListener();
+        pipe.onCancel(listener);
+        assertThat(listener.mCalls, equalTo(0));
+
+        pipe.cancel();
+        pipe.cancel();
+
+        assertThat(listener.mCalls, equalTo(1));
+    }
+
+    @Test(timeout = 4000)
+    public void cancelListenerCalledOnRegistrationIfAlreadyCancelled() {
+        pipe.cancel();
+        final CountingListener listener = new CountingListener();
+
+        pipe.onCancel(listener);
+
+        assertThat(listener.mCalls, equalTo(1));
+    }
+
+    @Test(timeout = 4000)
+    public void cancelListenerNotCalledAtEndOfStream() {
+        final CountingListener listener = new CountingListener();
+        pipe.onCancel(listener);
+
+        pipe.setEndOfStream();
+
+        assertThat(listener.mCalls, equalTo(0));
+    }
+}
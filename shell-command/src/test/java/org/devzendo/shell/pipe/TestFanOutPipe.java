@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.pipe;
+
+import org.junit.Test;
+
+import static org.devzendo.shell.ScalaListHelper.createList;
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestFanOutPipe {
+    private final BufferedPipe first = new BufferedPipe(4);
+    private final BufferedPipe second = new BufferedPipe(4);
+    @SuppressWarnings("unchecked")
+    private final FanOutPipe pipe = new FanOutPipe(createList((OutputPipe) first, (OutputPipe) second));
+
+    @Test(timeout = 4000)
+    public void everyObjectPushedToEveryBranch() {
+        pipe.push("one");
+        pipe.pushBatch(createObjectList("two", "three"));
+
+        assertThat(first.nextBatch(10), equalTo(createObjectList("one", "two", "three")));
+        assertThat(second.nextBatch(10), equalTo(createObjectList("one", "two", "three")));
+    }
+
+    @Test(timeout = 4000)
+    public void endOfStreamEndsEveryBranch() {
+        pipe.push("one");
+        pipe.setEndOfStream();
+
+        assertThat(first.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(first.next(), OptionMatcher.isNone());
+        assertThat(second.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(second.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void cancelledBranchIsNoLongerPushedTo() {
+        first.cancel();
+        for (int i = 0; i < 4; i++) {
+            pipe.push(i); // would block on a full first branch
+        }
+
+        assertThat(pipe.isCancelled(), equalTo(false));
+        assertThat(second.nextBatch(10).size(), equalTo(4));
+    }
+
+    @Test(timeout = 4000)
+    public void cancelledOnceEveryBranchIsCancelled() {
+        final boolean[] told = new boolean[1];
+        pipe.onCancel(new scala.runtime.AbstractFunction0<scala.runtime.BoxedUnit>() {
+            @Override
+            public scala.runtime.BoxedUnit apply() {
+                told[0] = true;
+                return scala.runtime.BoxedUnit.UNIT;
+            }
+        });
+
+        first.cancel();
+        assertThat(pipe.isCancelled(), equalTo(false));
+        assertThat(told[0], equalTo(false));
+
+        second.cancel();
+        assertThat(pipe.isCancelled(), equalTo(true));
+        assertThat(told[0], equalTo(true));
+    }
+}
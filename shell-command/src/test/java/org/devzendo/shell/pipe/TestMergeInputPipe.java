@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.pipe;
+
+import org.junit.Test;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestMergeInputPipe {
+    private static MergeInputPipe mergeOf(final int lanes, final MergeInputPipe.Mode mode) {
+        return new MergeInputPipe(lanes, mode, 4);
+    }
+
+    private static OutputPipe lane(final MergeInputPipe pipe, final int index) {
+        return pipe.lanes().apply(index);
+    }
+
+    private static void pushAndEnd(final MergeInputPipe pipe, final int index, final Object... objs) {
+        for (final Object obj : objs) {
+            lane(pipe, index).push(obj);
+        }
+        lane(pipe, index).setTerminated();
+    }
+
+    @Test(timeout = 4000)
+    public void interleavedTakesFromWhicheverLaneHasObjectsUntilAllEnd() {
+        final MergeInputPipe pipe = mergeOf(2, MergeInputPipe.Interleaved$.MODULE$);
+        pushAndEnd(pipe, 1, "b1", "b2");
+        lane(pipe, 0).push("a1");
+
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList("a1", "b1", "b2")));
+        lane(pipe, 0).setTerminated();
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void roundRobinTakesFromEachLaneInTurnSkippingEndedLanes() {
+        final MergeInputPipe pipe = mergeOf(3, MergeInputPipe.RoundRobin$.MODULE$);
+        pushAndEnd(pipe, 0, "a1", "a2", "a3");
+        pushAndEnd(pipe, 1, "b1");
+        pushAndEnd(pipe, 2, "c1", "c2");
+
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList("a1", "b1", "c1", "a2", "c2", "a3")));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void roundRobinWaitsForTheLaneWhoseTurnItIs() throws InterruptedException {
+        final MergeInputPipe pipe = mergeOf(2, MergeInputPipe.RoundRobin$.MODULE$);
+        lane(pipe, 0).push("a1");
+        lane(pipe, 0).push("a2");
+
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList("a1")));
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pushAndEnd(pipe, 1, "b1");
+            }
+        });
+        pusher.start();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("b1"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("a2"));
+        pusher.join();
+    }
+
+    @Test(timeout = 4000)
+    public void sortedMergesSortedLanesByKey() {
+        final MergeInputPipe pipe = mergeOf(3, MergeInputPipe.Sorted$.MODULE$);
+        pushAndEnd(pipe, 0, 1, 4, 9);
+        pushAndEnd(pipe, 1, 2, 3, 10);
+        pushAndEnd(pipe, 2);
+
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList(1, 2, 3, 4, 9, 10)));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void sortedByMergesSortedLanesByTheNumberedElement() {
+        final MergeInputPipe pipe = mergeOf(2, new MergeInputPipe.SortedBy(2));
+        final Object a = createObjectList("a", "10:01");
+        final Object b = createObjectList("b", "10:02");
+        final Object c = createObjectList("c", "10:03");
+        pushAndEnd(pipe, 0, c);
+        pushAndEnd(pipe, 1, a, b);
+
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList(a, b, c)));
+    }
+
+    @Test(timeout = 4000)
+    public void sortedByKeysObjectsWithoutTheElementByThemselves() {
+        final MergeInputPipe.Mode mode = new MergeInputPipe.SortedBy(3);
+
+        assertThat(mode.key("x"), equalTo((Object) "x"));
+        assertThat(mode.key(createObjectList(1, 2)), equalTo((Object) createObjectList(1, 2)));
+        assertThat(mode.key(createObjectList(1, 2, 3)), equalTo((Object) 3));
+    }
+
+    @Test(timeout = 4000)
+    public void sortedWaitsUntilEveryLaneHasAnObjectOrHasEnded() {
+        final MergeInputPipe pipe = mergeOf(2, MergeInputPipe.Sorted$.MODULE$);
+        lane(pipe, 0).push("b");
+        lane(pipe, 1).push("a");
+        lane(pipe, 1).push("c");
+
+        // lane 0 may yet push something less than "c"
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList("a", "b")));
+        lane(pipe, 0).setTerminated();
+        lane(pipe, 1).setTerminated();
+        assertThat(pipe.nextBatch(10), equalTo(createObjectList("c")));
+    }
+
+    @Test(timeout = 4000)
+    public void laneBlocksWhenFullUntilTheReaderTakes() throws InterruptedException {
+        final MergeInputPipe pipe = mergeOf(1, MergeInputPipe.Interleaved$.MODULE$);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    lane(pipe, 0).push(i);
+                }
+                lane(pipe, 0).setTerminated();
+            }
+        });
+        pusher.start();
+        int received = 0;
+        while (pipe.next().isDefined()) {
+            received++;
+        }
+        pusher.join();
+        assertThat(received, equalTo(10));
+    }
+
+    @Test(timeout = 4000)
+    public void cancellingCancelsEveryLaneAndReleasesBlockedPushers() throws InterruptedException {
+        final MergeInputPipe pipe = mergeOf(2, MergeInputPipe.Interleaved$.MODULE$);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    lane(pipe, 0).push(i); // would block once the lane is full
+                }
+            }
+        });
+        pusher.start();
+        assertThat(pipe.next().isDefined(), equalTo(true));
+
+        pipe.cancel();
+        pusher.join();
+        assertThat(pipe.isCancelled(), equalTo(true));
+        assertThat(CancellablePipe$.MODULE$.isCancelled(lane(pipe, 0)), equalTo(true));
+        assertThat(CancellablePipe$.MODULE$.isCancelled(lane(pipe, 1)), equalTo(true));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+}
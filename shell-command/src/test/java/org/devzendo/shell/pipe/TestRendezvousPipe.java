@@ -105,9 +105,17 @@ public class TestRendezvousPipe {
         assertThat(option, OptionMatcher.isNone());
     }
 
+    @Test(timeout = 4000)
+    public void objectPushedBeforeEndOfStreamIsStillReceived() {
+        pipe.push("one");
+        pipe.setEndOfStream();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
     @SuppressWarnings("unchecked")
     @Test(timeout = 4000)
-    public void pushingThreadInterruptedWhenPipeTerminated() throws InterruptedException {
+    public void pushingThreadWokenWhenPipeTerminated() throws InterruptedException {
         pipe.push("one"); // does not block, but next push will
 
         final CountDownLatch outOfPush = new CountDownLatch(1);
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.devzendo.shell.pipe;
+
+import org.devzendo.commoncode.concurrency.ThreadUtils;
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Option;
+import scala.collection.immutable.List;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestRingBufferPipe {
+    private final RingBufferPipe pipe = new RingBufferPipe(2);
+
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new RingBufferPipe(0);
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertThat(new RingBufferPipe(1).capacity(), equalTo(1));
+        assertThat(new RingBufferPipe(3).capacity(), equalTo(4));
+        assertThat(new RingBufferPipe(64).capacity(), equalTo(64));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(timeout = 4000)
+    public void receiverBlocksUntilObjectPushed() throws InterruptedException {
+        final CountDownLatch stored = new CountDownLatch(1);
+        final Object[] store = new Object[] {null};
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store[0] = pipe.next();
+                stored.countDown();
+            }
+        });
+        receiver.start();
+        ThreadUtils.waitNoInterruption(250);
+        pipe.push("hello");
+        stored.await();
+        assertThat((Option<String>) store[0], OptionMatcher.isSome("hello"));
+    }
+
+    @Test(timeout = 4000)
+    public void pushBeyondCapacityBlocksUntilReceiverTakes() throws InterruptedException {
+        pipe.push("one");
+        pipe.push("two");
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.push("three"); // will block
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        assertThat(outOfPush.getCount(), equalTo(1L));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        outOfPush.await();
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("two"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("three"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(timeout = 4000)
+    public void receiverGetsNoneWhenTerminated() throws InterruptedException {
+        final CountDownLatch stored = new CountDownLatch(1);
+        final Object[] store = new Object[] {"replaced-with-none"};
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store[0] = pipe.next();
+                stored.countDown();
+            }
+        });
+        receiver.setName("receiver");
+        receiver.start();
+        ThreadUtils.waitNoInterruption(250); // give it chance to park in next()
+        pipe.setTerminated();
+        stored.await();
+        assertThat((Option<Object>) store[0], OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void objectsPushedBeforeTerminationAreStillReceived() {
+        pipe.push("one");
+        pipe.push("two");
+        pipe.setTerminated();
+        pipe.push("three");
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("one"));
+        assertThat(pipe.next(), OptionMatcher.<Object>isSome("two"));
+        assertThat(pipe.next(), OptionMatcher.isNone());
+    }
+
+    @Test(timeout = 4000)
+    public void pushingThreadWokenWhenPipeTerminated() throws InterruptedException {
+        pipe.push("one");
+        pipe.push("two");
+        final CountDownLatch outOfPush = new CountDownLatch(1);
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipe.push("three"); // will block
+                outOfPush.countDown();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        pipe.setTerminated();
+        outOfPush.await();
+    }
+
+    @Test(timeout = 4000)
+    public void batchesWrapAroundTheRing() {
+        final RingBufferPipe ring = new RingBufferPipe(4);
+        ring.pushBatch(createObjectList("one", "two", "three"));
+        assertThat(ring.nextBatch(2).size(), equalTo(2));
+        ring.pushBatch(createObjectList("four", "five", "six"));
+        final List<Object> batch = ring.nextBatch(10);
+        assertThat(batch.size(), equalTo(4));
+        assertThat(batch.apply(0), equalTo((Object) "three"));
+        assertThat(batch.apply(3), equalTo((Object) "six"));
+    }
+
+    @Test(timeout = 10000)
+    public void allObjectsArriveInOrderBetweenThreads() throws InterruptedException {
+        final int objects = 20000;
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < objects; i++) {
+                    pipe.push(i);
+                }
+                pipe.setTerminated();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        int expected = 0;
+        Option<Object> next = pipe.next();
+        while (next.isDefined()) {
+            assertThat(next.get(), equalTo((Object) expected));
+            expected++;
+            next = pipe.next();
+        }
+        assertThat(expected, equalTo(objects));
+        pusher.join();
+    }
+
+    @Test(timeout = 4000)
+    public void interruptedReceiverStillGetsEveryObject() throws InterruptedException {
+        final int objects = 5;
+        final int[] received = new int[1];
+        final boolean[] interruptRestored = new boolean[1];
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Option<Object> next = pipe.next();
+                while (next.isDefined()) {
+                    received[0]++;
+                    next = pipe.next();
+                }
+                interruptRestored[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        receiver.setName("receiver");
+        receiver.start();
+        ThreadUtils.waitNoInterruption(250);
+        receiver.interrupt();
+        ThreadUtils.waitNoInterruption(250);
+
+        for (int i = 0; i < objects; i++) {
+            pipe.push(i);
+        }
+        pipe.setTerminated();
+        receiver.join();
+
+        assertThat(received[0], equalTo(objects));
+        assertThat(interruptRestored[0], equalTo(true));
+    }
+
+    @Test(timeout = 4000)
+    public void interruptedPusherStillPushesEveryObject() throws InterruptedException {
+        final int objects = 5;
+        final boolean[] interruptRestored = new boolean[1];
+        final Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < objects; i++) {
+                    pipe.push(i);
+                }
+                interruptRestored[0] = Thread.currentThread().isInterrupted();
+                pipe.setTerminated();
+            }
+        });
+        pusher.setName("pusher");
+        pusher.start();
+        ThreadUtils.waitNoInterruption(250);
+        pusher.interrupt();
+        ThreadUtils.waitNoInterruption(250);
+
+        int received = 0;
+        while (pipe.next().isDefined()) {
+            received++;
+        }
+        pusher.join();
+
+        assertThat(received, equalTo(objects));
+        assertThat(interruptRestored[0], equalTo(true));
+    }
+
+    @Test(timeout = 4000)
+    public void cancelListenerCalledWhenPipeCancelled() {
+        final boolean[] told = new boolean[1];
+        pipe.onCancel(new scala.runtime.AbstractFunction0<scala.runtime.BoxedUnit>() {
+            @Override
+            public scala.runtime.BoxedUnit apply() {
+                told[0] = true;
+                return scala.runtime.BoxedUnit.UNIT;
+            }
+        });
+
+        pipe.cancel();
+
+        assertThat(told[0], equalTo(true));
+        assertThat(pipe.isCancelled(), equalTo(true));
+    }
+}
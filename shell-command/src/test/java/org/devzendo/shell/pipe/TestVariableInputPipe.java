@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import static org.devzendo.shell.pipe.OptionMatcher.isSome;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 
 public class TestVariableInputPipe {
     private Variable mVar = new Variable();
@@ -42,6 +43,18 @@ public class TestVariableInputPipe {
         assertThat(pipe.next(), OptionMatcher.isNone());
     }
 
+    @Test
+    public void variableInputPipeReadsBatchesFromVariable() {
+        mVar.add("hello");
+        mVar.add("big");
+        mVar.add("world");
+
+        final VariableInputPipe pipe = new VariableInputPipe(mVar);
+        assertThat(pipe.nextBatch(2).size(), equalTo(2));
+        assertThat(pipe.next(), isSome((Object)"world"));
+        assertThat(pipe.nextBatch(2).isEmpty(), equalTo(true));
+    }
+
     @Test
     public void nothingReturnedWhenTerminated() {
         mVar.add("hello");
@@ -18,6 +18,7 @@ package org.devzendo.shell.pipe;
 import org.devzendo.shell.interpreter.Variable;
 import org.junit.Test;
 
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.fail;
@@ -37,6 +38,17 @@ public class TestVariableOutputPipe {
         assertThat(mVar.get(0).toString(), equalTo("hello"));
     }
 
+    @Test
+    public void variableOutputPipeWritesBatchesToVariable() {
+        final VariableOutputPipe pipe = new VariableOutputPipe(mVar);
+
+        pipe.pushBatch(createObjectList("hello", "world"));
+
+        assertThat(mVar.size(), equalTo(2));
+        assertThat(mVar.get(0).toString(), equalTo("hello"));
+        assertThat(mVar.get(1).toString(), equalTo("world"));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void cannotStoreWhenTerminated() {
         final VariableOutputPipe pipe = new VariableOutputPipe(mVar);
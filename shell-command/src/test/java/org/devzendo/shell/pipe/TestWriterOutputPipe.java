@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2008-2011 Matt Gumbley, DevZendo.org <http://devzendo.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.devzendo.shell.pipe;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.devzendo.shell.ScalaListHelper.createObjectList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestWriterOutputPipe {
+    private final StringWriter stringWriter = new StringWriter();
+    private final WriterOutputPipe pipe = new WriterOutputPipe(new PrintWriter(stringWriter));
+
+    @Test
+    public void writerOutputPipeWritesLinePerObject() {
+        pipe.push("hello");
+        pipe.push(42);
+        pipe.setTerminated();
+
+        assertThat(stringWriter.toString(), equalTo(lines("hello", "42")));
+    }
+
+    @Test
+    public void writerOutputPipeWritesBatchesLinePerObject() {
+        pipe.pushBatch(createObjectList("hello", "world"));
+        pipe.setTerminated();
+
+        assertThat(stringWriter.toString(), equalTo(lines("hello", "world")));
+    }
+
+    private String lines(final String... lines) {
+        final StringWriter expected = new StringWriter();
+        final PrintWriter printWriter = new PrintWriter(expected);
+        for (final String line : lines) {
+            printWriter.println(line);
+        }
+        printWriter.flush();
+        return expected.toString();
+    }
+}